@@ -0,0 +1,69 @@
+#!/bin/bash
+
+# Colors for output
+GREEN='\033[0;32m'
+YELLOW='\033[1;33m'
+RED='\033[0;31m'
+NC='\033[0m' # No Color
+
+# Usage: ./run-benchmarks.sh [JMH options], e.g.
+#   ./run-benchmarks.sh JsonBenchmark                      # one class, no database needed
+#   ./run-benchmarks.sh PodcastFunctionsBenchmark          # needs BENCHMARK_DATABASE_URL
+#   ./run-benchmarks.sh recall type=hnsw metric=cosine     # pgvector index recall, needs BENCHMARK_DATABASE_URL
+# Results are written to results/<timestamp>.json; compare two runs with any JMH JSON viewer.
+
+cd "$(dirname "$0")"
+
+echo -e "${GREEN}Feedback Loops Java - Benchmarks${NC}"
+echo "================================="
+
+# Benchmarks run against the installed function app artifact
+echo -e "${YELLOW}Installing the function app...${NC}"
+(cd .. && mvn -q -DskipTests install)
+if [ $? -ne 0 ]; then
+    echo -e "${RED}Installing the function app failed. Please check the errors above.${NC}"
+    exit 1
+fi
+
+echo -e "${YELLOW}Building benchmarks...${NC}"
+mvn -q clean package
+if [ $? -ne 0 ]; then
+    echo -e "${RED}Building benchmarks failed. Please check the errors above.${NC}"
+    exit 1
+fi
+
+# PodcastFunctions reads its settings from the environment when the class loads. OpenAI is
+# replaced by in-process stubs, so the endpoint is a placeholder that is never called.
+export AzureOpenAIEndpoint="https://localhost.invalid"
+export AzureOpenAIApiKey="stub"
+export AzureOpenAIEmbeddingDeploymentName="stub-embedding"
+export AzureOpenAIChatCompletionDeploymentName="stub-chat"
+export NeonDatabaseConnectionString="${BENCHMARK_DATABASE_URL:-jdbc:postgresql://localhost:5432/postgres?user=postgres&password=postgres}"
+# Measure the full recommendation pass rather than cache hits
+export RecommendationCacheMaxEntries=0
+export EmbeddingCacheMaxEntries=0
+
+# Index recall is measured per query rather than timed by JMH
+if [ "$1" = "recall" ]; then
+    shift
+    echo -e "${YELLOW}Measuring vector index recall...${NC}"
+    java -Djava.util.logging.config.file=logging.properties \
+        -cp target/benchmarks.jar com.example.feedbackloops.benchmarks.VectorIndexRecall "$@"
+    exit $?
+fi
+
+mkdir -p results
+RESULTS="results/$(date +%Y%m%d-%H%M%S).json"
+
+echo -e "${YELLOW}Running benchmarks...${NC}"
+java -jar target/benchmarks.jar \
+    -prof gc \
+    -rf json -rff "$RESULTS" \
+    -jvmArgsAppend "-Djava.util.logging.config.file=logging.properties" \
+    "$@"
+if [ $? -ne 0 ]; then
+    echo -e "${RED}Benchmarks failed. Please check the errors above.${NC}"
+    exit 1
+fi
+
+echo -e "${GREEN}Results written to benchmarks/$RESULTS${NC}"
@@ -0,0 +1,123 @@
+#!/bin/bash
+
+# Colors for output
+GREEN='\033[0;32m'
+YELLOW='\033[1;33m'
+RED='\033[0;31m'
+NC='\033[0m' # No Color
+
+# Usage: ./run-loadtest.sh [stub|host|run] [key=value options], e.g.
+#   ./run-loadtest.sh rate=50 duration=120                 # stub, function host and load generator together
+#   ./run-loadtest.sh stub chatLatencyMs=800 throttleRate=0.05
+#   ./run-loadtest.sh host                                 # function host wired to the stub
+#   ./run-loadtest.sh run rate=50 mix=recommend-podcasts:9,update-user-history:1
+# Without a mode, options starting with stub. go to the stub (stub.errorRate=0.01) and the rest
+# to the load generator. Needs the Azure Functions Core Tools and a local Postgres with pgvector
+# created by data/sample_data.sql, at LOADTEST_DATABASE_URL.
+
+cd "$(dirname "$0")"
+
+STUB_PORT="${LOADTEST_STUB_PORT:-8443}"
+TLS_DIR="target/loadtest"
+KEYSTORE="$TLS_DIR/stub-keystore.p12"
+TRUSTSTORE="$TLS_DIR/stub-truststore.p12"
+STOREPASS="changeit"
+
+export AzureOpenAIEndpoint="https://localhost:$STUB_PORT"
+export AzureOpenAIApiKey="stub"
+export AzureOpenAIEmbeddingDeploymentName="stub-embedding"
+export AzureOpenAIChatCompletionDeploymentName="stub-chat"
+export NeonDatabaseConnectionString="${LOADTEST_DATABASE_URL:-jdbc:postgresql://localhost:5432/postgres?user=postgres&password=postgres}"
+
+build() {
+    echo -e "${YELLOW}Installing the function app...${NC}"
+    (cd .. && mvn -q -DskipTests install) || { echo -e "${RED}Installing the function app failed.${NC}"; exit 1; }
+    echo -e "${YELLOW}Building the load test tools...${NC}"
+    mvn -q clean package || { echo -e "${RED}Building the load test tools failed.${NC}"; exit 1; }
+}
+
+# The Azure SDK only sends API keys over HTTPS, so the stub gets a self-signed certificate that
+# only the function host started here trusts
+certificates() {
+    if [ -f "$KEYSTORE" ] && [ -f "$TRUSTSTORE" ]; then
+        return
+    fi
+    mkdir -p "$TLS_DIR"
+    rm -f "$KEYSTORE" "$TRUSTSTORE"
+    keytool -genkeypair -alias stub -keyalg EC -groupname secp256r1 -validity 365 \
+        -dname "CN=localhost" -ext "SAN=dns:localhost,ip:127.0.0.1" \
+        -keystore "$KEYSTORE" -storetype PKCS12 -storepass "$STOREPASS" -noprompt || exit 1
+    keytool -exportcert -alias stub -keystore "$KEYSTORE" -storepass "$STOREPASS" -file "$TLS_DIR/stub.cer" || exit 1
+    keytool -importcert -alias stub -file "$TLS_DIR/stub.cer" -keystore "$TRUSTSTORE" -storetype PKCS12 \
+        -storepass "$STOREPASS" -noprompt || exit 1
+}
+
+run_stub() {
+    java -cp target/benchmarks.jar com.example.feedbackloops.benchmarks.OpenAIStubServer \
+        port="$STUB_PORT" keystore="$KEYSTORE" storepass="$STOREPASS" "$@"
+}
+
+run_host() {
+    # Core Tools keeps variables that are already set, so these win over local.settings.json
+    export languageWorkers__java__arguments="--add-modules=jdk.incubator.vector -Djavax.net.ssl.trustStore=$(pwd)/$TRUSTSTORE -Djavax.net.ssl.trustStorePassword=$STOREPASS"
+    (cd .. && mvn -q azure-functions:package && mvn azure-functions:run)
+}
+
+run_load() {
+    java -Djava.util.logging.config.file=logging.properties \
+        -cp target/benchmarks.jar com.example.feedbackloops.benchmarks.LoadGenerator "$@"
+}
+
+echo -e "${GREEN}Feedback Loops Java - Load Test${NC}"
+echo "================================="
+
+case "$1" in
+    stub)
+        shift
+        build && certificates
+        run_stub "$@"
+        ;;
+    host)
+        certificates
+        run_host
+        ;;
+    run)
+        shift
+        build
+        run_load "$@"
+        ;;
+    *)
+        STUB_ARGS=()
+        LOAD_ARGS=()
+        for arg in "$@"; do
+            case "$arg" in
+                stub.*) STUB_ARGS+=("${arg#stub.}") ;;
+                *) LOAD_ARGS+=("$arg") ;;
+            esac
+        done
+
+        build && certificates
+        mkdir -p results
+        LOGS="results/loadtest-$(date +%Y%m%d-%H%M%S)"
+        run_stub "${STUB_ARGS[@]}" > "$LOGS-stub.log" 2>&1 &
+        STUB_PID=$!
+        run_host > "$LOGS-host.log" 2>&1 &
+        HOST_PID=$!
+        trap 'kill $STUB_PID 2>/dev/null; pkill -P $HOST_PID 2>/dev/null; kill $HOST_PID 2>/dev/null' EXIT
+
+        echo -e "${YELLOW}Waiting for the function host (log: benchmarks/$LOGS-host.log)...${NC}"
+        for _ in $(seq 1 180); do
+            if curl -s -o /dev/null "http://localhost:7071/api/metrics"; then
+                break
+            fi
+            if ! kill -0 $HOST_PID 2>/dev/null; then
+                echo -e "${RED}The function host exited. Please check the log above.${NC}"
+                exit 1
+            fi
+            sleep 1
+        done
+
+        run_load "${LOAD_ARGS[@]}" | tee "$LOGS.txt"
+        echo -e "${GREEN}Report written to benchmarks/$LOGS.txt${NC}"
+        ;;
+esac
@@ -0,0 +1,89 @@
+package com.example.feedbackloops.benchmarks;
+
+import com.azure.ai.openai.models.EmbeddingItem;
+import com.azure.ai.openai.models.Embeddings;
+import com.azure.core.util.BinaryData;
+import com.example.feedbackloops.models.Embedding;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turning an embeddings response body into {@link Embedding}s the way the SDK sees it: the
+ * default float array parsed into a boxed {@code List<Float>} per item, versus the base64
+ * payload {@code EmbeddingService} requests with {@code encoding_format}. Both start from the
+ * raw response bytes. Run with {@code -prof gc} to compare allocation per call:
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar EmbeddingBenchmark -prof gc
+ * </pre>
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class EmbeddingBenchmark {
+    @Param({"1536"})
+    public int dimensions;
+
+    @Param({"1", "16"})
+    public int batchSize;
+
+    private byte[] floatArrayResponse;
+    private byte[] base64Response;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        StringBuilder floats = new StringBuilder("{\"object\":\"list\",\"data\":[");
+        StringBuilder base64 = new StringBuilder("{\"object\":\"list\",\"data\":[");
+        for (int item = 0; item < batchSize; item++) {
+            ByteBuffer buffer = ByteBuffer.allocate(dimensions * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            StringBuilder values = new StringBuilder();
+            for (int i = 0; i < dimensions; i++) {
+                float value = (float) random.nextGaussian() / 40;
+                buffer.putFloat(value);
+                values.append(i == 0 ? "" : ",").append(value);
+            }
+            String separator = item == 0 ? "" : ",";
+            floats.append(separator).append(item(item, "[" + values + "]"));
+            base64.append(separator).append(item(item, "\"" + Base64.getEncoder().encodeToString(buffer.array()) + "\""));
+        }
+        String usage = "],\"usage\":{\"prompt_tokens\":" + batchSize + ",\"total_tokens\":" + batchSize + "}}";
+        floatArrayResponse = (floats + usage).getBytes(StandardCharsets.UTF_8);
+        base64Response = (base64 + usage).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String item(int index, String embedding) {
+        return "{\"object\":\"embedding\",\"index\":" + index + ",\"embedding\":" + embedding + "}";
+    }
+
+    @Benchmark
+    public List<Embedding> floatArrayResponse() {
+        Embeddings embeddings = BinaryData.fromBytes(floatArrayResponse).toObject(Embeddings.class);
+        List<Embedding> result = new ArrayList<>(embeddings.getData().size());
+        for (EmbeddingItem item : embeddings.getData()) {
+            result.add(Embedding.fromList(item.getEmbedding()));
+        }
+        return result;
+    }
+
+    @Benchmark
+    public List<Embedding> base64Response() {
+        Embeddings embeddings = BinaryData.fromBytes(base64Response).toObject(Embeddings.class);
+        List<Embedding> result = new ArrayList<>(embeddings.getData().size());
+        for (EmbeddingItem item : embeddings.getData()) {
+            result.add(Embedding.fromBase64(item.getEmbeddingAsString()));
+        }
+        return result;
+    }
+}
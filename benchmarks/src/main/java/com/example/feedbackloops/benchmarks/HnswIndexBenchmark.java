@@ -0,0 +1,123 @@
+package com.example.feedbackloops.benchmarks;
+
+import com.example.feedbackloops.services.HnswIndex;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Search latency of the in-memory HNSW index against an exact scan over the same vectors.
+ * Recall@k for each {@code efSearch} is printed once per fork after the index is built.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HnswIndexBenchmark {
+    private static final int K = 10;
+    private static final int QUERIES = 256;
+
+    @Param({"10000"})
+    public int size;
+
+    @Param({"1536"})
+    public int dimensions;
+
+    @Param({"32", "64", "128"})
+    public int efSearch;
+
+    private HnswIndex index;
+    private float[][] vectors;
+    private float[][] queries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        vectors = new float[size][];
+        index = new HnswIndex(dimensions, 16, 100, false);
+        for (int i = 0; i < size; i++) {
+            vectors[i] = randomUnitVector(random);
+            index.add(i, vectors[i]);
+        }
+        queries = new float[QUERIES][];
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = randomUnitVector(random);
+        }
+
+        int found = 0;
+        for (float[] query : queries) {
+            Set<Integer> exact = new HashSet<>();
+            for (int id : exactSearch(query)) {
+                exact.add(id);
+            }
+            for (HnswIndex.SearchResult result : index.search(query, K, efSearch)) {
+                if (exact.contains(result.getId())) {
+                    found++;
+                }
+            }
+        }
+        System.out.printf("recall@%d (efSearch=%d): %.3f%n", K, efSearch, found / (double) (QUERIES * K));
+    }
+
+    @Benchmark
+    public List<HnswIndex.SearchResult> hnswSearch() {
+        return index.search(nextQuery(), K, efSearch);
+    }
+
+    @Benchmark
+    public int[] exactSearch() {
+        return exactSearch(nextQuery());
+    }
+
+    private float[] nextQuery() {
+        next = (next + 1) % QUERIES;
+        return queries[next];
+    }
+
+    private int[] exactSearch(float[] query) {
+        int[] best = new int[K];
+        float[] bestDistance = new float[K];
+        Arrays.fill(bestDistance, Float.MAX_VALUE);
+        for (int i = 0; i < vectors.length; i++) {
+            float[] vector = vectors[i];
+            float distance = 0f;
+            for (int d = 0; d < dimensions; d++) {
+                float diff = query[d] - vector[d];
+                distance += diff * diff;
+            }
+            if (distance < bestDistance[K - 1]) {
+                int position = K - 1;
+                while (position > 0 && bestDistance[position - 1] > distance) {
+                    bestDistance[position] = bestDistance[position - 1];
+                    best[position] = best[position - 1];
+                    position--;
+                }
+                bestDistance[position] = distance;
+                best[position] = i;
+            }
+        }
+        return best;
+    }
+
+    private float[] randomUnitVector(Random random) {
+        float[] vector = new float[dimensions];
+        double norm = 0;
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] = (float) random.nextGaussian();
+            norm += vector[i] * vector[i];
+        }
+        float scale = (float) (1.0 / Math.sqrt(norm));
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] *= scale;
+        }
+        return vector;
+    }
+}
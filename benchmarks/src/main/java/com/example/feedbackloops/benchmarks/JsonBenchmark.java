@@ -0,0 +1,93 @@
+package com.example.feedbackloops.benchmarks;
+
+import com.example.feedbackloops.models.PodcastRecommendation;
+import com.example.feedbackloops.models.PodcastRequest;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson (de)serialization of the request and response models, plus the two ways of writing
+ * a get-suggested-podcasts page: building maps for {@code writeValueAsString} versus streaming
+ * rows through a {@link JsonGenerator}.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class JsonBenchmark {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Param({"20000"})
+    public int transcriptLength;
+
+    @Param({"100"})
+    public int pageSize;
+
+    private String podcastRequestJson;
+    private List<PodcastRecommendation> recommendations;
+
+    @Setup
+    public void setUp() throws IOException {
+        StringBuilder transcript = new StringBuilder(transcriptLength);
+        while (transcript.length() < transcriptLength) {
+            transcript.append("Today we talk about \"neural networks\" and how they learn. ");
+        }
+        podcastRequestJson = objectMapper.writeValueAsString(new PodcastRequest("AI and the Future", transcript.toString()));
+
+        recommendations = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            recommendations.add(new PodcastRecommendation(String.valueOf(i), "Podcast " + i, "Short description " + i, i / 20f));
+        }
+    }
+
+    @Benchmark
+    public PodcastRequest readPodcastRequest() throws IOException {
+        return objectMapper.readValue(podcastRequestJson, PodcastRequest.class);
+    }
+
+    @Benchmark
+    public String writeRecommendations() throws IOException {
+        return objectMapper.writeValueAsString(recommendations);
+    }
+
+    @Benchmark
+    public String writeSuggestedPageAsMaps() throws IOException {
+        List<Map<String, Object>> result = new ArrayList<>(pageSize);
+        for (int i = 0; i < pageSize; i++) {
+            Map<String, Object> item = new HashMap<>();
+            item.put("userId", 1);
+            item.put("podcastId", i);
+            item.put("title", "Podcast " + i);
+            result.add(item);
+        }
+        return objectMapper.writeValueAsString(result);
+    }
+
+    @Benchmark
+    public byte[] streamSuggestedPage() throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(body)) {
+            generator.writeStartArray();
+            for (int i = 0; i < pageSize; i++) {
+                generator.writeStartObject();
+                generator.writeNumberField("userId", 1);
+                generator.writeNumberField("podcastId", i);
+                generator.writeStringField("title", "Podcast " + i);
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        }
+        return body.toByteArray();
+    }
+}
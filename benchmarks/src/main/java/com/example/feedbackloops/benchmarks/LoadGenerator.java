@@ -0,0 +1,346 @@
+package com.example.feedbackloops.benchmarks;
+
+import com.example.feedbackloops.services.SqlExecutorService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop load generator for the running function app. Requests are started at a fixed
+ * target rate whether or not earlier ones have finished, and each latency is measured from the
+ * time the request was due rather than when it was sent, so a stalled server shows up in the
+ * percentiles instead of silently lowering the rate.
+ *
+ * <pre>
+ * ./run-loadtest.sh run rate=50 duration=120 mix=recommend-podcasts:6,get-suggested-podcasts:2,update-user-history:1,add-podcast:1
+ * </pre>
+ *
+ * Before measuring it inserts {@code users} users directly into the database, gives each one a
+ * listening history through {@code update-user-history?wait=true}, and adds {@code podcasts}
+ * podcasts, then runs {@code warmup} seconds of unrecorded load. Options are {@code key=value}:
+ * {@code baseUrl}, {@code rate} (requests per second), {@code duration} and {@code warmup}
+ * (seconds), {@code mix} (endpoint weights), {@code users}, {@code podcasts},
+ * {@code maxInFlight} (requests beyond it are counted as skipped) and {@code seed}.
+ */
+public final class LoadGenerator {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final String[] TOPICS = {
+        "artificial intelligence", "space exploration", "climate science", "personal finance", "world history",
+        "robotics", "nutrition", "startups", "music production", "psychology", "cybersecurity", "ocean life"
+    };
+
+    private final HttpClient client = HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_1_1)
+        .connectTimeout(Duration.ofSeconds(10))
+        .executor(Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "load-generator");
+            thread.setDaemon(true);
+            return thread;
+        }))
+        .build();
+    private final String baseUrl;
+    private final int users;
+    private final long runId = System.currentTimeMillis();
+    private long podcastCount;
+
+    private LoadGenerator(String baseUrl, int users) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.users = users;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        String baseUrl = options.getOrDefault("baseUrl", "http://localhost:7071/api");
+        double rate = Double.parseDouble(options.getOrDefault("rate", "20"));
+        int duration = Integer.parseInt(options.getOrDefault("duration", "60"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "10"));
+        int users = Integer.parseInt(options.getOrDefault("users", "100"));
+        int podcasts = Integer.parseInt(options.getOrDefault("podcasts", "50"));
+        int maxInFlight = Integer.parseInt(options.getOrDefault("maxInFlight", "1000"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "42"));
+        Map<String, Integer> mix = parseMix(options.getOrDefault("mix",
+            "recommend-podcasts:6,get-suggested-podcasts:2,update-user-history:1,add-podcast:1"));
+
+        LoadGenerator generator = new LoadGenerator(baseUrl, users);
+        generator.seed(podcasts);
+
+        SplittableRandom random = new SplittableRandom(seed);
+        if (warmup > 0) {
+            System.out.printf("Warming up for %d s at %.1f requests/s...%n", warmup, rate);
+            generator.run(mix, rate, warmup, maxInFlight, random, new HashMap<>());
+        }
+        System.out.printf("Measuring for %d s at %.1f requests/s...%n", duration, rate);
+        Map<String, Stats> stats = new TreeMap<>();
+        long start = System.nanoTime();
+        generator.run(mix, rate, duration, maxInFlight, random, stats);
+        report(stats, (System.nanoTime() - start) / 1e9);
+    }
+
+    static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Expected key=value but got " + arg);
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        return options;
+    }
+
+    private static Map<String, Integer> parseMix(String mix) {
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.split(":");
+            int weight = parts.length > 1 ? Integer.parseInt(parts[1]) : 1;
+            if (!List.of("add-podcast", "update-user-history", "recommend-podcasts", "get-suggested-podcasts").contains(parts[0])) {
+                throw new IllegalArgumentException("Unknown endpoint in mix: " + parts[0]);
+            }
+            if (weight > 0) {
+                weights.put(parts[0], weight);
+            }
+        }
+        if (weights.isEmpty()) {
+            throw new IllegalArgumentException("mix has no endpoint with a positive weight");
+        }
+        return weights;
+    }
+
+    /**
+     * Creates the users the scenarios pick from and gives each an embedding, and adds podcasts
+     * so recommendations have a catalog. Safe to repeat: existing users are kept and the podcast
+     * transcripts are fixed, so a second run finds them instead of adding more.
+     */
+    private void seed(int podcasts) {
+        String connectionString = System.getenv("NeonDatabaseConnectionString");
+        if (connectionString == null || connectionString.isEmpty()) {
+            throw new IllegalStateException("NeonDatabaseConnectionString must point at the function app's database");
+        }
+        SqlExecutorService sqlExecutorService = new SqlExecutorService(connectionString);
+        try {
+            Map<String, Object> parameters = new LinkedHashMap<>();
+            parameters.put("1", users);
+            sqlExecutorService.executeUpdateAsync("""
+                INSERT INTO users (id, name)
+                SELECT g, 'Load test user ' || g FROM generate_series(1, ?) AS g
+                ON CONFLICT (id) DO NOTHING
+                """, parameters).join();
+            // Keep the serial ahead of the explicit ids
+            sqlExecutorService.executeQueryAsync(
+                "SELECT setval(pg_get_serial_sequence('users', 'id'), (SELECT max(id) FROM users))", null).join();
+        } finally {
+            sqlExecutorService.close();
+        }
+
+        System.out.printf("Seeding %d podcasts and %d user histories...%n", podcasts, users);
+        List<CompletableFuture<HttpResponse<String>>> pending = new ArrayList<>();
+        for (int i = 0; i < podcasts; i++) {
+            pending.add(send(addPodcast("seed-" + i, new SplittableRandom(i))));
+        }
+        awaitSeeded(pending, "add-podcast");
+        for (int userId = 1; userId <= users; userId++) {
+            pending.add(send(updateUserHistory(userId, new SplittableRandom(-userId), true)));
+        }
+        awaitSeeded(pending, "update-user-history");
+    }
+
+    private static void awaitSeeded(List<CompletableFuture<HttpResponse<String>>> pending, String endpoint) {
+        for (CompletableFuture<HttpResponse<String>> future : pending) {
+            HttpResponse<String> response = future.join();
+            if (response.statusCode() >= 300) {
+                throw new IllegalStateException("Seeding " + endpoint + " failed with " + response.statusCode()
+                    + ": " + response.body());
+            }
+        }
+        pending.clear();
+    }
+
+    private void run(Map<String, Integer> mix, double rate, int seconds, int maxInFlight,
+                     SplittableRandom random, Map<String, Stats> stats) {
+        String[] endpoints = mix.keySet().toArray(new String[0]);
+        int[] cumulative = new int[endpoints.length];
+        int total = 0;
+        for (int i = 0; i < endpoints.length; i++) {
+            total += mix.get(endpoints[i]);
+            cumulative[i] = total;
+        }
+        for (String endpoint : endpoints) {
+            stats.putIfAbsent(endpoint, new Stats());
+        }
+
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        long intervalNanos = (long) (1e9 / rate);
+        long count = (long) (rate * seconds);
+        long start = System.nanoTime();
+        List<CompletableFuture<?>> outstanding = new ArrayList<>();
+        for (long i = 0; i < count; i++) {
+            long due = start + i * intervalNanos;
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+
+            int pick = random.nextInt(total);
+            int index = 0;
+            while (cumulative[index] <= pick) {
+                index++;
+            }
+            String endpoint = endpoints[index];
+            Stats endpointStats = stats.get(endpoint);
+            if (!inFlight.tryAcquire()) {
+                endpointStats.skipped();
+                continue;
+            }
+
+            HttpRequest request = request(endpoint, random.split());
+            outstanding.add(send(request).whenComplete((response, e) -> {
+                inFlight.release();
+                endpointStats.record(System.nanoTime() - due, e == null ? response.statusCode() : -1);
+            }));
+        }
+        for (CompletableFuture<?> future : outstanding) {
+            future.exceptionally(e -> null).join();
+        }
+    }
+
+    private HttpRequest request(String endpoint, SplittableRandom random) {
+        int userId = 1 + random.nextInt(users);
+        return switch (endpoint) {
+            case "add-podcast" -> addPodcast(runId + "-" + (podcastCount++), random);
+            case "update-user-history" -> updateUserHistory(userId, random, false);
+            case "recommend-podcasts" -> get("recommend-podcasts?userId=" + userId);
+            case "get-suggested-podcasts" -> get("get-suggested-podcasts?userId=" + userId);
+            default -> throw new IllegalArgumentException(endpoint);
+        };
+    }
+
+    private HttpRequest addPodcast(String key, SplittableRandom random) {
+        String topic = TOPICS[random.nextInt(TOPICS.length)];
+        Map<String, String> body = new LinkedHashMap<>();
+        body.put("title", "Load test episode " + key + " on " + topic);
+        body.put("transcript", "In episode " + key + " the hosts discuss " + topic + " and "
+            + TOPICS[random.nextInt(TOPICS.length)] + ", with listener questions and a guest interview.");
+        return post("add-podcast", body);
+    }
+
+    private HttpRequest updateUserHistory(int userId, SplittableRandom random, boolean wait) {
+        Map<String, String> body = new LinkedHashMap<>();
+        body.put("userId", String.valueOf(userId));
+        body.put("listeningHistory", "Listens to " + TOPICS[random.nextInt(TOPICS.length)] + ", "
+            + TOPICS[random.nextInt(TOPICS.length)] + " and " + TOPICS[random.nextInt(TOPICS.length)] + ".");
+        return post("update-user-history" + (wait ? "?wait=true" : ""), body);
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + "/" + path))
+            .timeout(Duration.ofSeconds(60))
+            .GET()
+            .build();
+    }
+
+    private HttpRequest post(String path, Map<String, String> body) {
+        try {
+            return HttpRequest.newBuilder(URI.create(baseUrl + "/" + path))
+                .timeout(Duration.ofSeconds(60))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(body)))
+                .build();
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not serialize request body", e);
+        }
+    }
+
+    private CompletableFuture<HttpResponse<String>> send(HttpRequest request) {
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static void report(Map<String, Stats> stats, double elapsedSeconds) {
+        System.out.printf("%n%-24s %8s %8s %8s %9s %9s %9s %9s %9s%n",
+            "endpoint", "requests", "errors", "skipped", "req/s", "p50 ms", "p95 ms", "p99 ms", "max ms");
+        Stats all = new Stats();
+        for (Map.Entry<String, Stats> entry : stats.entrySet()) {
+            print(entry.getKey(), entry.getValue(), elapsedSeconds);
+            all.addAll(entry.getValue());
+        }
+        print("all", all, elapsedSeconds);
+
+        for (Map.Entry<String, Stats> entry : stats.entrySet()) {
+            if (!entry.getValue().statuses.isEmpty()) {
+                System.out.printf("%s status codes: %s%n", entry.getKey(), entry.getValue().statuses);
+            }
+        }
+    }
+
+    private static void print(String name, Stats stats, double elapsedSeconds) {
+        long[] latencies = stats.latencies();
+        System.out.printf("%-24s %8d %8d %8d %9.1f %9.1f %9.1f %9.1f %9.1f%n", name, latencies.length,
+            stats.errors, stats.skipped, latencies.length / elapsedSeconds,
+            percentile(latencies, 50), percentile(latencies, 95), percentile(latencies, 99), percentile(latencies, 100));
+    }
+
+    private static double percentile(long[] sorted, int percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    /**
+     * Latencies and outcomes of one endpoint. Failed requests count towards the latencies as
+     * well, since a fast error is still a response the caller waited for.
+     */
+    private static final class Stats {
+        private long[] latencies = new long[1024];
+        private int count;
+        private long errors;
+        private long skipped;
+        // Status code, or -1 for connection failures and timeouts, to occurrences
+        private final Map<Integer, Long> statuses = new TreeMap<>();
+
+        synchronized void record(long latencyNanos, int status) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = latencyNanos;
+            if (status < 200 || status >= 300) {
+                errors++;
+            }
+            statuses.merge(status, 1L, Long::sum);
+        }
+
+        synchronized void skipped() {
+            skipped++;
+        }
+
+        synchronized long[] latencies() {
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+
+        synchronized void addAll(Stats other) {
+            for (long latency : other.latencies()) {
+                record(latency, 200);
+            }
+            errors += other.errors;
+            skipped += other.skipped;
+        }
+    }
+}
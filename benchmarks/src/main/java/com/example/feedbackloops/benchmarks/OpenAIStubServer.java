@@ -0,0 +1,249 @@
+package com.example.feedbackloops.benchmarks;
+
+import com.example.feedbackloops.services.TokenCounter;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.util.Base64;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local stand-in for Azure OpenAI, so the function app can be load tested without an endpoint
+ * or quota. Serves the embeddings and chat completions routes of any deployment: embeddings are
+ * the same deterministic unit vectors as {@link StubEmbeddingService}, keyed by the input text,
+ * and chat completions return a fixed sentence.
+ *
+ * <pre>
+ * ./run-loadtest.sh stub port=8443 embeddingLatencyMs=40 chatLatencyMs=600 throttleRate=0.02
+ * </pre>
+ *
+ * The Azure SDK only sends API keys over HTTPS, so the server needs a key store
+ * ({@code keystore} and {@code storepass}); {@code run-loadtest.sh} generates a self-signed
+ * one and a trust store for the function host. Other options are {@code key=value}:
+ * {@code embeddingLatencyMs}, {@code chatLatencyMs}, {@code jitterMs} (uniform extra latency),
+ * {@code errorRate} (share of 500s), {@code throttleRate} (share of 429s),
+ * {@code requestsPerMinute} (quota answered with 429 and {@code retry-after-ms} once exceeded,
+ * {@code 0} for none), {@code dimensions} (used when the request does not set them) and
+ * {@code seed}, which fixes the sequence of injected latencies and failures.
+ */
+public final class OpenAIStubServer {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final Pattern ROUTE = Pattern.compile("/openai/deployments/([^/]+)/(embeddings|chat/completions)");
+    private static final String COMPLETION = "A stub summary of this podcast episode for load testing.";
+
+    private final long embeddingLatencyMillis;
+    private final long chatLatencyMillis;
+    private final long jitterMillis;
+    private final double errorRate;
+    private final double throttleRate;
+    private final int requestsPerMinute;
+    private final int defaultDimensions;
+    private final long seed;
+    private final AtomicLong requestCount = new AtomicLong();
+
+    // Guarded by this; fixed one-minute quota windows are close enough for a stub
+    private long windowStartMillis;
+    private int windowRequests;
+
+    private OpenAIStubServer(Map<String, String> options) {
+        this.embeddingLatencyMillis = Long.parseLong(options.getOrDefault("embeddingLatencyMs", "40"));
+        this.chatLatencyMillis = Long.parseLong(options.getOrDefault("chatLatencyMs", "500"));
+        this.jitterMillis = Long.parseLong(options.getOrDefault("jitterMs", "20"));
+        this.errorRate = Double.parseDouble(options.getOrDefault("errorRate", "0"));
+        this.throttleRate = Double.parseDouble(options.getOrDefault("throttleRate", "0"));
+        this.requestsPerMinute = Integer.parseInt(options.getOrDefault("requestsPerMinute", "0"));
+        this.defaultDimensions = Integer.parseInt(options.getOrDefault("dimensions", "1536"));
+        this.seed = Long.parseLong(options.getOrDefault("seed", "42"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = LoadGenerator.parseOptions(args);
+        int port = Integer.parseInt(options.getOrDefault("port", "8443"));
+        String keystore = options.get("keystore");
+        if (keystore == null) {
+            throw new IllegalArgumentException("keystore=<PKCS12 file> is required; run-loadtest.sh creates one");
+        }
+        char[] password = options.getOrDefault("storepass", "changeit").toCharArray();
+
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream in = new FileInputStream(keystore)) {
+            keyStore.load(in, password);
+        }
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keyStore, password);
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagers.getKeyManagers(), null, null);
+
+        OpenAIStubServer stub = new OpenAIStubServer(options);
+        HttpsServer server = HttpsServer.create(new InetSocketAddress(port), 1024);
+        server.setHttpsConfigurator(new HttpsConfigurator(sslContext));
+        server.createContext("/openai/deployments/", stub::handle);
+        // Latency is simulated by sleeping, so every in-flight request needs its own thread
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        System.out.printf("OpenAI stub listening on https://localhost:%d/%n", port);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            Matcher route = ROUTE.matcher(exchange.getRequestURI().getPath());
+            if (!"POST".equals(exchange.getRequestMethod()) || !route.matches()) {
+                send(exchange, 404, error("NotFound", "Unknown route " + exchange.getRequestURI().getPath()));
+                return;
+            }
+            JsonNode body = objectMapper.readTree(exchange.getRequestBody());
+            boolean embeddings = "embeddings".equals(route.group(2));
+
+            // One random stream per request number keeps a run reproducible whatever the thread timing
+            SplittableRandom random = new SplittableRandom(seed + requestCount.incrementAndGet());
+            long latency = (embeddings ? embeddingLatencyMillis : chatLatencyMillis)
+                + (jitterMillis > 0 ? random.nextLong(jitterMillis + 1) : 0);
+            double roll = random.nextDouble();
+
+            long retryAfterMillis = quotaRetryAfterMillis();
+            if (retryAfterMillis < 0 && roll < throttleRate) {
+                retryAfterMillis = 1000;
+            }
+            if (retryAfterMillis >= 0) {
+                exchange.getResponseHeaders().set("retry-after-ms", String.valueOf(retryAfterMillis));
+                exchange.getResponseHeaders().set("retry-after", String.valueOf((retryAfterMillis + 999) / 1000));
+                send(exchange, 429, error("429", "Requests to the stub deployment have exceeded the rate limit."));
+                return;
+            }
+
+            Thread.sleep(latency);
+            if (roll < throttleRate + errorRate) {
+                send(exchange, 500, error("InternalServerError", "Injected stub failure."));
+                return;
+            }
+
+            String deployment = route.group(1);
+            send(exchange, 200, embeddings ? embeddings(deployment, body) : chatCompletion(deployment, body));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Milliseconds until the quota window resets when this request exceeds it, otherwise
+     * {@code -1}.
+     */
+    private synchronized long quotaRetryAfterMillis() {
+        if (requestsPerMinute <= 0) {
+            return -1;
+        }
+        long now = System.currentTimeMillis();
+        if (now - windowStartMillis >= 60_000) {
+            windowStartMillis = now;
+            windowRequests = 0;
+        }
+        if (++windowRequests <= requestsPerMinute) {
+            return -1;
+        }
+        return 60_000 - (now - windowStartMillis);
+    }
+
+    private ObjectNode embeddings(String deployment, JsonNode body) {
+        int dimensions = body.path("dimensions").asInt(defaultDimensions);
+        boolean base64 = "base64".equals(body.path("encoding_format").asText());
+        JsonNode input = body.path("input");
+
+        ObjectNode response = objectMapper.createObjectNode();
+        response.put("object", "list");
+        response.put("model", deployment);
+        ArrayNode data = response.putArray("data");
+        int tokens = 0;
+        int count = input.isArray() ? input.size() : 1;
+        for (int i = 0; i < count; i++) {
+            String text = input.isArray() ? input.get(i).asText() : input.asText();
+            tokens += countTokens(text);
+            float[] vector = StubEmbeddingService.vectorFor(text.hashCode(), dimensions);
+
+            ObjectNode item = data.addObject();
+            item.put("object", "embedding");
+            item.put("index", i);
+            if (base64) {
+                ByteBuffer buffer = ByteBuffer.allocate(dimensions * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                buffer.asFloatBuffer().put(vector);
+                item.put("embedding", Base64.getEncoder().encodeToString(buffer.array()));
+            } else {
+                ArrayNode values = item.putArray("embedding");
+                for (float value : vector) {
+                    values.add(value);
+                }
+            }
+        }
+        ObjectNode usage = response.putObject("usage");
+        usage.put("prompt_tokens", tokens);
+        usage.put("total_tokens", tokens);
+        return response;
+    }
+
+    private ObjectNode chatCompletion(String deployment, JsonNode body) {
+        int promptTokens = 0;
+        for (JsonNode message : body.path("messages")) {
+            promptTokens += countTokens(message.path("content").asText());
+        }
+        int completionTokens = countTokens(COMPLETION);
+
+        ObjectNode response = objectMapper.createObjectNode();
+        response.put("id", "chatcmpl-stub-" + requestCount.get());
+        response.put("object", "chat.completion");
+        response.put("created", System.currentTimeMillis() / 1000);
+        response.put("model", deployment);
+        ObjectNode choice = response.putArray("choices").addObject();
+        choice.put("index", 0);
+        choice.put("finish_reason", "stop");
+        ObjectNode message = choice.putObject("message");
+        message.put("role", "assistant");
+        message.put("content", COMPLETION);
+        ObjectNode usage = response.putObject("usage");
+        usage.put("prompt_tokens", promptTokens);
+        usage.put("completion_tokens", completionTokens);
+        usage.put("total_tokens", promptTokens + completionTokens);
+        return response;
+    }
+
+    // Usage is reported with the tokenizer the client budgets with, so rate limiting sees real counts
+    private static int countTokens(String text) {
+        return TokenCounter.count(text);
+    }
+
+    private static ObjectNode error(String code, String message) {
+        ObjectNode response = objectMapper.createObjectNode();
+        ObjectNode error = response.putObject("error");
+        error.put("code", code);
+        error.put("message", message);
+        return response;
+    }
+
+    private static void send(HttpExchange exchange, int status, ObjectNode body) throws IOException {
+        byte[] bytes = objectMapper.writeValueAsString(body).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
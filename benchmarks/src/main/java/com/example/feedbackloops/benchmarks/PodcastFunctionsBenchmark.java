@@ -0,0 +1,158 @@
+package com.example.feedbackloops.benchmarks;
+
+import com.example.feedbackloops.PodcastFunctions;
+import com.example.feedbackloops.models.PodcastRequest;
+import com.example.feedbackloops.services.SqlExecutorService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.microsoft.azure.functions.ExecutionContext;
+import com.microsoft.azure.functions.HttpMethod;
+import com.microsoft.azure.functions.HttpResponseMessage;
+import com.microsoft.azure.functions.HttpStatus;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Full add-podcast and recommend-podcasts passes through {@link PodcastFunctions} against a
+ * local Postgres with pgvector, with OpenAI replaced by in-process stubs. Needs the schema
+ * from the README and the environment set by {@code run-benchmarks.sh}.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PodcastFunctionsBenchmark {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final int DIMENSIONS = 1536;
+    private static final String SEED_TITLE = "jmh-seed";
+    private static final String ADDED_TITLE = "jmh-added";
+    private static final String USER_NAME = "jmh-user";
+
+    @Param({"1000"})
+    public int catalogSize;
+
+    @Param({"10"})
+    public int k;
+
+    private SqlExecutorService sqlExecutorService;
+    private PodcastFunctions functions;
+    private ExecutionContext context;
+    private String userId;
+    private String addPodcastBody;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        String connectionString = System.getenv("NeonDatabaseConnectionString");
+        if (connectionString == null || connectionString.isEmpty()) {
+            throw new IllegalStateException("NeonDatabaseConnectionString must point at a local Postgres with pgvector");
+        }
+
+        sqlExecutorService = new SqlExecutorService(connectionString);
+        PodcastFunctions.initialize(new StubEmbeddingService(DIMENSIONS), new StubChatCompletionService(), sqlExecutorService);
+        functions = new PodcastFunctions();
+        context = new BenchmarkContext();
+
+        seedCatalog();
+        userId = String.valueOf(seedUser());
+
+        StringBuilder transcript = new StringBuilder();
+        while (transcript.length() < 20000) {
+            transcript.append("Today we talk about neural networks, robotics and how machines learn. ");
+        }
+        addPodcastBody = objectMapper.writeValueAsString(new PodcastRequest(ADDED_TITLE, transcript.toString()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Map<String, Object> parameters = new LinkedHashMap<>();
+        parameters.put("1", ADDED_TITLE);
+        sqlExecutorService.executeUpdateAsync("DELETE FROM podcast_episodes WHERE title = ?", parameters).join();
+        parameters.put("1", Integer.parseInt(userId));
+        sqlExecutorService.executeUpdateAsync("DELETE FROM suggested_podcasts WHERE user_id = ?", parameters).join();
+        sqlExecutorService.close();
+    }
+
+    @Benchmark
+    public HttpResponseMessage recommendPodcasts() {
+        Map<String, String> query = Map.of("userId", userId, "k", String.valueOf(k));
+        return checked(functions.recommendPodcasts(new StubHttpRequest(HttpMethod.GET, query, null), context));
+    }
+
+    @Benchmark
+    public HttpResponseMessage addPodcast() {
+        return checked(functions.addPodcast(new StubHttpRequest(HttpMethod.POST, Map.of(), addPodcastBody), context));
+    }
+
+    private static HttpResponseMessage checked(HttpResponseMessage response) {
+        if (response.getStatus() != HttpStatus.OK && response.getStatus() != HttpStatus.CREATED) {
+            throw new IllegalStateException("Function returned " + response.getStatus() + ": " + response.getBody());
+        }
+        return response;
+    }
+
+    private void seedCatalog() {
+        Map<String, Object> countParams = new LinkedHashMap<>();
+        countParams.put("1", SEED_TITLE);
+        long existing = ((Number) sqlExecutorService.executeQueryAsync(
+            "SELECT count(*) AS n FROM podcast_episodes WHERE title = ?", countParams).join().get(0).get("n")).longValue();
+
+        String insert = "INSERT INTO podcast_episodes (title, summary, short_description, transcript, embedding) VALUES (?, ?, ?, ?, ?)";
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (long i = existing; i < catalogSize; i++) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("1", SEED_TITLE);
+            row.put("2", "Seeded podcast " + i);
+            row.put("3", "Seeded podcast");
+            row.put("4", "Seeded transcript " + i);
+            row.put("5", StubEmbeddingService.vectorFor(i, DIMENSIONS));
+            rows.add(row);
+            if (rows.size() == 500) {
+                sqlExecutorService.executeBatchInsertAsync(insert, rows).join();
+                rows = new ArrayList<>();
+            }
+        }
+        if (!rows.isEmpty()) {
+            sqlExecutorService.executeBatchInsertAsync(insert, rows).join();
+        }
+    }
+
+    private int seedUser() {
+        Map<String, Object> parameters = new LinkedHashMap<>();
+        parameters.put("1", USER_NAME);
+        List<Map<String, Object>> users = sqlExecutorService.executeQueryAsync(
+            "SELECT id FROM users WHERE name = ?", parameters).join();
+        if (!users.isEmpty()) {
+            return ((Number) users.get(0).get("id")).intValue();
+        }
+
+        parameters.put("2", StubEmbeddingService.vectorFor(-1, DIMENSIONS));
+        return ((Number) sqlExecutorService.executeQueryAsync(
+            "INSERT INTO users (name, embedding) VALUES (?, ?) RETURNING id", parameters).join().get(0).get("id")).intValue();
+    }
+
+    private static final class BenchmarkContext implements ExecutionContext {
+        private final Logger logger = Logger.getLogger("benchmark");
+
+        @Override
+        public Logger getLogger() {
+            return logger;
+        }
+
+        @Override
+        public String getInvocationId() {
+            return "benchmark";
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "benchmark";
+        }
+    }
+}
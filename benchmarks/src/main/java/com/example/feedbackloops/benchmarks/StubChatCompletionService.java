@@ -0,0 +1,19 @@
+package com.example.feedbackloops.benchmarks;
+
+import com.example.feedbackloops.services.ChatCompletionService;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Answers every prompt immediately with a fixed completion instead of calling OpenAI.
+ */
+public class StubChatCompletionService extends ChatCompletionService {
+    public StubChatCompletionService() {
+        super("https://localhost.invalid", "stub", "stub-chat");
+    }
+
+    @Override
+    public CompletableFuture<String> getChatCompletionAsync(String prompt) {
+        return CompletableFuture.completedFuture("A short stub summary of the podcast.");
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.feedbackloops.benchmarks;
+
+import com.example.feedbackloops.models.Embedding;
+import com.example.feedbackloops.services.EmbeddingService;
+import com.example.feedbackloops.services.ServiceExecutor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Executors;
+
+/**
+ * Returns a deterministic unit vector per input instead of calling OpenAI, so benchmarks
+ * measure this service's own overhead. The client built by the parent is never used.
+ */
+public class StubEmbeddingService extends EmbeddingService {
+    private final int dimensions;
+
+    public StubEmbeddingService(int dimensions) {
+        super("https://localhost.invalid", "stub", "stub-embedding", null, 0, 1, 0,
+            new ServiceExecutor(Executors.newCachedThreadPool(), 64));
+        this.dimensions = dimensions;
+    }
+
+    @Override
+    protected List<Embedding> fetchEmbeddings(List<String> inputs) {
+        List<Embedding> embeddings = new ArrayList<>(inputs.size());
+        for (String input : inputs) {
+            embeddings.add(new Embedding(vectorFor(input.hashCode(), dimensions)));
+        }
+        return embeddings;
+    }
+
+    static float[] vectorFor(long seed, int dimensions) {
+        SplittableRandom random = new SplittableRandom(seed);
+        float[] vector = new float[dimensions];
+        double norm = 0;
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] = (float) (random.nextDouble() * 2 - 1);
+            norm += vector[i] * vector[i];
+        }
+        float scale = (float) (1.0 / Math.sqrt(norm));
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] *= scale;
+        }
+        return vector;
+    }
+}
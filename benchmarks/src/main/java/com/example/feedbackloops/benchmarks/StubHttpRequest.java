@@ -0,0 +1,110 @@
+package com.example.feedbackloops.benchmarks;
+
+import com.microsoft.azure.functions.HttpMethod;
+import com.microsoft.azure.functions.HttpRequestMessage;
+import com.microsoft.azure.functions.HttpResponseMessage;
+import com.microsoft.azure.functions.HttpStatus;
+import com.microsoft.azure.functions.HttpStatusType;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Minimal in-memory HTTP request and response for calling function methods directly.
+ */
+public class StubHttpRequest implements HttpRequestMessage<Optional<String>> {
+    private final HttpMethod method;
+    private final Map<String, String> queryParameters;
+    private final String body;
+
+    public StubHttpRequest(HttpMethod method, Map<String, String> queryParameters, String body) {
+        this.method = method;
+        this.queryParameters = queryParameters;
+        this.body = body;
+    }
+
+    @Override
+    public URI getUri() {
+        return URI.create("http://localhost/api");
+    }
+
+    @Override
+    public HttpMethod getHttpMethod() {
+        return method;
+    }
+
+    @Override
+    public Map<String, String> getHeaders() {
+        return Map.of();
+    }
+
+    @Override
+    public Map<String, String> getQueryParameters() {
+        return queryParameters;
+    }
+
+    @Override
+    public Optional<String> getBody() {
+        return Optional.ofNullable(body);
+    }
+
+    @Override
+    public HttpResponseMessage.Builder createResponseBuilder(HttpStatus status) {
+        return new StubResponse(status);
+    }
+
+    @Override
+    public HttpResponseMessage.Builder createResponseBuilder(HttpStatusType status) {
+        return new StubResponse(status);
+    }
+
+    private static final class StubResponse implements HttpResponseMessage, HttpResponseMessage.Builder {
+        private HttpStatusType status;
+        private final Map<String, String> headers = new HashMap<>();
+        private Object body;
+
+        StubResponse(HttpStatusType status) {
+            this.status = status;
+        }
+
+        @Override
+        public HttpStatusType getStatus() {
+            return status;
+        }
+
+        @Override
+        public String getHeader(String key) {
+            return headers.get(key);
+        }
+
+        @Override
+        public Object getBody() {
+            return body;
+        }
+
+        @Override
+        public Builder status(HttpStatusType status) {
+            this.status = status;
+            return this;
+        }
+
+        @Override
+        public Builder header(String key, String value) {
+            headers.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Builder body(Object body) {
+            this.body = body;
+            return this;
+        }
+
+        @Override
+        public HttpResponseMessage build() {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.example.feedbackloops.benchmarks;
+
+import com.example.feedbackloops.services.SqlExecutorService;
+import com.example.feedbackloops.services.VectorIndexManager;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+/**
+ * Recall and latency of the pgvector ANN index managed by {@link VectorIndexManager} against
+ * the exact search, on a synthetic clustered catalog generated into its own table. Not a JMH
+ * benchmark: recall is a property of the results, so every query is run once per setting.
+ *
+ * <pre>
+ * ./run-benchmarks.sh recall type=hnsw metric=cosine rows=50000 sweep=20,40,80,160
+ * </pre>
+ *
+ * Options are {@code key=value}: {@code type} (hnsw, ivfflat), {@code metric} (l2, cosine),
+ * {@code rows}, {@code dimensions}, {@code clusters}, {@code queries}, {@code k}, {@code m},
+ * {@code efConstruction}, {@code lists}, and {@code sweep}, the {@code ef_search} or
+ * {@code probes} values to measure.
+ */
+public final class VectorIndexRecall {
+    private static final String TABLE = "vector_index_recall";
+
+    private VectorIndexRecall() {}
+
+    public static void main(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Expected key=value but got " + arg);
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+
+        VectorIndexManager.IndexType type = VectorIndexManager.IndexType.parse(options.getOrDefault("type", "hnsw"));
+        VectorIndexManager.Metric metric = VectorIndexManager.Metric.parse(options.getOrDefault("metric", "l2"));
+        int rows = Integer.parseInt(options.getOrDefault("rows", "20000"));
+        int dimensions = Integer.parseInt(options.getOrDefault("dimensions", "1536"));
+        int clusters = Integer.parseInt(options.getOrDefault("clusters", "100"));
+        int queries = Integer.parseInt(options.getOrDefault("queries", "200"));
+        int k = Integer.parseInt(options.getOrDefault("k", "10"));
+        int m = Integer.parseInt(options.getOrDefault("m", "16"));
+        int efConstruction = Integer.parseInt(options.getOrDefault("efConstruction", "64"));
+        int lists = Integer.parseInt(options.getOrDefault("lists", "0"));
+        int[] sweep = Arrays.stream(options.getOrDefault("sweep", type == VectorIndexManager.IndexType.IVFFLAT
+                ? "1,5,10,20,40" : "20,40,80,160").split(","))
+            .mapToInt(Integer::parseInt).toArray();
+        if (type == VectorIndexManager.IndexType.NONE) {
+            throw new IllegalArgumentException("type must be hnsw or ivfflat");
+        }
+
+        String connectionString = System.getenv("NeonDatabaseConnectionString");
+        if (connectionString == null || connectionString.isEmpty()) {
+            throw new IllegalStateException("NeonDatabaseConnectionString must point at a local Postgres with pgvector");
+        }
+        SqlExecutorService sqlExecutorService = new SqlExecutorService(connectionString);
+        try {
+            seed(sqlExecutorService, rows, dimensions, clusters);
+            List<float[]> probes = new ArrayList<>(queries);
+            for (int i = 0; i < queries; i++) {
+                probes.add(clusteredVector(new SplittableRandom(-1 - i), dimensions, clusters));
+            }
+
+            String query = "SELECT id FROM " + TABLE + " ORDER BY embedding " + metric.operator() + " ? LIMIT ?";
+            // An index left by an earlier run must not answer the exact queries
+            List<Set<Integer>> truth = new ArrayList<>(queries);
+            long[] exactLatencies = new long[queries];
+            for (int i = 0; i < queries; i++) {
+                Map<String, Object> parameters = parameters(probes.get(i), k);
+                long start = System.nanoTime();
+                truth.add(ids(sqlExecutorService.executeInTransactionAsync(transaction -> {
+                    transaction.executeUpdate("SET LOCAL enable_indexscan = off", null);
+                    return transaction.executeQuery(query, parameters);
+                }).join()));
+                exactLatencies[i] = System.nanoTime() - start;
+            }
+
+            long buildStart = System.nanoTime();
+            manager(sqlExecutorService, type, metric, m, efConstruction, lists, 0, 0).ensureIndexAsync().join();
+            System.out.printf("%s %s index on %d x %d-dim rows ready in %d ms%n", type, metric, rows, dimensions,
+                (System.nanoTime() - buildStart) / 1_000_000);
+
+            String parameter = type == VectorIndexManager.IndexType.HNSW ? "ef_search" : "probes";
+            System.out.printf("%-10s %8s %9s %9s %9s%n", parameter, "recall@" + k, "p50 ms", "p95 ms", "p99 ms");
+            System.out.printf("%-10s %8.3f %9.2f %9.2f %9.2f%n", "exact", 1.0,
+                percentile(exactLatencies, 50), percentile(exactLatencies, 95), percentile(exactLatencies, 99));
+            for (int value : sweep) {
+                VectorIndexManager indexed = manager(sqlExecutorService, type, metric, m, efConstruction, lists,
+                    type == VectorIndexManager.IndexType.HNSW ? value : 0,
+                    type == VectorIndexManager.IndexType.IVFFLAT ? value : 0);
+                long[] latencies = new long[queries];
+                long found = 0;
+                for (int i = 0; i < queries; i++) {
+                    long start = System.nanoTime();
+                    Set<Integer> hits = ids(indexed.searchAsync(query, parameters(probes.get(i), k), k).join());
+                    latencies[i] = System.nanoTime() - start;
+                    hits.retainAll(truth.get(i));
+                    found += hits.size();
+                }
+                System.out.printf("%-10d %8.3f %9.2f %9.2f %9.2f%n", value, (double) found / ((long) queries * k),
+                    percentile(latencies, 50), percentile(latencies, 95), percentile(latencies, 99));
+            }
+        } finally {
+            sqlExecutorService.close();
+        }
+    }
+
+    private static VectorIndexManager manager(SqlExecutorService sqlExecutorService, VectorIndexManager.IndexType type,
+                                              VectorIndexManager.Metric metric, int m, int efConstruction, int lists,
+                                              int efSearch, int probes) {
+        return new VectorIndexManager(sqlExecutorService, TABLE, "embedding", "vector", type, metric,
+            m, efConstruction, lists, efSearch, probes);
+    }
+
+    // The table is reused while its size and dimensions match, so sweeps over index settings skip the load
+    private static void seed(SqlExecutorService sqlExecutorService, int rows, int dimensions, int clusters) {
+        sqlExecutorService.executeUpdateAsync("CREATE TABLE IF NOT EXISTS " + TABLE
+            + " (id INT PRIMARY KEY, embedding VECTOR(" + dimensions + ") NOT NULL)", null).join();
+        Map<String, Object> existing = sqlExecutorService.executeQueryAsync(
+            "SELECT count(*) AS n, max(vector_dims(embedding)) AS dims FROM " + TABLE, null).join().get(0);
+        Object existingDimensions = existing.get("dims");
+        if (((Number) existing.get("n")).intValue() == rows
+                && existingDimensions != null && ((Number) existingDimensions).intValue() == dimensions) {
+            return;
+        }
+
+        System.out.printf("Generating %d rows in %s...%n", rows, TABLE);
+        sqlExecutorService.executeUpdateAsync("DROP TABLE " + TABLE, null).join();
+        sqlExecutorService.executeUpdateAsync("CREATE TABLE " + TABLE
+            + " (id INT PRIMARY KEY, embedding VECTOR(" + dimensions + ") NOT NULL)", null).join();
+        int batch = 1000;
+        for (int from = 0; from < rows; from += batch) {
+            StringBuilder data = new StringBuilder();
+            for (int id = from; id < Math.min(from + batch, rows); id++) {
+                data.append(id).append('\t').append(Arrays.toString(
+                    clusteredVector(new SplittableRandom(id), dimensions, clusters)).replace(" ", "")).append('\n');
+            }
+            byte[] bytes = data.toString().getBytes(StandardCharsets.UTF_8);
+            sqlExecutorService.executeInTransactionAsync(transaction ->
+                transaction.copyIn("COPY " + TABLE + " (id, embedding) FROM STDIN", new ByteArrayInputStream(bytes))).join();
+        }
+        sqlExecutorService.executeUpdateAsync("ANALYZE " + TABLE, null).join();
+    }
+
+    /**
+     * A unit vector near one of {@code clusters} fixed centres. Real embeddings are clustered
+     * by topic; uniformly random vectors would make every neighbour almost equally far away.
+     */
+    private static float[] clusteredVector(SplittableRandom random, int dimensions, int clusters) {
+        float[] centre = StubEmbeddingService.vectorFor(1_000_000L + random.nextInt(clusters), dimensions);
+        float[] noise = StubEmbeddingService.vectorFor(random.nextLong(), dimensions);
+        float[] vector = new float[dimensions];
+        double norm = 0;
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] = centre[i] + 0.5f * noise[i];
+            norm += vector[i] * vector[i];
+        }
+        float scale = (float) (1.0 / Math.sqrt(norm));
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] *= scale;
+        }
+        return vector;
+    }
+
+    private static Map<String, Object> parameters(float[] probe, int k) {
+        Map<String, Object> parameters = new LinkedHashMap<>();
+        parameters.put("1", probe);
+        parameters.put("2", k);
+        return parameters;
+    }
+
+    private static Set<Integer> ids(List<Map<String, Object>> rows) {
+        Set<Integer> ids = new HashSet<>();
+        for (Map<String, Object> row : rows) {
+            ids.add(((Number) row.get("id")).intValue());
+        }
+        return ids;
+    }
+
+    private static double percentile(long[] nanos, int percentile) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+}
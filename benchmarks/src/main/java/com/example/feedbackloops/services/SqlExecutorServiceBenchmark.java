@@ -0,0 +1,149 @@
+package com.example.feedbackloops.services;
+
+import com.example.feedbackloops.models.Embedding;
+import com.pgvector.PGvector;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parameter binding, vector wire encoding and row mapping in {@link SqlExecutorService},
+ * measured against in-memory JDBC stubs so no database is needed. Lives in the services
+ * package to reach the package-private helpers.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SqlExecutorServiceBenchmark {
+    private static final int DIMENSIONS = 1536;
+    private static final String[] RECOMMENDATION_COLUMNS = {"id", "title", "summary", "short_description", "similarity"};
+    private static final String[] RECOMMENDATION_TYPES = {"int4", "text", "text", "text", "float8"};
+
+    private Map<String, Object> insertParameters;
+    private PreparedStatement statement;
+    private Object[] boundValues;
+
+    private float[] vector;
+    private PGvector pgvector;
+    private String vectorText;
+    private byte[] vectorBytes;
+
+    private ResultSet recommendationRow;
+    private ResultSetMetaData recommendationMetaData;
+    private ResultSet embeddingRow;
+    private ResultSetMetaData embeddingMetaData;
+
+    @Setup
+    public void setUp() throws SQLException {
+        Random random = new Random(42);
+        vector = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        pgvector = new PGvector(vector);
+        vectorText = pgvector.getValue();
+        vectorBytes = new byte[pgvector.lengthInBytes()];
+        pgvector.toBytes(vectorBytes, 0);
+
+        // Same shape as the add-podcast insert
+        insertParameters = new LinkedHashMap<>();
+        insertParameters.put("1", "AI and the Future");
+        insertParameters.put("2", "A conversation about how AI will shape the next decade.");
+        insertParameters.put("3", "AI shapes tomorrow");
+        insertParameters.put("4", "transcript ".repeat(2000));
+        insertParameters.put("5", new Embedding(vector));
+
+        boundValues = new Object[insertParameters.size() + 1];
+        statement = (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[] {PreparedStatement.class}, (proxy, method, args) -> {
+                if (method.getName().equals("setObject")) {
+                    boundValues[(Integer) args[0]] = args[1];
+                }
+                return null;
+            });
+
+        Object[] recommendationValues = {42, "AI and the Future", "A conversation about AI.", "AI shapes tomorrow", 0.4321};
+        recommendationRow = stubResultSet(recommendationValues);
+        recommendationMetaData = stubMetaData(RECOMMENDATION_COLUMNS, RECOMMENDATION_TYPES);
+        embeddingRow = stubResultSet(new Object[] {42, new PGvector(vector)});
+        embeddingMetaData = stubMetaData(new String[] {"id", "embedding"}, new String[] {"int4", "vector"});
+    }
+
+    @Benchmark
+    public Object[] bindInsertParameters() throws SQLException {
+        SqlExecutorService.setParameters(statement, insertParameters);
+        return boundValues;
+    }
+
+    @Benchmark
+    public String encodeVectorText() {
+        return new PGvector(vector).getValue();
+    }
+
+    @Benchmark
+    public byte[] encodeVectorBinary() {
+        PGvector value = new PGvector(vector);
+        byte[] bytes = new byte[value.lengthInBytes()];
+        value.toBytes(bytes, 0);
+        return bytes;
+    }
+
+    @Benchmark
+    public float[] decodeVectorText() throws SQLException {
+        return new PGvector(vectorText).toArray();
+    }
+
+    @Benchmark
+    public float[] decodeVectorBinary() throws SQLException {
+        PGvector value = new PGvector();
+        value.setByteValue(vectorBytes, 0);
+        return value.toArray();
+    }
+
+    @Benchmark
+    public Map<String, Object> mapRecommendationRow() throws SQLException {
+        return SqlExecutorService.mapRow(recommendationRow, recommendationMetaData);
+    }
+
+    @Benchmark
+    public Map<String, Object> mapEmbeddingRow() throws SQLException {
+        return SqlExecutorService.mapRow(embeddingRow, embeddingMetaData);
+    }
+
+    private static ResultSet stubResultSet(Object[] values) {
+        return (ResultSet) Proxy.newProxyInstance(SqlExecutorServiceBenchmark.class.getClassLoader(),
+            new Class<?>[] {ResultSet.class}, (proxy, method, args) -> {
+                if (method.getName().equals("getObject") && args.length == 1 && args[0] instanceof Integer) {
+                    return values[(Integer) args[0] - 1];
+                }
+                throw new UnsupportedOperationException(method.getName());
+            });
+    }
+
+    private static ResultSetMetaData stubMetaData(String[] labels, String[] types) {
+        return (ResultSetMetaData) Proxy.newProxyInstance(SqlExecutorServiceBenchmark.class.getClassLoader(),
+            new Class<?>[] {ResultSetMetaData.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getColumnCount":
+                        return labels.length;
+                    case "getColumnLabel":
+                        return labels[(Integer) args[0] - 1];
+                    case "getColumnTypeName":
+                        return types[(Integer) args[0] - 1];
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+    }
+}
@@ -69,6 +69,22 @@ fi
 
 echo -e "${GREEN}Packaging successful!${NC}"
 
+# Optional AppCDS archive: ./build-and-run.sh --appcds
+if [ "$1" == "--appcds" ]; then
+    echo -e "${YELLOW}Building AppCDS archive...${NC}"
+    mvn -q package -Pappcds -DskipTests
+
+    if [ $? -ne 0 ]; then
+        echo -e "${RED}Building the AppCDS archive failed. Please check the errors above.${NC}"
+        exit 1
+    fi
+
+    # Same class path the archive was dumped with; a different one makes the JVM ignore it
+    CDS_CLASSPATH="target/feedback-loops-java-1.0.0.jar:target/azure-functions/feedback-loops-java/lib/*"
+    echo -e "${YELLOW}Cold start without the archive:${NC} $(java -cp "$CDS_CLASSPATH" com.example.feedbackloops.StartupTraining 2>/dev/null)"
+    echo -e "${YELLOW}Cold start with the archive:${NC}    $(java -XX:SharedArchiveFile=target/app-cds.jsa -cp "$CDS_CLASSPATH" com.example.feedbackloops.StartupTraining 2>/dev/null)"
+fi
+
 # Check if Azure Functions Core Tools is installed
 if ! command -v func &> /dev/null; then
     echo -e "${RED}Azure Functions Core Tools is not installed.${NC}"
@@ -0,0 +1,81 @@
+-- Compares the exact search with the halfvec candidate search used when
+-- EmbeddingSearchPrecision=halfvec. Run with psql after applying the migrations:
+--   psql "$DATABASE_URL" -v k=10 -v oversampling=4 -f data/benchmarks/halfvec_tradeoffs.sql
+
+\timing on
+
+-- Storage: average stored bytes per row and total heap + TOAST size of each column
+SELECT
+    avg(pg_column_size(embedding))::int AS full_bytes_per_row,
+    avg(pg_column_size(embedding_half))::int AS half_bytes_per_row,
+    pg_size_pretty(sum(pg_column_size(embedding))) AS full_total,
+    pg_size_pretty(sum(pg_column_size(embedding_half))) AS half_total
+FROM podcast_episodes;
+
+-- Recall@k of the candidate phase alone and after the full-precision re-rank, averaged over users
+WITH exact AS (
+    SELECT u.id AS user_id, p.id AS podcast_id
+    FROM users u
+    CROSS JOIN LATERAL (
+        SELECT id FROM podcast_episodes
+        WHERE embedding IS NOT NULL
+        ORDER BY embedding <-> u.embedding
+        LIMIT :k
+    ) p
+    WHERE u.embedding IS NOT NULL
+),
+half_only AS (
+    SELECT u.id AS user_id, p.id AS podcast_id
+    FROM users u
+    CROSS JOIN LATERAL (
+        SELECT id FROM podcast_episodes
+        WHERE embedding_half IS NOT NULL
+        ORDER BY embedding_half <-> u.embedding::halfvec
+        LIMIT :k
+    ) p
+    WHERE u.embedding IS NOT NULL
+),
+reranked AS (
+    SELECT u.id AS user_id, r.id AS podcast_id
+    FROM users u
+    CROSS JOIN LATERAL (
+        SELECT c.id FROM (
+            SELECT id, embedding FROM podcast_episodes
+            WHERE embedding_half IS NOT NULL
+            ORDER BY embedding_half <-> u.embedding::halfvec
+            LIMIT :k * :oversampling
+        ) c
+        ORDER BY c.embedding <-> u.embedding
+        LIMIT :k
+    ) r
+    WHERE u.embedding IS NOT NULL
+)
+SELECT
+    (SELECT count(*) FROM half_only h JOIN exact e USING (user_id, podcast_id))::float
+        / NULLIF((SELECT count(*) FROM exact), 0) AS halfvec_recall,
+    (SELECT count(*) FROM reranked r JOIN exact e USING (user_id, podcast_id))::float
+        / NULLIF((SELECT count(*) FROM exact), 0) AS reranked_recall;
+
+-- Latency of a single recommendation query with each plan, for the first user with an embedding
+SELECT embedding AS probe FROM users WHERE embedding IS NOT NULL ORDER BY id LIMIT 1 \gset
+
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT id, embedding <-> :'probe'::vector AS similarity
+FROM podcast_episodes
+WHERE embedding IS NOT NULL
+ORDER BY similarity
+LIMIT :k;
+
+EXPLAIN (ANALYZE, BUFFERS)
+WITH candidates AS (
+    SELECT id
+    FROM podcast_episodes
+    WHERE embedding_half IS NOT NULL
+    ORDER BY embedding_half <-> :'probe'::halfvec
+    LIMIT :k * :oversampling
+)
+SELECT p.id, p.embedding <-> :'probe'::vector AS similarity
+FROM podcast_episodes p
+JOIN candidates c ON c.id = p.id
+ORDER BY similarity
+LIMIT :k;
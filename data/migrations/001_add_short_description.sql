@@ -0,0 +1,3 @@
+-- Store the GPT short description once per podcast instead of regenerating it per recommendation.
+-- Existing rows are filled in by the BackfillShortDescriptions timer function.
+ALTER TABLE podcast_episodes ADD COLUMN IF NOT EXISTS short_description TEXT;
@@ -0,0 +1,8 @@
+-- Half-precision copy of the podcast embedding (3 KB instead of 6 KB per row) used for
+-- candidate retrieval when EmbeddingSearchPrecision=halfvec. Requires pgvector 0.7.0 or later.
+-- The column is generated, so existing rows are converted when it is added and every writer
+-- (add-podcast, bulk-add-podcasts, manual updates) keeps it in sync without application changes.
+-- Adding a stored generated column rewrites the table; run it in a maintenance window on large catalogs.
+ALTER TABLE podcast_episodes
+    ADD COLUMN IF NOT EXISTS embedding_half HALFVEC(1536)
+    GENERATED ALWAYS AS (embedding::halfvec(1536)) STORED;
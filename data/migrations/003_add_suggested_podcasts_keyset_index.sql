@@ -0,0 +1,5 @@
+-- Supports keyset pagination in get-suggested-podcasts: the page is read straight from the index
+-- in (similarity_score, id) order for one user, however deep the cursor is.
+-- CONCURRENTLY avoids blocking recommendation inserts; it cannot run inside a transaction block.
+CREATE INDEX CONCURRENTLY IF NOT EXISTS suggested_podcasts_user_score_id_idx
+    ON suggested_podcasts (user_id, similarity_score, id);
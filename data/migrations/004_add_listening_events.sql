@@ -0,0 +1,15 @@
+-- Listening events fold podcast embeddings into users.embedding without re-embedding the history.
+-- The log is kept so the optional ReconcileUserEmbeddings job can rebuild an embedding from scratch.
+CREATE TABLE IF NOT EXISTS listening_events (
+    id BIGSERIAL PRIMARY KEY,
+    user_id INT NOT NULL,
+    podcast_id INT NOT NULL,
+    weight FLOAT NOT NULL,
+    listened_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    FOREIGN KEY (user_id) REFERENCES users (id) ON DELETE CASCADE,
+    FOREIGN KEY (podcast_id) REFERENCES podcast_episodes (id) ON DELETE CASCADE
+);
+
+CREATE INDEX IF NOT EXISTS listening_events_user_id_idx ON listening_events (user_id, id);
+
+ALTER TABLE users ADD COLUMN IF NOT EXISTS reconciled_at TIMESTAMP;
@@ -0,0 +1,14 @@
+-- Top-k lists written by the PrecomputeRecommendations job. A list is served only while
+-- users.embedding_updated_at is not later than its computed_at.
+CREATE TABLE IF NOT EXISTS precomputed_recommendations (
+    user_id INT NOT NULL,
+    rank INT NOT NULL,
+    podcast_id INT NOT NULL,
+    distance FLOAT NOT NULL,
+    computed_at TIMESTAMP NOT NULL,
+    PRIMARY KEY (user_id, rank),
+    FOREIGN KEY (user_id) REFERENCES users (id) ON DELETE CASCADE,
+    FOREIGN KEY (podcast_id) REFERENCES podcast_episodes (id) ON DELETE CASCADE
+);
+
+ALTER TABLE users ADD COLUMN IF NOT EXISTS embedding_updated_at TIMESTAMP;
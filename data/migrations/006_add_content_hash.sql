@@ -0,0 +1,20 @@
+-- Ingestion is idempotent on the transcript: content_hash is the hex SHA-256 of the transcript
+-- in NFC with runs of whitespace collapsed to one space and the ends trimmed, matching
+-- PodcastDeduplicator.contentHash. Needs PostgreSQL 13+ for normalize().
+ALTER TABLE podcast_episodes ADD COLUMN IF NOT EXISTS content_hash TEXT;
+
+UPDATE podcast_episodes
+SET content_hash = encode(sha256(convert_to(
+        btrim(regexp_replace(normalize(transcript, NFC), E'[ \t\n\013\f\r]+', ' ', 'g'), ' '),
+        'UTF8')), 'hex')
+WHERE content_hash IS NULL;
+
+-- Duplicates ingested before this migration keep their rows; only the oldest one owns the hash
+UPDATE podcast_episodes p
+SET content_hash = NULL
+WHERE EXISTS (
+    SELECT 1 FROM podcast_episodes older
+    WHERE older.content_hash = p.content_hash AND older.id < p.id
+);
+
+CREATE UNIQUE INDEX IF NOT EXISTS podcast_episodes_content_hash_key ON podcast_episodes (content_hash);
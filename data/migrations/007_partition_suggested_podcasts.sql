@@ -0,0 +1,63 @@
+-- Rebuilds suggested_podcasts with one row per user and podcast, partitioned by month on
+-- suggested_at. Recommendations update a user's earlier row for a podcast, keeping its id and
+-- the best score with the latest suggested_at, and the MaintainSuggestedPodcasts job creates the coming months' partitions and drops the ones past
+-- SuggestedPodcastsRetentionDays.
+-- The default partition only receives rows when no monthly partition covers them.
+-- Copies the table, so run it while recommendations are paused; it takes an exclusive lock.
+BEGIN;
+
+ALTER TABLE suggested_podcasts RENAME TO suggested_podcasts_unpartitioned;
+ALTER TABLE suggested_podcasts_unpartitioned RENAME CONSTRAINT suggested_podcasts_pkey TO suggested_podcasts_unpartitioned_pkey;
+ALTER INDEX IF EXISTS suggested_podcasts_user_score_id_idx RENAME TO suggested_podcasts_unpartitioned_user_score_id_idx;
+
+CREATE TABLE suggested_podcasts (
+    id INT NOT NULL DEFAULT nextval('suggested_podcasts_id_seq'),
+    user_id INT NOT NULL,
+    podcast_id INT NOT NULL,
+    suggested_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    similarity_score FLOAT,
+    PRIMARY KEY (id, suggested_at),
+    FOREIGN KEY (user_id) REFERENCES users (id) ON DELETE CASCADE,
+    FOREIGN KEY (podcast_id) REFERENCES podcast_episodes (id) ON DELETE CASCADE
+) PARTITION BY RANGE (suggested_at);
+ALTER SEQUENCE suggested_podcasts_id_seq OWNED BY suggested_podcasts.id;
+
+CREATE TABLE suggested_podcasts_default PARTITION OF suggested_podcasts DEFAULT;
+
+-- One partition per month from the oldest suggestion to two months ahead
+DO $$
+DECLARE
+    partition_start DATE := date_trunc('month', COALESCE(
+        (SELECT min(suggested_at) FROM suggested_podcasts_unpartitioned), localtimestamp));
+BEGIN
+    WHILE partition_start <= date_trunc('month', localtimestamp) + interval '2 months' LOOP
+        EXECUTE format('CREATE TABLE %I PARTITION OF suggested_podcasts FOR VALUES FROM (%L) TO (%L)',
+            'suggested_podcasts_p' || to_char(partition_start, 'YYYYMM'),
+            partition_start, partition_start + interval '1 month');
+        partition_start := partition_start + interval '1 month';
+    END LOOP;
+END $$;
+
+-- Each pair keeps the id of its first row with the best score and the time of its latest one,
+-- as a repeated recommendation does
+INSERT INTO suggested_podcasts (id, user_id, podcast_id, suggested_at, similarity_score)
+SELECT DISTINCT ON (user_id, podcast_id)
+    id, user_id, podcast_id,
+    COALESCE(max(suggested_at) OVER (PARTITION BY user_id, podcast_id), localtimestamp),
+    min(similarity_score) OVER (PARTITION BY user_id, podcast_id)
+FROM suggested_podcasts_unpartitioned
+ORDER BY user_id, podcast_id, id;
+
+-- Built after the copy. Covers get-suggested-podcasts, which pages through one user's rows in
+-- (similarity_score, id) order
+CREATE INDEX suggested_podcasts_user_score_id_idx
+    ON suggested_podcasts (user_id, similarity_score, id) INCLUDE (podcast_id);
+-- Finds the row a repeated recommendation updates and the duplicates get-suggested-podcasts
+-- skips. Unique indexes on a partitioned table must contain the partition key, so this cannot
+-- enforce one row per pair by itself; the per-user advisory lock does.
+CREATE UNIQUE INDEX suggested_podcasts_user_podcast_idx
+    ON suggested_podcasts (user_id, podcast_id, suggested_at);
+
+DROP TABLE suggested_podcasts_unpartitioned;
+
+COMMIT;
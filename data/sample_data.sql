@@ -5,23 +5,58 @@ CREATE TABLE podcast_episodes (
     id SERIAL PRIMARY KEY,
     title TEXT NOT NULL,
     summary TEXT,
+    short_description TEXT,
     transcript TEXT NOT NULL,
-    embedding VECTOR(1536)
+    content_hash TEXT UNIQUE,
+    embedding VECTOR(1536),
+    embedding_half HALFVEC(1536) GENERATED ALWAYS AS (embedding::halfvec(1536)) STORED
 );
 
 CREATE TABLE users (
     id SERIAL PRIMARY KEY,
     name TEXT NOT NULL,
     listening_history TEXT,
-    embedding VECTOR(1536)
+    embedding VECTOR(1536),
+    reconciled_at TIMESTAMP,
+    embedding_updated_at TIMESTAMP
 );
 
+-- One row per user and podcast, partitioned by month; the app creates the monthly partitions
 CREATE TABLE suggested_podcasts (
-    id SERIAL PRIMARY KEY,
+    id SERIAL,
     user_id INT NOT NULL,
     podcast_id INT NOT NULL,
-    suggested_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    suggested_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
     similarity_score FLOAT,
+    PRIMARY KEY (id, suggested_at),
+    FOREIGN KEY (user_id) REFERENCES users (id) ON DELETE CASCADE,
+    FOREIGN KEY (podcast_id) REFERENCES podcast_episodes (id) ON DELETE CASCADE
+) PARTITION BY RANGE (suggested_at);
+
+CREATE TABLE suggested_podcasts_default PARTITION OF suggested_podcasts DEFAULT;
+
+CREATE INDEX suggested_podcasts_user_score_id_idx ON suggested_podcasts (user_id, similarity_score, id) INCLUDE (podcast_id);
+CREATE UNIQUE INDEX suggested_podcasts_user_podcast_idx ON suggested_podcasts (user_id, podcast_id, suggested_at);
+
+CREATE TABLE listening_events (
+    id BIGSERIAL PRIMARY KEY,
+    user_id INT NOT NULL,
+    podcast_id INT NOT NULL,
+    weight FLOAT NOT NULL,
+    listened_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    FOREIGN KEY (user_id) REFERENCES users (id) ON DELETE CASCADE,
+    FOREIGN KEY (podcast_id) REFERENCES podcast_episodes (id) ON DELETE CASCADE
+);
+
+CREATE INDEX listening_events_user_id_idx ON listening_events (user_id, id);
+
+CREATE TABLE precomputed_recommendations (
+    user_id INT NOT NULL,
+    rank INT NOT NULL,
+    podcast_id INT NOT NULL,
+    distance FLOAT NOT NULL,
+    computed_at TIMESTAMP NOT NULL,
+    PRIMARY KEY (user_id, rank),
     FOREIGN KEY (user_id) REFERENCES users (id) ON DELETE CASCADE,
     FOREIGN KEY (podcast_id) REFERENCES podcast_episodes (id) ON DELETE CASCADE
 );
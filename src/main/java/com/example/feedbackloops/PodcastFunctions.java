@@ -1,17 +1,54 @@
 package com.example.feedbackloops;
 
+import com.azure.ai.openai.OpenAIClient;
 import com.azure.core.util.Context;
+import com.example.feedbackloops.models.Embedding;
+import com.example.feedbackloops.models.ListeningEventRequest;
+import com.example.feedbackloops.models.PodcastIngestionStatus;
 import com.example.feedbackloops.models.PodcastRecommendation;
 import com.example.feedbackloops.models.PodcastRequest;
 import com.example.feedbackloops.models.UserHistoryRequest;
+import com.example.feedbackloops.services.BoundedFanOut;
 import com.example.feedbackloops.services.ChatCompletionService;
+import com.example.feedbackloops.services.EmbeddingCache;
 import com.example.feedbackloops.services.EmbeddingService;
+import com.example.feedbackloops.services.HnswIndex;
+import com.example.feedbackloops.services.Lazy;
+import com.example.feedbackloops.services.ListeningEventService;
+import com.example.feedbackloops.services.Metrics;
+import com.example.feedbackloops.services.OpenAIClients;
+import com.example.feedbackloops.services.OpenAIRateLimiter;
+import com.example.feedbackloops.services.PodcastDeduplicator;
+import com.example.feedbackloops.services.PodcastDescriptionService;
+import com.example.feedbackloops.services.PodcastIngestionPipeline;
+import com.example.feedbackloops.services.PodcastVectorIndex;
+import com.example.feedbackloops.services.RecommendationCache;
+import com.example.feedbackloops.services.RecommendationPrecomputer;
+import com.example.feedbackloops.services.ReplicaRouter;
+import com.example.feedbackloops.services.ServiceExecutor;
 import com.example.feedbackloops.services.SqlExecutorService;
+import com.example.feedbackloops.services.StartupTimings;
+import com.example.feedbackloops.services.SuggestedPodcastsPartitionManager;
+import com.example.feedbackloops.services.TokenCounter;
+import com.example.feedbackloops.services.TranscriptSummarizer;
+import com.example.feedbackloops.services.UserHistoryWriter;
+import com.example.feedbackloops.services.VectorIndexManager;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.microsoft.azure.functions.*;
 import com.microsoft.azure.functions.annotation.*;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -22,18 +59,287 @@ public class PodcastFunctions {
     private static EmbeddingService embeddingService;
     private static ChatCompletionService chatCompletionService;
     private static SqlExecutorService sqlExecutorService;
+    private static PodcastDescriptionService podcastDescriptionService;
+    private static PodcastDeduplicator podcastDeduplicator;
+    private static TranscriptSummarizer transcriptSummarizer;
+    private static ListeningEventService listeningEventService;
+    private static PodcastVectorIndex podcastVectorIndex;
+    private static RecommendationPrecomputer recommendationPrecomputer;
+    private static VectorIndexManager vectorIndexManager;
+    private static SuggestedPodcastsPartitionManager suggestedPodcastsPartitionManager;
+    private static UserHistoryWriter userHistoryWriter;
+    private static Thread userHistoryShutdownHook;
+    private static boolean userHistoryReadYourWrites;
+    private static RecommendationCache<List<PodcastRecommendation>> recommendationCache;
+    private static int maxRecommendations;
+    private static boolean halfPrecisionSearch;
+    private static int halfPrecisionOversampling;
+    private static int recommendationParallelism;
+    private static int maxSuggestedPageSize;
+    private static String recommendQuery;
+    private static String replicaRecommendQuery;
+    private static String precomputedRecommendQuery;
+    private static String indexedRecommendQuery;
+    private static String lockSuggestionsQuery;
     
     static {
+        long classInitStart = System.nanoTime();
+        StartupTimings.recordSinceJvmStart("jvm-start");
+        
         // Initialize services
         String openAIEndpoint = System.getenv("AzureOpenAIEndpoint");
         String openAIApiKey = System.getenv("AzureOpenAIApiKey");
         String embeddingDeploymentName = System.getenv("AzureOpenAIEmbeddingDeploymentName");
         String chatDeploymentName = System.getenv("AzureOpenAIChatCompletionDeploymentName");
         String connectionString = System.getenv("NeonDatabaseConnectionString");
+        String replicaConnectionString = System.getenv("NeonReplicaConnectionString");
+        
+        int embeddingDimensions = getIntSetting("EmbeddingDimensions", 1536);
+        
+        // Blocking JDBC and OpenAI calls share one executor, each service with its own concurrency cap
+        int databasePoolSize = getIntSetting("DatabaseMaxPoolSize", 10);
+        int replicaPoolSize = replicaConnectionString == null || replicaConnectionString.isEmpty()
+            ? 0
+            : getIntSetting("DatabaseReplicaMaxPoolSize", databasePoolSize);
+        int openAIConcurrency = getIntSetting("OpenAIMaxConcurrency", 16);
+        ExecutorService blockingExecutor = ServiceExecutor.newExecutorService(
+            System.getenv("ServiceExecutionModel"), databasePoolSize + replicaPoolSize + 2 * openAIConcurrency);
+        
+        // Content-addressed embedding cache; the disk tier is only enabled when a path is configured
+        EmbeddingCache embeddingCache = null;
+        int embeddingCacheEntries = getIntSetting("EmbeddingCacheMaxEntries", 10000);
+        if (embeddingCacheEntries > 0) {
+            String diskPath = System.getenv("EmbeddingCacheDiskPath");
+            embeddingCache = diskPath == null || diskPath.isEmpty()
+                ? new EmbeddingCache(embeddingCacheEntries)
+                : new EmbeddingCache(embeddingCacheEntries, Path.of(diskPath),
+                    getIntSetting("EmbeddingCacheDiskSlots", 65536), embeddingDimensions);
+            Metrics.bindEmbeddingCache(embeddingCache);
+        }
+        
+        // Client-side quotas per deployment; 429s and 5xx are retried here rather than by the SDK
+        int openAIMaxRetries = getIntSetting("OpenAIMaxRetries", 3);
+        int openAIRetryBaseDelayMillis = getIntSetting("OpenAIRetryBaseDelayMillis", 500);
+        int openAIRetryMaxDelayMillis = getIntSetting("OpenAIRetryMaxDelayMillis", 30000);
+        OpenAIRateLimiter embeddingRateLimiter = new OpenAIRateLimiter(embeddingDeploymentName,
+            getIntSetting("OpenAIEmbeddingRequestsPerMinute", 0),
+            getIntSetting("OpenAIEmbeddingTokensPerMinute", 0),
+            openAIMaxRetries, openAIRetryBaseDelayMillis, openAIRetryMaxDelayMillis);
+        OpenAIRateLimiter chatRateLimiter = new OpenAIRateLimiter(chatDeploymentName,
+            getIntSetting("OpenAIChatRequestsPerMinute", 0),
+            getIntSetting("OpenAIChatTokensPerMinute", 0),
+            openAIMaxRetries, openAIRetryBaseDelayMillis, openAIRetryMaxDelayMillis);
+        
+        // One HTTP client, pipeline and connection pool for both deployments; each limiter's
+        // policy only reads the responses of its own deployment
+        Lazy<OpenAIClient> openAIClient = Lazy.of("openai-client", () -> OpenAIClients.build(
+            openAIEndpoint, openAIApiKey, embeddingRateLimiter.policy(), chatRateLimiter.policy()));
+        
+        embeddingService = new EmbeddingService(openAIClient, embeddingDeploymentName, embeddingCache,
+            getIntSetting("EmbeddingBatchWindowMillis", 0),
+            getIntSetting("EmbeddingBatchMaxSize", 16),
+            getIntSetting("EmbeddingBatchMaxTokens", 8000),
+            new ServiceExecutor(blockingExecutor, openAIConcurrency, "openai-embedding"),
+            embeddingRateLimiter);
+        chatCompletionService = new ChatCompletionService(openAIClient, chatDeploymentName,
+            new ServiceExecutor(blockingExecutor, openAIConcurrency, "openai-chat"),
+            chatRateLimiter, getIntSetting("ChatCompletionTokenEstimate", 500));
+        // Optional read replica for read-only endpoints; reads go to the primary while it lags
+        // behind the staleness bound or the user has just written
+        sqlExecutorService = new SqlExecutorService(connectionString, databasePoolSize, blockingExecutor,
+            getIntSetting("SqlHotQueryPrepareThreshold", 1),
+            replicaConnectionString, replicaPoolSize,
+            replicaPoolSize == 0 ? null : new ReplicaRouter(
+                getIntSetting("ReplicaMaxStalenessMillis", 5000),
+                getIntSetting("ReplicaReadYourWritesMillis", 1000)));
+        
+        initialize(embeddingService, chatCompletionService, sqlExecutorService);
+        
+        // The OpenAI client, the database pool and the tokenizer do not depend on each other, so
+        // they are built in parallel in the background. A request only waits for the ones it
+        // uses, and whatever is not ready yet is built by the first caller.
+        Lazy<Integer> tokenizer = Lazy.of("tokenizer", () -> TokenCounter.count(""));
+        CompletableFuture.allOf(
+                openAIClient.startAsync(blockingExecutor),
+                sqlExecutorService.startAsync(),
+                tokenizer.startAsync(blockingExecutor))
+            .whenComplete((ignored, e) -> logger.info("Startup timings: " + StartupTimings.report()));
+        StartupTimings.record("class-init", System.nanoTime() - classInitStart);
+    }
+    
+    /**
+     * Wires everything that is built on top of the OpenAI and database clients. Called once with
+     * the clients created from the environment; benchmarks and local harnesses call it again
+     * with stubbed clients.
+     */
+    public static void initialize(EmbeddingService embeddings, ChatCompletionService chatCompletions, SqlExecutorService sql) {
+        embeddingService = embeddings;
+        chatCompletionService = chatCompletions;
+        sqlExecutorService = sql;
+        
+        transcriptSummarizer = new TranscriptSummarizer(chatCompletionService,
+            getIntSetting("SummaryChunkTokens", 3000),
+            getIntSetting("SummaryChunkOverlapTokens", 200),
+            getIntSetting("SummaryParallelism", 4));
+        podcastDescriptionService = new PodcastDescriptionService(chatCompletionService, sqlExecutorService,
+            getIntSetting("ShortDescriptionCacheMaxEntries", 10000));
+        podcastDeduplicator = new PodcastDeduplicator(sqlExecutorService);
+        listeningEventService = new ListeningEventService(sqlExecutorService, embeddingService,
+            getDoubleSetting("ListeningEventDecay", 0.1));
+        
+        maxRecommendations = getIntSetting("RecommendationMaxResults", 20);
+        recommendationParallelism = getIntSetting("RecommendationParallelism", 4);
+        maxSuggestedPageSize = getIntSetting("SuggestedPodcastsMaxPageSize", 1000);
+        
+        // Optional two-phase search: candidates from the halfvec column, re-ranked at full precision
+        halfPrecisionSearch = "halfvec".equalsIgnoreCase(System.getenv("EmbeddingSearchPrecision"));
+        halfPrecisionOversampling = getIntSetting("HalfPrecisionOversampling", 4);
+        
+        // Optional pgvector ANN index on the column the first search phase scans. Its metric
+        // picks the distance operator of every search, with or without an index.
+        vectorIndexManager = new VectorIndexManager(
+            sqlExecutorService,
+            "podcast_episodes",
+            halfPrecisionSearch ? "embedding_half" : "embedding",
+            halfPrecisionSearch ? "halfvec" : "vector",
+            VectorIndexManager.IndexType.parse(System.getenv("VectorIndexType")),
+            VectorIndexManager.Metric.parse(System.getenv("VectorDistanceMetric")),
+            getIntSetting("VectorIndexHnswM", 16),
+            getIntSetting("VectorIndexHnswEfConstruction", 64),
+            getIntSetting("VectorIndexIvfflatLists", 0),
+            getIntSetting("VectorIndexHnswEfSearch", 40),
+            getIntSetting("VectorIndexIvfflatProbes", 10));
+        vectorIndexManager.ensureIndexAsync()
+            .exceptionally(e -> {
+                logger.log(Level.SEVERE, "Error creating the vector index", e);
+                return null;
+            });
+        
+        // Monthly partitions of suggested_podcasts; this month's and the next ones must exist
+        // before the first recommendation is recorded in a fresh database
+        suggestedPodcastsPartitionManager = new SuggestedPodcastsPartitionManager(sqlExecutorService,
+            getIntSetting("SuggestedPodcastsRetentionDays", 90));
+        suggestedPodcastsPartitionManager.maintainAsync()
+            .exceptionally(e -> {
+                logger.log(Level.SEVERE, "Error maintaining the suggested_podcasts partitions", e);
+                return null;
+            });
+        
+        // Each recommendation path is one statement that also records the suggestions, run after
+        // the user's suggestions lock, and all of them run on nearly every request, so they are
+        // prepared on the server. With a read replica the search runs there without recording,
+        // and the hits are recorded on the primary.
+        String recommendTemplate = halfPrecisionSearch ? RECOMMEND_HALFVEC_QUERY : RECOMMEND_EXACT_QUERY;
+        recommendQuery = sqlExecutorService.hotQuery(recommendTemplate.formatted(vectorIndexManager.operator(), RECORD_HITS));
+        replicaRecommendQuery = sqlExecutorService.hasReadReplica()
+            ? sqlExecutorService.hotQuery(recommendTemplate.formatted(vectorIndexManager.operator(), ""))
+            : null;
+        precomputedRecommendQuery = sqlExecutorService.hotQuery(RECOMMEND_PRECOMPUTED_QUERY);
+        indexedRecommendQuery = sqlExecutorService.hotQuery(RECOMMEND_INDEXED_QUERY);
+        lockSuggestionsQuery = sqlExecutorService.hotQuery(LOCK_SUGGESTIONS_QUERY);
         
-        embeddingService = new EmbeddingService(openAIEndpoint, openAIApiKey, embeddingDeploymentName);
-        chatCompletionService = new ChatCompletionService(openAIEndpoint, openAIApiKey, chatDeploymentName);
-        sqlExecutorService = new SqlExecutorService(connectionString);
+        recommendationCache = null;
+        int recommendationCacheEntries = getIntSetting("RecommendationCacheMaxEntries", 10000);
+        if (recommendationCacheEntries > 0) {
+            recommendationCache = new RecommendationCache<>(recommendationCacheEntries,
+                getIntSetting("RecommendationCacheTtlSeconds", 300) * 1000L);
+            Metrics.bindRecommendationCache(recommendationCache);
+        }
+        
+        // Optional in-memory HNSW index; recommendations fall back to SQL until it is warm
+        podcastVectorIndex = null;
+        if (Boolean.parseBoolean(System.getenv("PodcastVectorIndexEnabled"))) {
+            podcastVectorIndex = new PodcastVectorIndex(
+                sqlExecutorService,
+                getIntSetting("EmbeddingDimensions", 1536),
+                getIntSetting("HnswM", 16),
+                getIntSetting("HnswEfConstruction", 200),
+                getIntSetting("HnswEfSearch", 64),
+                vectorIndexManager.getMetric() == VectorIndexManager.Metric.COSINE);
+            podcastVectorIndex.warmAsync();
+        }
+        
+        // Optional write-behind for update-user-history: bursts per user are coalesced into one
+        // embedding and one UPDATE, and whatever is pending is written when the worker shuts down.
+        // A writer from an earlier initialize() writes its pending updates out the same way.
+        long shutdownTimeoutMillis = getIntSetting("UserHistoryShutdownTimeoutSeconds", 20) * 1000L;
+        if (userHistoryWriter != null) {
+            Runtime.getRuntime().removeShutdownHook(userHistoryShutdownHook);
+            userHistoryWriter.close(shutdownTimeoutMillis);
+        }
+        userHistoryWriter = null;
+        userHistoryShutdownHook = null;
+        userHistoryReadYourWrites = !"false".equalsIgnoreCase(System.getenv("UserHistoryReadYourWrites"));
+        if (Boolean.parseBoolean(System.getenv("UserHistoryWriteBehindEnabled"))) {
+            UserHistoryWriter writer = new UserHistoryWriter(
+                embeddingService,
+                sqlExecutorService,
+                getIntSetting("UserHistoryDebounceMillis", 2000),
+                getIntSetting("UserHistoryMaxDelayMillis", 10000),
+                getIntSetting("UserHistoryFlushBatchSize", 16),
+                getIntSetting("UserHistoryMaxAttempts", 5),
+                userId -> {
+                    sqlExecutorService.recordWrite(userId);
+                    if (recommendationCache != null) {
+                        recommendationCache.invalidateUser(userId);
+                    }
+                });
+            userHistoryShutdownHook = new Thread(() -> writer.close(shutdownTimeoutMillis), "user-history-shutdown");
+            Runtime.getRuntime().addShutdownHook(userHistoryShutdownHook);
+            userHistoryWriter = writer;
+        }
+        
+        // Optional nightly top-k lists; users whose embedding changed since are searched live.
+        // Each precomputer has its own worker pool, so the one from an earlier initialize() is closed.
+        if (recommendationPrecomputer != null) {
+            recommendationPrecomputer.close();
+        }
+        recommendationPrecomputer = null;
+        if (Boolean.parseBoolean(System.getenv("RecommendationPrecomputeEnabled"))) {
+            recommendationPrecomputer = new RecommendationPrecomputer(
+                sqlExecutorService,
+                getIntSetting("EmbeddingDimensions", 1536),
+                maxRecommendations,
+                vectorIndexManager.getMetric() == VectorIndexManager.Metric.COSINE,
+                getIntSetting("RecommendationPrecomputeUserTileSize", 4096),
+                getIntSetting("RecommendationPrecomputePodcastTileSize", 8192),
+                getIntSetting("RecommendationPrecomputeMaxCachedPodcasts", 16384),
+                getIntSetting("RecommendationPrecomputeParallelism", 0));
+        }
+    }
+    
+    private static int getIntSetting(String name, int defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isEmpty() ? defaultValue : Integer.parseInt(value);
+    }
+    
+    private static double getDoubleSetting(String name, double defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isEmpty() ? defaultValue : Double.parseDouble(value);
+    }
+    
+    // End-to-end latency per function, tagged with the HTTP status code
+    private static HttpResponseMessage timed(String function, Supplier<HttpResponseMessage> handler) {
+        long start = System.nanoTime();
+        HttpResponseMessage response = handler.get();
+        Metrics.timer("function.duration", "function", function, "status", String.valueOf(response.getStatusCode()))
+            .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return response;
+    }
+    
+    private static void timed(String function, Runnable handler) {
+        long start = System.nanoTime();
+        handler.run();
+        Metrics.timer("function.duration", "function", function, "status", "completed")
+            .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+    
+    private static String writeJson(String function, Object value) throws JsonProcessingException {
+        long start = System.nanoTime();
+        String json = objectMapper.writeValueAsString(value);
+        Metrics.timer("json.serialization", "function", function)
+            .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return json;
     }
     
     @FunctionName("AddPodcast")
@@ -45,7 +351,10 @@ public class PodcastFunctions {
                 authLevel = AuthorizationLevel.FUNCTION
             ) HttpRequestMessage<Optional<String>> request,
             final ExecutionContext context) {
-        
+        return timed("AddPodcast", () -> handleAddPodcast(request));
+    }
+    
+    private HttpResponseMessage handleAddPodcast(HttpRequestMessage<Optional<String>> request) {
         logger.info("Received a request to add a new podcast.");
         
         try {
@@ -64,20 +373,17 @@ public class PodcastFunctions {
                     .build();
             }
             
-            // Generate summary and embedding
-            String summaryPrompt = String.format("Summarize the following podcast transcript:\n%s\nSummary:", data.getTranscript());
-            String summary = chatCompletionService.getChatCompletionAsync(summaryPrompt).join();
-            List<Float> embedding = embeddingService.getEmbeddingAsync(summary).join();
-            
-            // Insert into database
-            String insertQuery = "INSERT INTO podcast_episodes (title, summary, transcript, embedding) VALUES (?, ?, ?, ?)";
-            Map<String, Object> parameters = new LinkedHashMap<>();
-            parameters.put("1", data.getTitle());
-            parameters.put("2", summary);
-            parameters.put("3", data.getTranscript());
-            parameters.put("4", embedding);
-            
-            sqlExecutorService.executeUpdateAsync(insertQuery, parameters).join();
+            // A resent transcript is answered with the stored row before any OpenAI call
+            PodcastDeduplicator.Result result = podcastDeduplicator.ingest(
+                PodcastDeduplicator.contentHash(data.getTranscript()), () -> insertPodcast(data));
+            if (!result.isCreated()) {
+                return request.createResponseBuilder(HttpStatus.OK)
+                    .body(String.format("Podcast '%s' already exists with id %d.", data.getTitle(), result.getPodcastId()))
+                    .build();
+            }
+            if (recommendationCache != null) {
+                recommendationCache.invalidateCatalog();
+            }
             
             return request.createResponseBuilder(HttpStatus.CREATED)
                 .body(String.format("Podcast '%s' added successfully.", data.getTitle()))
@@ -91,6 +397,108 @@ public class PodcastFunctions {
         }
     }
     
+    /**
+     * Summarizes, embeds and inserts a podcast. Returns its id, or {@code null} when a row with
+     * the same transcript was inserted concurrently.
+     */
+    private Integer insertPodcast(PodcastRequest data) {
+        // Generate summary and embedding
+        String summary = transcriptSummarizer.summarizeAsync(data.getTranscript()).join();
+        
+        // The short description only depends on the podcast, so it is generated once here
+        // alongside the embedding instead of on every recommendation
+        CompletableFuture<String> shortDescriptionFuture = podcastDescriptionService.generateShortDescriptionAsync(data.getTitle(), summary);
+        Embedding embedding = embeddingService.getEmbeddingAsync(summary).join();
+        String shortDescription = shortDescriptionFuture.join();
+        
+        // Insert into database
+        String insertQuery = """
+            INSERT INTO podcast_episodes (title, summary, short_description, transcript, content_hash, embedding)
+            VALUES (?, ?, ?, ?, ?, ?)
+            ON CONFLICT (content_hash) DO NOTHING
+            RETURNING id
+            """;
+        Map<String, Object> parameters = new LinkedHashMap<>();
+        parameters.put("1", data.getTitle());
+        parameters.put("2", summary);
+        parameters.put("3", shortDescription);
+        parameters.put("4", data.getTranscript());
+        parameters.put("5", PodcastDeduplicator.contentHash(data.getTranscript()));
+        parameters.put("6", embedding);
+        
+        List<Map<String, Object>> inserted = sqlExecutorService.executeQueryAsync(insertQuery, parameters).join();
+        if (inserted.isEmpty()) {
+            return null;
+        }
+        
+        int podcastId = ((Number) inserted.get(0).get("id")).intValue();
+        if (podcastVectorIndex != null) {
+            podcastVectorIndex.add(podcastId, embedding.toArray());
+        }
+        return podcastId;
+    }
+    
+    @FunctionName("BulkAddPodcasts")
+    public HttpResponseMessage bulkAddPodcasts(
+            @HttpTrigger(
+                name = "req",
+                methods = {HttpMethod.POST},
+                route = "bulk-add-podcasts",
+                authLevel = AuthorizationLevel.FUNCTION
+            ) HttpRequestMessage<Optional<String>> request,
+            final ExecutionContext context) {
+        return timed("BulkAddPodcasts", () -> handleBulkAddPodcasts(request));
+    }
+    
+    private HttpResponseMessage handleBulkAddPodcasts(HttpRequestMessage<Optional<String>> request) {
+        logger.info("Received a request to bulk add podcasts.");
+        
+        try {
+            if (!request.getBody().isPresent()) {
+                return request.createResponseBuilder(HttpStatus.BAD_REQUEST)
+                    .body("Missing request body")
+                    .build();
+            }
+            
+            PodcastIngestionPipeline pipeline = new PodcastIngestionPipeline(
+                embeddingService, sqlExecutorService, podcastDescriptionService, podcastVectorIndex,
+                podcastDeduplicator, transcriptSummarizer::summarizeAsync,
+                getIntSetting("BulkIngestSummarizeParallelism", 4),
+                getIntSetting("BulkIngestEmbeddingBatchSize", 16),
+                getIntSetting("BulkIngestInsertBatchSize", 100),
+                getIntSetting("BulkIngestQueueCapacity", 64));
+            
+            long start = System.nanoTime();
+            List<PodcastIngestionStatus> statuses = pipeline.ingest(new BufferedReader(new StringReader(request.getBody().get())));
+            double elapsedSeconds = (System.nanoTime() - start) / 1_000_000_000.0;
+            
+            long created = statuses.stream().filter(s -> PodcastIngestionStatus.CREATED.equals(s.getStatus())).count();
+            if (created > 0 && recommendationCache != null) {
+                recommendationCache.invalidateCatalog();
+            }
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("total", statuses.size());
+            result.put("created", created);
+            long existing = statuses.stream().filter(s -> PodcastIngestionStatus.EXISTING.equals(s.getStatus())).count();
+            result.put("existing", existing);
+            result.put("failed", statuses.size() - created - existing);
+            result.put("elapsedSeconds", elapsedSeconds);
+            result.put("podcastsPerSecond", elapsedSeconds > 0 ? created / elapsedSeconds : 0);
+            result.put("items", statuses);
+            
+            return request.createResponseBuilder(HttpStatus.OK)
+                .header("Content-Type", "application/json")
+                .body(writeJson("BulkAddPodcasts", result))
+                .build();
+                
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Error bulk adding podcasts", e);
+            return request.createResponseBuilder(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body("Internal server error: " + e.getMessage())
+                .build();
+        }
+    }
+    
     @FunctionName("UpdateUserHistory")
     public HttpResponseMessage updateUserHistory(
             @HttpTrigger(
@@ -100,7 +508,10 @@ public class PodcastFunctions {
                 authLevel = AuthorizationLevel.FUNCTION
             ) HttpRequestMessage<Optional<String>> request,
             final ExecutionContext context) {
-        
+        return timed("UpdateUserHistory", () -> handleUpdateUserHistory(request));
+    }
+    
+    private HttpResponseMessage handleUpdateUserHistory(HttpRequestMessage<Optional<String>> request) {
         logger.info("Received a request to update user listening history.");
         
         try {
@@ -119,17 +530,44 @@ public class PodcastFunctions {
                     .build();
             }
             
+            int userId = Integer.parseInt(data.getUserId());
+            UserHistoryWriter writer = userHistoryWriter;
+            CompletableFuture<Void> written = null;
+            if (writer != null) {
+                try {
+                    written = writer.submit(userId, data.getListeningHistory());
+                } catch (IllegalStateException e) {
+                    // Closed by a re-initialize or shutdown; the update is written synchronously below
+                }
+            }
+            if (written != null) {
+                // wait=true keeps the coalescing but answers only once the update is stored
+                if (!Boolean.parseBoolean(request.getQueryParameters().get("wait"))) {
+                    return request.createResponseBuilder(HttpStatus.ACCEPTED)
+                        .body(String.format("Listening history update for user %s accepted.", data.getUserId()))
+                        .build();
+                }
+                written.join();
+                return request.createResponseBuilder(HttpStatus.OK)
+                    .body(String.format("Listening history for user %s updated successfully.", data.getUserId()))
+                    .build();
+            }
+            
             // Generate embedding for listening history
-            List<Float> embedding = embeddingService.getEmbeddingAsync(data.getListeningHistory()).join();
+            Embedding embedding = embeddingService.getEmbeddingAsync(data.getListeningHistory()).join();
             
             // Update user in database
-            String updateQuery = "UPDATE users SET listening_history = ?, embedding = ? WHERE id = ?";
+            String updateQuery = "UPDATE users SET listening_history = ?, embedding = ?, embedding_updated_at = clock_timestamp() WHERE id = ?";
             Map<String, Object> parameters = new LinkedHashMap<>();
             parameters.put("1", data.getListeningHistory());
             parameters.put("2", embedding);
-            parameters.put("3", Integer.parseInt(data.getUserId()));
+            parameters.put("3", userId);
             
             sqlExecutorService.executeUpdateAsync(updateQuery, parameters).join();
+            sqlExecutorService.recordWrite(userId);
+            if (recommendationCache != null) {
+                recommendationCache.invalidateUser(userId);
+            }
             
             return request.createResponseBuilder(HttpStatus.OK)
                 .body(String.format("Listening history for user %s updated successfully.", data.getUserId()))
@@ -143,6 +581,69 @@ public class PodcastFunctions {
         }
     }
     
+    @FunctionName("RecordListeningEvent")
+    public HttpResponseMessage recordListeningEvent(
+            @HttpTrigger(
+                name = "req",
+                methods = {HttpMethod.POST},
+                route = "record-listening-event",
+                authLevel = AuthorizationLevel.FUNCTION
+            ) HttpRequestMessage<Optional<String>> request,
+            final ExecutionContext context) {
+        return timed("RecordListeningEvent", () -> handleRecordListeningEvent(request));
+    }
+    
+    private HttpResponseMessage handleRecordListeningEvent(HttpRequestMessage<Optional<String>> request) {
+        logger.info("Received a listening event.");
+        
+        try {
+            if (!request.getBody().isPresent()) {
+                return request.createResponseBuilder(HttpStatus.BAD_REQUEST)
+                    .body("Missing request body")
+                    .build();
+            }
+            
+            ListeningEventRequest data = objectMapper.readValue(request.getBody().get(), ListeningEventRequest.class);
+            
+            if (data.getUserId() == null || data.getUserId().isEmpty() || 
+                data.getPodcastId() == null || data.getPodcastId().isEmpty()) {
+                return request.createResponseBuilder(HttpStatus.BAD_REQUEST)
+                    .body("Missing 'userId' or 'podcastId' in the request body.")
+                    .build();
+            }
+            
+            double weight = data.getWeight() != null ? data.getWeight() : 1.0;
+            if (!(weight > 0)) {
+                return request.createResponseBuilder(HttpStatus.BAD_REQUEST)
+                    .body("'weight' must be greater than 0.")
+                    .build();
+            }
+            
+            // Folds the podcast's stored embedding into the user's; no OpenAI call is made
+            int userId = Integer.parseInt(data.getUserId());
+            boolean recorded = listeningEventService.recordAsync(userId, Integer.parseInt(data.getPodcastId()), weight).join();
+            if (!recorded) {
+                return request.createResponseBuilder(HttpStatus.NOT_FOUND)
+                    .body(String.format("User %s or podcast %s not found.", data.getUserId(), data.getPodcastId()))
+                    .build();
+            }
+            sqlExecutorService.recordWrite(userId);
+            if (recommendationCache != null) {
+                recommendationCache.invalidateUser(userId);
+            }
+            
+            return request.createResponseBuilder(HttpStatus.OK)
+                .body(String.format("Listening event for user %s recorded successfully.", data.getUserId()))
+                .build();
+                
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Error recording listening event", e);
+            return request.createResponseBuilder(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body("Internal server error: " + e.getMessage())
+                .build();
+        }
+    }
+    
     @FunctionName("RecommendPodcasts")
     public HttpResponseMessage recommendPodcasts(
             @HttpTrigger(
@@ -152,7 +653,10 @@ public class PodcastFunctions {
                 authLevel = AuthorizationLevel.FUNCTION
             ) HttpRequestMessage<Optional<String>> request,
             final ExecutionContext context) {
-        
+        return timed("RecommendPodcasts", () -> handleRecommendPodcasts(request));
+    }
+    
+    private HttpResponseMessage handleRecommendPodcasts(HttpRequestMessage<Optional<String>> request) {
         logger.info("Received a request to recommend podcasts.");
         
         try {
@@ -166,59 +670,32 @@ public class PodcastFunctions {
             
             int userId = Integer.parseInt(userIdString);
             
-            // Get user embedding
-            String userEmbeddingQuery = "SELECT embedding FROM users WHERE id = ?";
-            Map<String, Object> userParams = new LinkedHashMap<>();
-            userParams.put("1", userId);
-            
-            List<Map<String, Object>> userResult = sqlExecutorService.executeQueryAsync(userEmbeddingQuery, userParams).join();
-            
-            if (userResult.isEmpty() || userResult.get(0).get("embedding") == null) {
-                return request.createResponseBuilder(HttpStatus.NOT_FOUND)
-                    .body(String.format("No embedding found for user ID %d.", userId))
+            String kString = request.getQueryParameters().get("k");
+            int k = kString == null || kString.isEmpty() ? 3 : Integer.parseInt(kString);
+            if (k < 1 || k > maxRecommendations) {
+                return request.createResponseBuilder(HttpStatus.BAD_REQUEST)
+                    .body(String.format("'k' must be between 1 and %d.", maxRecommendations))
                     .build();
             }
             
-            Object userEmbedding = userResult.get(0).get("embedding");
-            
-            // Find similar podcasts
-            String recommendationQuery = """
-                SELECT id, title, summary, embedding <-> ? AS similarity
-                FROM podcast_episodes
-                WHERE embedding IS NOT NULL
-                ORDER BY similarity ASC
-                LIMIT 3
-                """;
-            
-            Map<String, Object> recParams = new LinkedHashMap<>();
-            recParams.put("1", userEmbedding);
+            // A queued history update for the user is written first, so the caller sees it. An
+            // update that could not be written is logged by the writer and the old state is served.
+            if (userHistoryWriter != null && userHistoryReadYourWrites) {
+                userHistoryWriter.flushUserAsync(userId).exceptionally(e -> null).join();
+            }
             
-            List<Map<String, Object>> recommendations = sqlExecutorService.executeQueryAsync(recommendationQuery, recParams).join();
+            // Repeated polls are served from memory until the user's history or the catalog changes
+            List<PodcastRecommendation> responseList = recommendationCache != null
+                ? recommendationCache.get(userId, k, () -> computeRecommendations(userId, k))
+                : computeRecommendations(userId, k);
             
-            List<PodcastRecommendation> responseList = new ArrayList<>();
-            for (Map<String, Object> rec : recommendations) {
-                String prompt = String.format("Summarize the following podcast in 5 words or less:\n\nPodcast: %s\nDescription: %s\n\nSummary:",
-                    rec.get("title"), rec.get("summary"));
-                String shortDescription = chatCompletionService.getChatCompletionAsync(prompt).join();
-                
-                // Insert suggestion into database
-                String insertSuggestionQuery = "INSERT INTO suggested_podcasts (user_id, podcast_id, similarity_score) VALUES (?, ?, ?)";
-                Map<String, Object> suggestionParams = new LinkedHashMap<>();
-                suggestionParams.put("1", userId);
-                suggestionParams.put("2", rec.get("id"));
-                suggestionParams.put("3", rec.get("similarity"));
-                
-                sqlExecutorService.executeUpdateAsync(insertSuggestionQuery, suggestionParams).join();
-                
-                responseList.add(new PodcastRecommendation(
-                    rec.get("id").toString(),
-                    rec.get("title").toString(),
-                    shortDescription,
-                    Float.parseFloat(rec.get("similarity").toString())
-                ));
+            if (responseList == null) {
+                return request.createResponseBuilder(HttpStatus.NOT_FOUND)
+                    .body(String.format("No embedding found for user ID %d.", userId))
+                    .build();
             }
             
-            String jsonResponse = objectMapper.writeValueAsString(responseList);
+            String jsonResponse = writeJson("RecommendPodcasts", responseList);
             return request.createResponseBuilder(HttpStatus.OK)
                 .header("Content-Type", "application/json")
                 .body(jsonResponse)
@@ -232,6 +709,369 @@ public class PodcastFunctions {
         }
     }
     
+    @FunctionName("BackfillShortDescriptions")
+    public void backfillShortDescriptions(
+            @TimerTrigger(name = "timer", schedule = "0 */15 * * * *") String timerInfo,
+            final ExecutionContext context) {
+        timed("BackfillShortDescriptions", this::handleBackfillShortDescriptions);
+    }
+    
+    private void handleBackfillShortDescriptions() {
+        int batchSize = getIntSetting("ShortDescriptionBackfillBatchSize", 50);
+        if (batchSize <= 0) {
+            return;
+        }
+        
+        try {
+            int backfilled = podcastDescriptionService.backfillAsync(batchSize).join();
+            if (backfilled > 0) {
+                logger.info(String.format("Backfilled short descriptions for %d podcasts.", backfilled));
+            }
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Error backfilling short descriptions", e);
+        }
+    }
+    
+    @FunctionName("ReconcileUserEmbeddings")
+    public void reconcileUserEmbeddings(
+            @TimerTrigger(name = "timer", schedule = "0 0 3 * * *") String timerInfo,
+            final ExecutionContext context) {
+        timed("ReconcileUserEmbeddings", this::handleReconcileUserEmbeddings);
+    }
+    
+    private void handleReconcileUserEmbeddings() {
+        int batchSize = getIntSetting("UserEmbeddingReconcileBatchSize", 0);
+        if (batchSize <= 0) {
+            return;
+        }
+        
+        try {
+            int reconciled = listeningEventService.reconcileAsync(batchSize).join();
+            if (reconciled > 0) {
+                logger.info(String.format("Reconciled embeddings for %d users.", reconciled));
+                // Runs once a night, so dropping every cached recommendation is cheap enough
+                if (recommendationCache != null) {
+                    recommendationCache.invalidateCatalog();
+                }
+            }
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Error reconciling user embeddings", e);
+        }
+    }
+    
+    @FunctionName("MaintainVectorIndex")
+    public void maintainVectorIndex(
+            @TimerTrigger(name = "timer", schedule = "0 0 4 * * *") String timerInfo,
+            final ExecutionContext context) {
+        timed("MaintainVectorIndex", this::handleMaintainVectorIndex);
+    }
+    
+    private void handleMaintainVectorIndex() {
+        try {
+            vectorIndexManager.ensureIndexAsync().join();
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Error maintaining the vector index", e);
+        }
+    }
+    
+    @FunctionName("MaintainSuggestedPodcasts")
+    public void maintainSuggestedPodcasts(
+            @TimerTrigger(name = "timer", schedule = "0 15 4 * * *") String timerInfo,
+            final ExecutionContext context) {
+        timed("MaintainSuggestedPodcasts", this::handleMaintainSuggestedPodcasts);
+    }
+    
+    private void handleMaintainSuggestedPodcasts() {
+        try {
+            suggestedPodcastsPartitionManager.maintainAsync().join();
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Error maintaining the suggested_podcasts partitions", e);
+        }
+    }
+    
+    @FunctionName("PrecomputeRecommendations")
+    public void precomputeRecommendations(
+            @TimerTrigger(name = "timer", schedule = "0 30 3 * * *") String timerInfo,
+            final ExecutionContext context) {
+        timed("PrecomputeRecommendations", this::handlePrecomputeRecommendations);
+    }
+    
+    private void handlePrecomputeRecommendations() {
+        if (recommendationPrecomputer == null) {
+            return;
+        }
+        
+        try {
+            int users = recommendationPrecomputer.run();
+            logger.info(String.format("Precomputed recommendations for %d users.", users));
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Error precomputing recommendations", e);
+        }
+    }
+    
+    /**
+     * Finds, describes and records the top {@code k} podcasts for a user. Returns {@code null}
+     * when the user has no embedding yet.
+     */
+    private List<PodcastRecommendation> computeRecommendations(int userId, int k) {
+        List<Map<String, Object>> recommendations = recommendationPrecomputer != null
+            ? findPrecomputedRecommendations(userId, k)
+            : null;
+        if (recommendations == null) {
+            recommendations = findSimilarPodcasts(userId, k);
+            if (recommendations == null) {
+                return null;
+            }
+        }
+        // get-suggested-podcasts reads the new suggestions from the primary until the replica has them
+        sqlExecutorService.recordWrite(userId);
+        
+        // Every path has already recorded the suggestions, so only descriptions are left. They
+        // come from the cache or the stored column, so GPT is only called for podcasts that
+        // have not been backfilled yet; bounded per request and order is preserved.
+        return BoundedFanOut.map(recommendations, recommendationParallelism, rec -> {
+            int podcastId = ((Number) rec.get("id")).intValue();
+            Object storedDescription = rec.get("short_description");
+            
+            return podcastDescriptionService.getShortDescriptionAsync(podcastId, rec.get("title").toString(),
+                    String.valueOf(rec.get("summary")), storedDescription != null ? storedDescription.toString() : null)
+                .thenApply(shortDescription -> new PodcastRecommendation(
+                    rec.get("id").toString(),
+                    rec.get("title").toString(),
+                    shortDescription,
+                    Float.parseFloat(rec.get("similarity").toString())
+                ));
+        }).join();
+    }
+    
+    // Suggestions are recorded from a CTE named hits with id and similarity columns. A podcast
+    // suggested to the user before updates its earlier row: the id stays, the score becomes the
+    // best (lowest distance) of the two and suggested_at is refreshed. The row only changes
+    // partition on the first repeat in a new month.
+    private static final String UPDATE_SUGGESTIONS = """
+        updated AS (
+            UPDATE suggested_podcasts sp
+            SET suggested_at = DEFAULT, similarity_score = LEAST(sp.similarity_score, h.similarity)
+            FROM hits h
+            WHERE sp.user_id = ? AND sp.podcast_id = h.id
+            RETURNING sp.podcast_id
+        )""";
+    private static final String INSERT_SUGGESTIONS = """
+        INSERT INTO suggested_podcasts (user_id, podcast_id, similarity_score)
+        SELECT ?, h.id, h.similarity
+        FROM hits h
+        WHERE NOT EXISTS (SELECT 1 FROM updated u WHERE u.podcast_id = h.id)""";
+    
+    // Serializes the recordings for one user, so the table holds one row per user and podcast.
+    // It is its own statement ahead of the recording one: a lock taken inside that statement
+    // would come after its snapshot, which would then miss the rows of the recording it waited for.
+    private static final String LOCK_SUGGESTIONS_QUERY = "SELECT pg_advisory_xact_lock(hashtext('suggested_podcasts'), ?)";
+    
+    // Records the hits of the queries below; the search templates get it as their second argument
+    private static final String RECORD_HITS = ", " + UPDATE_SUGGESTIONS + ", recorded AS (\n" + INSERT_SUGGESTIONS + "\n)";
+    
+    // Records hits that were searched on the read replica
+    private static final String RECORD_SUGGESTIONS_QUERY = """
+        /* record_suggestions */
+        WITH hits AS (
+            SELECT * FROM unnest(?::int[], ?::float8[]) AS h(id, similarity)
+        ),\s""" + UPDATE_SUGGESTIONS + "\n" + INSERT_SUGGESTIONS;
+    
+    // The list is only used, and only recorded, when all k rows are newer than the embedding
+    private static final String RECOMMEND_PRECOMPUTED_QUERY = """
+        /* recommend_precomputed */
+        WITH listed AS (
+            SELECT pe.id, pe.title, pe.summary, pe.short_description, pr.distance AS similarity, pr.rank
+            FROM precomputed_recommendations pr
+            JOIN users u ON u.id = pr.user_id
+            JOIN podcast_episodes pe ON pe.id = pr.podcast_id
+            WHERE pr.user_id = ?
+              AND pr.rank <= ?
+              AND (u.embedding_updated_at IS NULL OR u.embedding_updated_at <= pr.computed_at)
+        ), hits AS (
+            SELECT id, similarity FROM listed
+            WHERE (SELECT count(*) FROM listed) = ?
+        )""" + RECORD_HITS + """
+        
+        SELECT id, title, summary, short_description, similarity
+        FROM listed
+        ORDER BY rank
+        """;
+    
+    /**
+     * Rows of the user's precomputed list, or {@code null} when there is no complete list for
+     * {@code k} that is newer than the user's embedding.
+     */
+    private List<Map<String, Object>> findPrecomputedRecommendations(int userId, int k) {
+        Map<String, Object> params = new LinkedHashMap<>();
+        params.put("1", userId);
+        params.put("2", k);
+        params.put("3", k);
+        params.put("4", userId);
+        params.put("5", userId);
+        
+        List<Map<String, Object>> rows = recordingSuggestions(userId,
+            transaction -> transaction.executeQuery(precomputedRecommendQuery, params));
+        return rows.size() == k ? rows : null;
+    }
+    
+    // The user's vector is read, searched with and the hits recorded in one statement, so it
+    // never leaves the database. The scalar subquery is evaluated once before the scan, which
+    // lets an ANN index serve the ORDER BY. The final LEFT JOIN returns no rows for a user
+    // without an embedding and a single all-null row for an empty catalog.
+    private static final String RECOMMEND_EXACT_QUERY = """
+        /* recommend_exact */
+        WITH u AS (
+            SELECT embedding FROM users WHERE id = ? AND embedding IS NOT NULL
+        ), hits AS (
+            SELECT id, title, summary, short_description, embedding %1$s (SELECT embedding FROM u) AS similarity
+            FROM podcast_episodes
+            WHERE embedding IS NOT NULL AND EXISTS (SELECT 1 FROM u)
+            ORDER BY embedding %1$s (SELECT embedding FROM u)
+            LIMIT ?
+        )%2$s
+        SELECT h.id, h.title, h.summary, h.short_description, h.similarity
+        FROM u LEFT JOIN hits h ON true
+        ORDER BY h.similarity
+        """;
+    
+    // The scan only reads the half-precision column; the full vectors are read for the
+    // oversampled candidates alone, so the final order and distances match the exact search
+    private static final String RECOMMEND_HALFVEC_QUERY = """
+        /* recommend_halfvec */
+        WITH u AS (
+            SELECT embedding FROM users WHERE id = ? AND embedding IS NOT NULL
+        ), candidates AS (
+            SELECT id
+            FROM podcast_episodes
+            WHERE embedding_half IS NOT NULL AND EXISTS (SELECT 1 FROM u)
+            ORDER BY embedding_half %1$s (SELECT embedding::halfvec FROM u)
+            LIMIT ?
+        ), hits AS (
+            SELECT p.id, p.title, p.summary, p.short_description, p.embedding %1$s (SELECT embedding FROM u) AS similarity
+            FROM podcast_episodes p
+            JOIN candidates c ON c.id = p.id
+            ORDER BY similarity ASC
+            LIMIT ?
+        )%2$s
+        SELECT h.id, h.title, h.summary, h.short_description, h.similarity
+        FROM u LEFT JOIN hits h ON true
+        ORDER BY h.similarity
+        """;
+    
+    // Hits of the in-memory index, passed as parallel arrays in rank order
+    private static final String RECOMMEND_INDEXED_QUERY = """
+        /* recommend_indexed */
+        WITH hits AS (
+            SELECT p.id, p.title, p.summary, p.short_description, h.similarity, h.rank
+            FROM unnest(?::int[], ?::float8[]) WITH ORDINALITY AS h(id, similarity, rank)
+            JOIN podcast_episodes p ON p.id = h.id
+        )""" + RECORD_HITS + """
+        
+        SELECT id, title, summary, short_description, similarity
+        FROM hits
+        ORDER BY rank
+        """;
+    
+    /**
+     * Nearest podcasts to the user's current embedding, already recorded as suggestions, or
+     * {@code null} when the user has no embedding yet.
+     */
+    private List<Map<String, Object>> findSimilarPodcasts(int userId, int k) {
+        if (podcastVectorIndex != null && podcastVectorIndex.isReady()) {
+            return findSimilarPodcastsInIndex(userId, k);
+        }
+        
+        Map<String, Object> recParams = new LinkedHashMap<>();
+        recParams.put("1", userId);
+        int scanLimit = halfPrecisionSearch ? k * halfPrecisionOversampling : k;
+        if (halfPrecisionSearch) {
+            recParams.put("2", scanLimit);
+            recParams.put("3", k);
+        } else {
+            recParams.put("2", k);
+        }
+        
+        List<Map<String, Object>> rows;
+        if (replicaRecommendQuery != null) {
+            rows = vectorIndexManager.searchReplicaAsync(replicaRecommendQuery, recParams, scanLimit, userId).join();
+        } else {
+            recParams.put(String.valueOf(recParams.size() + 1), userId);
+            recParams.put(String.valueOf(recParams.size() + 1), userId);
+            rows = recordingSuggestions(userId,
+                transaction -> vectorIndexManager.search(transaction, recommendQuery, recParams, scanLimit));
+        }
+        if (rows.isEmpty()) {
+            return null;
+        }
+        if (rows.get(0).get("id") == null) {
+            return List.of();
+        }
+        if (replicaRecommendQuery != null) {
+            recordSuggestions(userId, rows);
+        }
+        return rows;
+    }
+    
+    private void recordSuggestions(int userId, List<Map<String, Object>> rows) {
+        int[] ids = new int[rows.size()];
+        double[] similarities = new double[rows.size()];
+        for (int i = 0; i < rows.size(); i++) {
+            ids[i] = ((Number) rows.get(i).get("id")).intValue();
+            similarities[i] = ((Number) rows.get(i).get("similarity")).doubleValue();
+        }
+        
+        Map<String, Object> params = new LinkedHashMap<>();
+        params.put("1", ids);
+        params.put("2", similarities);
+        params.put("3", userId);
+        params.put("4", userId);
+        recordingSuggestions(userId, transaction -> transaction.executeUpdate(RECORD_SUGGESTIONS_QUERY, params));
+    }
+    
+    // Runs statements that record suggestions for the user in one transaction, after taking the
+    // user's suggestions lock
+    private <T> T recordingSuggestions(int userId, SqlExecutorService.TransactionCallback<T> work) {
+        Map<String, Object> lockParams = new LinkedHashMap<>();
+        lockParams.put("1", userId);
+        return sqlExecutorService.executeInTransactionAsync(transaction -> {
+            transaction.executeQuery(lockSuggestionsQuery, lockParams);
+            return work.execute(transaction);
+        }).join();
+    }
+    
+    private List<Map<String, Object>> findSimilarPodcastsInIndex(int userId, int k) {
+        // The in-memory index searches in this process, so here the vector has to be fetched
+        String userEmbeddingQuery = "SELECT embedding FROM users WHERE id = ?";
+        Map<String, Object> userParams = new LinkedHashMap<>();
+        userParams.put("1", userId);
+        
+        List<Map<String, Object>> userResult = sqlExecutorService.executeReadQueryAsync(userEmbeddingQuery, userParams, userId).join();
+        if (userResult.isEmpty() || userResult.get(0).get("embedding") == null) {
+            return null;
+        }
+        
+        List<HnswIndex.SearchResult> hits = podcastVectorIndex.search(((Embedding) userResult.get(0).get("embedding")).toArray(), k);
+        if (hits.isEmpty()) {
+            return List.of();
+        }
+        
+        int[] ids = new int[hits.size()];
+        double[] distances = new double[hits.size()];
+        for (int i = 0; i < hits.size(); i++) {
+            ids[i] = hits.get(i).getId();
+            distances[i] = hits.get(i).getDistance();
+        }
+        
+        // Keeps the index ordering; rows deleted since the index was built are skipped
+        Map<String, Object> hitParams = new LinkedHashMap<>();
+        hitParams.put("1", ids);
+        hitParams.put("2", distances);
+        hitParams.put("3", userId);
+        hitParams.put("4", userId);
+        return recordingSuggestions(userId, transaction -> transaction.executeQuery(indexedRecommendQuery, hitParams));
+    }
+    
     @FunctionName("GetSuggestedPodcasts")
     public HttpResponseMessage getSuggestedPodcasts(
             @HttpTrigger(
@@ -241,7 +1081,10 @@ public class PodcastFunctions {
                 authLevel = AuthorizationLevel.FUNCTION
             ) HttpRequestMessage<Optional<String>> request,
             final ExecutionContext context) {
-        
+        return timed("GetSuggestedPodcasts", () -> handleGetSuggestedPodcasts(request));
+    }
+    
+    private HttpResponseMessage handleGetSuggestedPodcasts(HttpRequestMessage<Optional<String>> request) {
         logger.info("Received a request to fetch suggested podcasts for a user.");
         
         try {
@@ -255,33 +1098,87 @@ public class PodcastFunctions {
             
             int userId = Integer.parseInt(userIdString);
             
-            String query = """
-                SELECT sp.user_id, pe.id AS podcast_id, pe.title
-                FROM suggested_podcasts sp
-                JOIN podcast_episodes pe ON sp.podcast_id = pe.id
-                WHERE sp.user_id = ?
-                ORDER BY sp.similarity_score ASC
-                """;
+            String limitString = request.getQueryParameters().get("limit");
+            int limit = limitString == null || limitString.isEmpty() ? 100 : Integer.parseInt(limitString);
+            if (limit < 1 || limit > maxSuggestedPageSize) {
+                return request.createResponseBuilder(HttpStatus.BAD_REQUEST)
+                    .body(String.format("'limit' must be between 1 and %d.", maxSuggestedPageSize))
+                    .build();
+            }
             
+            // Keyset pagination on (similarity_score, id): each page starts right after the last
+            // row of the previous one, so deep pages cost the same as the first. A repeated
+            // suggestion can only lower a row's score, moving it toward pages already read, so
+            // a client paging through never sees a row twice; one that improved meanwhile is
+            // listed from the next first page on.
             Map<String, Object> parameters = new LinkedHashMap<>();
             parameters.put("1", userId);
+            String cursor = request.getQueryParameters().get("cursor");
+            String keysetCondition = "";
+            if (cursor != null && !cursor.isEmpty()) {
+                String[] position;
+                try {
+                    position = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":");
+                    parameters.put("2", Double.parseDouble(position[0]));
+                    parameters.put("3", Integer.parseInt(position[1]));
+                } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+                    return request.createResponseBuilder(HttpStatus.BAD_REQUEST)
+                        .body("Invalid 'cursor'.")
+                        .build();
+                }
+                keysetCondition = "AND (sp.similarity_score, sp.id) > (?, ?)";
+            }
+            parameters.put(String.valueOf(parameters.size() + 1), limit + 1);
             
-            List<Map<String, Object>> suggested = sqlExecutorService.executeQueryAsync(query, parameters).join();
+            String query = String.format("""
+                SELECT sp.id, sp.user_id, sp.podcast_id, sp.similarity_score, pe.title
+                FROM suggested_podcasts sp
+                JOIN podcast_episodes pe ON sp.podcast_id = pe.id
+                WHERE sp.user_id = ? AND sp.similarity_score IS NOT NULL %s
+                  AND NOT EXISTS (
+                      -- Only the best row of a pair, should the per-user lock ever have been bypassed
+                      SELECT 1 FROM suggested_podcasts d
+                      WHERE d.user_id = sp.user_id AND d.podcast_id = sp.podcast_id
+                        AND (d.similarity_score, d.id) < (sp.similarity_score, sp.id)
+                  )
+                ORDER BY sp.similarity_score ASC, sp.id ASC
+                LIMIT ?
+                """, keysetCondition);
             
-            List<Map<String, Object>> result = new ArrayList<>();
-            for (Map<String, Object> row : suggested) {
-                Map<String, Object> item = new HashMap<>();
-                item.put("userId", row.get("user_id"));
-                item.put("podcastId", row.get("podcast_id"));
-                item.put("title", row.get("title"));
-                result.add(item);
+            // Rows are written to the JSON body as they arrive; one extra row is read to tell
+            // whether another page exists
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            String[] nextCursor = new String[1];
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(body)) {
+                generator.writeStartArray();
+                int[] written = new int[1];
+                double[] lastScore = new double[1];
+                int[] lastId = new int[1];
+                sqlExecutorService.executeReadStreamingQueryAsync(query, parameters, Math.min(limit + 1, 1000), row -> {
+                    if (written[0] == limit) {
+                        String position = lastScore[0] + ":" + lastId[0];
+                        nextCursor[0] = Base64.getUrlEncoder().withoutPadding()
+                            .encodeToString(position.getBytes(StandardCharsets.UTF_8));
+                        return;
+                    }
+                    generator.writeStartObject();
+                    generator.writeNumberField("userId", row.getInt("user_id"));
+                    generator.writeNumberField("podcastId", row.getInt("podcast_id"));
+                    generator.writeStringField("title", row.getString("title"));
+                    generator.writeEndObject();
+                    lastScore[0] = row.getDouble("similarity_score");
+                    lastId[0] = row.getInt("id");
+                    written[0]++;
+                }, userId).join();
+                generator.writeEndArray();
             }
             
-            String jsonResponse = objectMapper.writeValueAsString(result);
-            return request.createResponseBuilder(HttpStatus.OK)
-                .header("Content-Type", "application/json")
-                .body(jsonResponse)
-                .build();
+            HttpResponseMessage.Builder response = request.createResponseBuilder(HttpStatus.OK)
+                .header("Content-Type", "application/json");
+            if (nextCursor[0] != null) {
+                response.header("X-Next-Cursor", nextCursor[0]);
+            }
+            return response.body(body.toByteArray()).build();
                 
         } catch (Exception e) {
             logger.log(Level.SEVERE, "Error getting suggested podcasts", e);
@@ -290,4 +1187,21 @@ public class PodcastFunctions {
                 .build();
         }
     }
+    
+    @FunctionName("Metrics")
+    public HttpResponseMessage metrics(
+            @HttpTrigger(
+                name = "req",
+                methods = {HttpMethod.GET},
+                route = "metrics",
+                authLevel = AuthorizationLevel.FUNCTION
+            ) HttpRequestMessage<Optional<String>> request,
+            final ExecutionContext context) {
+        
+        // Prometheus text exposition format; not timed itself so scrapes do not show up as traffic
+        return request.createResponseBuilder(HttpStatus.OK)
+            .header("Content-Type", "text/plain; version=0.0.4; charset=utf-8")
+            .body(Metrics.scrape())
+            .build();
+    }
 }
@@ -0,0 +1,51 @@
+package com.example.feedbackloops;
+
+import com.azure.ai.openai.models.ChatCompletionsOptions;
+import com.azure.ai.openai.models.ChatRequestUserMessage;
+import com.azure.ai.openai.models.EmbeddingsOptions;
+import com.azure.core.util.BinaryData;
+import com.example.feedbackloops.models.Embedding;
+import com.example.feedbackloops.models.PodcastRecommendation;
+import com.example.feedbackloops.models.PodcastRequest;
+import com.example.feedbackloops.services.HnswIndex;
+import com.example.feedbackloops.services.Metrics;
+import com.example.feedbackloops.services.OpenAIClients;
+import com.example.feedbackloops.services.OpenAIRateLimiter;
+import com.example.feedbackloops.services.TokenCounter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pgvector.PGvector;
+import com.zaxxer.hikari.HikariConfig;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+/**
+ * Training run for the AppCDS archive built by the {@code appcds} Maven profile. It loads the
+ * classes a cold start needs (OpenAI client and models, Jackson, JDBC driver, Hikari, pgvector,
+ * Micrometer, the tokenizer) without calling OpenAI or the database, so the archive can be built
+ * on any machine. Also prints how long that took, which is the number the archive shortens.
+ */
+public final class StartupTraining {
+    private StartupTraining() {}
+
+    public static void main(String[] args) throws Exception {
+        OpenAIRateLimiter rateLimiter = OpenAIRateLimiter.retryOnly("training");
+        OpenAIClients.build("https://localhost.invalid", "training", rateLimiter.policy());
+        BinaryData.fromObject(new EmbeddingsOptions(List.of("training"))).toString();
+        BinaryData.fromObject(new ChatCompletionsOptions(List.of(new ChatRequestUserMessage("training")))).toString();
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.readValue(objectMapper.writeValueAsString(new PodcastRequest("title", "transcript")), PodcastRequest.class);
+        objectMapper.writeValueAsString(List.of(new PodcastRecommendation("1", "title", "description", 0.5f)));
+
+        Class.forName("org.postgresql.Driver");
+        new HikariConfig().setJdbcUrl("jdbc:postgresql://localhost:5432/training");
+        new PGvector(new float[] {1, 2, 3}).getValue();
+        new HnswIndex(3, 16, 32, false).add(1, new Embedding(new float[] {1, 2, 3}).toArray());
+
+        TokenCounter.count("training");
+        Metrics.scrape();
+
+        System.out.printf("Startup classes loaded %d ms after JVM start%n", ManagementFactory.getRuntimeMXBean().getUptime());
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.feedbackloops.models;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Embedding vector backed by a primitive {@code float[]}. The array is shared, not copied,
+ * so callers must not modify it after handing it over.
+ */
+public final class Embedding {
+    private final float[] values;
+
+    public Embedding(float[] values) {
+        this.values = values;
+    }
+
+    public static Embedding fromBase64(String base64) {
+        // Azure OpenAI returns base64 encoded little-endian float32 values
+        ByteBuffer buffer = ByteBuffer.wrap(Base64.getDecoder().decode(base64)).order(ByteOrder.LITTLE_ENDIAN);
+        float[] values = new float[buffer.remaining() / Float.BYTES];
+        buffer.asFloatBuffer().get(values);
+        return new Embedding(values);
+    }
+
+    public static Embedding fromList(List<Float> list) {
+        float[] values = new float[list.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = list.get(i);
+        }
+        return new Embedding(values);
+    }
+
+    public int dimensions() {
+        return values.length;
+    }
+
+    public float get(int index) {
+        return values[index];
+    }
+
+    public float[] toArray() {
+        return values;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Embedding && Arrays.equals(values, ((Embedding) o).values);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(values);
+    }
+
+    @Override
+    public String toString() {
+        return "Embedding[" + values.length + "]";
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.feedbackloops.models;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class ListeningEventRequest {
+    @JsonProperty("userId")
+    private String userId;
+    
+    @JsonProperty("podcastId")
+    private String podcastId;
+    
+    @JsonProperty("weight")
+    private Double weight;
+    
+    public ListeningEventRequest() {}
+    
+    public ListeningEventRequest(String userId, String podcastId, Double weight) {
+        this.userId = userId;
+        this.podcastId = podcastId;
+        this.weight = weight;
+    }
+    
+    public String getUserId() {
+        return userId;
+    }
+    
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+    
+    public String getPodcastId() {
+        return podcastId;
+    }
+    
+    public void setPodcastId(String podcastId) {
+        this.podcastId = podcastId;
+    }
+    
+    public Double getWeight() {
+        return weight;
+    }
+    
+    public void setWeight(Double weight) {
+        this.weight = weight;
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.feedbackloops.models;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class PodcastIngestionStatus {
+    public static final String CREATED = "created";
+    public static final String EXISTING = "existing";
+    public static final String FAILED = "failed";
+
+    @JsonProperty("line")
+    private int line;
+
+    @JsonProperty("title")
+    private String title;
+
+    @JsonProperty("status")
+    private String status;
+
+    @JsonProperty("podcastId")
+    private Integer podcastId;
+
+    @JsonProperty("error")
+    private String error;
+
+    public PodcastIngestionStatus() {}
+
+    public PodcastIngestionStatus(int line, String title) {
+        this.line = line;
+        this.title = title;
+    }
+
+    public int getLine() {
+        return line;
+    }
+
+    public void setLine(int line) {
+        this.line = line;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public Integer getPodcastId() {
+        return podcastId;
+    }
+
+    public void setPodcastId(Integer podcastId) {
+        this.podcastId = podcastId;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.feedbackloops.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Runs an asynchronous task for every item with at most {@code parallelism} tasks in flight
+ * and returns the results in the same order as the input.
+ */
+public final class BoundedFanOut {
+    private BoundedFanOut() {}
+
+    public static <T, R> CompletableFuture<List<R>> map(List<T> items, int parallelism, Function<T, CompletableFuture<R>> task) {
+        if (items.isEmpty()) {
+            return CompletableFuture.completedFuture(List.of());
+        }
+
+        Object[] results = new Object[items.size()];
+        AtomicInteger nextIndex = new AtomicInteger();
+        AtomicInteger remaining = new AtomicInteger(items.size());
+        CompletableFuture<List<R>> done = new CompletableFuture<>();
+
+        int workers = Math.max(1, Math.min(parallelism, items.size()));
+        for (int i = 0; i < workers; i++) {
+            startNext(items, task, results, nextIndex, remaining, done);
+        }
+        return done;
+    }
+
+    private static <T, R> void startNext(List<T> items, Function<T, CompletableFuture<R>> task, Object[] results,
+                                         AtomicInteger nextIndex, AtomicInteger remaining, CompletableFuture<List<R>> done) {
+        // Tasks that are already complete, such as cache hits, are handled in this loop; recursing
+        // through whenComplete would overflow the stack on a long run of them
+        while (true) {
+            int index = nextIndex.getAndIncrement();
+            if (index >= items.size() || done.isDone()) {
+                return;
+            }
+
+            CompletableFuture<R> future;
+            try {
+                future = task.apply(items.get(index));
+            } catch (Exception e) {
+                done.completeExceptionally(e);
+                return;
+            }
+
+            if (!future.isDone()) {
+                future.whenComplete((result, e) -> {
+                    if (record(index, result, e, results, remaining, done)) {
+                        startNext(items, task, results, nextIndex, remaining, done);
+                    }
+                });
+                return;
+            }
+            if (!future.handle((result, e) -> record(index, result, e, results, remaining, done)).join()) {
+                return;
+            }
+        }
+    }
+
+    // Stores the outcome of one task and returns whether another should be started
+    @SuppressWarnings("unchecked")
+    private static <R> boolean record(int index, R result, Throwable e, Object[] results, AtomicInteger remaining,
+                                      CompletableFuture<List<R>> done) {
+        if (e != null) {
+            done.completeExceptionally(e);
+            return false;
+        }
+        results[index] = result;
+        if (remaining.decrementAndGet() == 0) {
+            done.complete(new ArrayList<>((List<R>) Arrays.asList(results)));
+            return false;
+        }
+        return true;
+    }
+}
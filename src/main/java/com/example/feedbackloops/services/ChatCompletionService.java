@@ -1,43 +1,81 @@
 package com.example.feedbackloops.services;
 
 import com.azure.ai.openai.OpenAIClient;
-import com.azure.ai.openai.OpenAIClientBuilder;
 import com.azure.ai.openai.models.ChatCompletions;
 import com.azure.ai.openai.models.ChatCompletionsOptions;
 import com.azure.ai.openai.models.ChatRequestMessage;
 import com.azure.ai.openai.models.ChatRequestSystemMessage;
 import com.azure.ai.openai.models.ChatRequestUserMessage;
-import com.azure.core.credential.AzureKeyCredential;
+import com.azure.ai.openai.models.CompletionsUsage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 public class ChatCompletionService {
     private static final Logger logger = LoggerFactory.getLogger(ChatCompletionService.class);
+    private static final String SYSTEM_PROMPT = "You are a helpful assistant that generates podcast summaries.";
     
-    private final OpenAIClient client;
+    private final Supplier<OpenAIClient> client;
     private final String deploymentName;
+    private final ServiceExecutor executor;
+    private final OpenAIRateLimiter rateLimiter;
+    private final int completionTokenEstimate;
     
     public ChatCompletionService(String endpoint, String apiKey, String deploymentName) {
-        this.client = new OpenAIClientBuilder()
-            .endpoint(endpoint)
-            .credential(new AzureKeyCredential(apiKey))
-            .buildClient();
+        this(endpoint, apiKey, deploymentName, new ServiceExecutor(ServiceExecutor.newExecutorService("platform", 8), 8, "openai-chat"));
+    }
+    
+    public ChatCompletionService(String endpoint, String apiKey, String deploymentName, ServiceExecutor executor) {
+        this(endpoint, apiKey, deploymentName, executor, OpenAIRateLimiter.retryOnly(deploymentName), 500);
+    }
+    
+    /**
+     * @param completionTokenEstimate completion tokens reserved per call before the actual usage is known
+     */
+    public ChatCompletionService(String endpoint, String apiKey, String deploymentName, ServiceExecutor executor,
+                                 OpenAIRateLimiter rateLimiter, int completionTokenEstimate) {
+        this(Lazy.of("openai-client", () -> OpenAIClients.build(endpoint, apiKey, rateLimiter.policy())),
+            deploymentName, executor, rateLimiter, completionTokenEstimate);
+    }
+    
+    /**
+     * @param client built on first use; may be shared with other deployments on the same endpoint
+     */
+    public ChatCompletionService(Supplier<OpenAIClient> client, String deploymentName, ServiceExecutor executor,
+                                 OpenAIRateLimiter rateLimiter, int completionTokenEstimate) {
+        this.client = client;
         this.deploymentName = deploymentName;
+        this.executor = executor;
+        this.rateLimiter = rateLimiter;
+        this.completionTokenEstimate = completionTokenEstimate;
     }
     
     public CompletableFuture<String> getChatCompletionAsync(String prompt) {
-        return CompletableFuture.supplyAsync(() -> {
+        return executor.supplyAsync(() -> {
+            long start = System.nanoTime();
+            String outcome = "error";
             try {
                 List<ChatRequestMessage> chatMessages = new ArrayList<>();
-                chatMessages.add(new ChatRequestSystemMessage("You are a helpful assistant that generates podcast summaries."));
+                chatMessages.add(new ChatRequestSystemMessage(SYSTEM_PROMPT));
                 chatMessages.add(new ChatRequestUserMessage(prompt));
                 
                 ChatCompletionsOptions chatCompletionsOptions = new ChatCompletionsOptions(chatMessages);
-                ChatCompletions chatCompletions = client.getChatCompletions(deploymentName, chatCompletionsOptions);
+                int estimatedTokens = TokenCounter.count(SYSTEM_PROMPT) + TokenCounter.count(prompt) + completionTokenEstimate;
+                ChatCompletions chatCompletions = rateLimiter.execute(estimatedTokens,
+                    () -> client.get().getChatCompletions(deploymentName, chatCompletionsOptions));
+                outcome = "success";
+                
+                CompletionsUsage usage = chatCompletions.getUsage();
+                if (usage != null) {
+                    rateLimiter.reconcile(estimatedTokens, usage.getTotalTokens());
+                    Metrics.recordTokens("chat", deploymentName, "prompt", usage.getPromptTokens());
+                    Metrics.recordTokens("chat", deploymentName, "completion", usage.getCompletionTokens());
+                }
                 
                 if (chatCompletions.getChoices() != null && !chatCompletions.getChoices().isEmpty()) {
                     return chatCompletions.getChoices().get(0).getMessage().getContent().trim();
@@ -47,6 +85,9 @@ public class ChatCompletionService {
             } catch (Exception e) {
                 logger.error("Error generating chat completion: ", e);
                 throw new RuntimeException("Failed to generate chat completion", e);
+            } finally {
+                Metrics.timer("openai.requests", "operation", "chat", "deployment", String.valueOf(deploymentName), "outcome", outcome)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
             }
         });
     }
@@ -0,0 +1,140 @@
+package com.example.feedbackloops.services;
+
+import com.example.feedbackloops.models.Embedding;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Collects embedding requests that arrive within a short window and sends them as a single
+ * multi-input call. A batch is flushed when the window elapses or when it reaches the
+ * configured size or token budget, whichever comes first.
+ */
+public class EmbeddingBatcher {
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddingBatcher.class);
+
+    private final Function<List<String>, List<Embedding>> fetcher;
+    private final long windowMillis;
+    private final int maxBatchSize;
+    private final int maxBatchTokens;
+    private final ScheduledExecutorService scheduler;
+    private final ServiceExecutor executor;
+
+    private List<PendingRequest> pending = new ArrayList<>();
+    private int pendingTokens;
+    private ScheduledFuture<?> scheduledFlush;
+
+    public EmbeddingBatcher(Function<List<String>, List<Embedding>> fetcher, long windowMillis, int maxBatchSize, int maxBatchTokens,
+                            ServiceExecutor executor) {
+        this.fetcher = fetcher;
+        this.executor = executor;
+        this.windowMillis = windowMillis;
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchTokens = maxBatchTokens;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "embedding-batcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public CompletableFuture<Embedding> submit(String input) {
+        PendingRequest request = new PendingRequest(input);
+        int tokens = TokenCounter.count(input);
+        List<List<PendingRequest>> ready = new ArrayList<>(2);
+
+        synchronized (this) {
+            // Flush first if this input would push the batch over its token budget
+            if (!pending.isEmpty() && pendingTokens + tokens > maxBatchTokens) {
+                ready.add(drain());
+            }
+            pending.add(request);
+            pendingTokens += tokens;
+            if (pending.size() >= maxBatchSize || pendingTokens >= maxBatchTokens) {
+                ready.add(drain());
+            } else if (scheduledFlush == null) {
+                scheduledFlush = scheduler.schedule(this::flushScheduled, windowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        for (List<PendingRequest> batch : ready) {
+            dispatch(batch);
+        }
+        return request.future;
+    }
+
+    private void flushScheduled() {
+        List<PendingRequest> ready;
+        synchronized (this) {
+            scheduledFlush = null;
+            if (pending.isEmpty()) {
+                return;
+            }
+            ready = drain();
+        }
+        dispatch(ready);
+    }
+
+    // Must be called while holding the lock
+    private List<PendingRequest> drain() {
+        List<PendingRequest> batch = pending;
+        pending = new ArrayList<>();
+        pendingTokens = 0;
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        return batch;
+    }
+
+    private void dispatch(List<PendingRequest> batch) {
+        executor.runAsync(() -> {
+            List<String> inputs = new ArrayList<>(batch.size());
+            for (PendingRequest request : batch) {
+                inputs.add(request.input);
+            }
+
+            try {
+                List<Embedding> embeddings = fetcher.apply(inputs);
+                for (int i = 0; i < batch.size(); i++) {
+                    Embedding embedding = i < embeddings.size() ? embeddings.get(i) : null;
+                    if (embedding != null) {
+                        batch.get(i).future.complete(embedding);
+                    } else {
+                        batch.get(i).future.completeExceptionally(new RuntimeException("No embeddings were returned."));
+                    }
+                }
+            } catch (Exception e) {
+                logger.error("Error generating batch of {} embeddings: ", batch.size(), e);
+                for (PendingRequest request : batch) {
+                    request.future.completeExceptionally(e);
+                }
+            }
+        }).whenComplete((ignored, e) -> {
+            // The batch never ran, e.g. the executor rejected it during shutdown
+            if (e != null) {
+                for (PendingRequest request : batch) {
+                    request.future.completeExceptionally(e);
+                }
+            }
+        });
+    }
+
+
+    private static final class PendingRequest {
+        private final String input;
+        private final CompletableFuture<Embedding> future = new CompletableFuture<>();
+
+        PendingRequest(String input) {
+            this.input = input;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package com.example.feedbackloops.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Content-addressed embedding cache keyed by SHA-256 of (deployment name, normalized input).
+ * A bounded in-memory LRU tier is backed by an optional memory-mapped file so entries
+ * survive cold starts.
+ */
+public class EmbeddingCache {
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddingCache.class);
+    private static final int KEY_BYTES = 32;
+
+    private final Map<CacheKey, float[]> memory;
+    private final DiskTier disk;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder diskHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public EmbeddingCache(int maxEntries) {
+        this(maxEntries, null, 0, 0);
+    }
+
+    public EmbeddingCache(int maxEntries, Path diskPath, int diskSlots, int dimensions) {
+        this.memory = new LinkedHashMap<>(Math.min(maxEntries, 1024), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CacheKey, float[]> eldest) {
+                if (size() > maxEntries) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.disk = diskPath != null ? openDiskTier(diskPath, diskSlots, dimensions) : null;
+    }
+
+    public float[] get(String deploymentName, String input) {
+        CacheKey key = keyFor(deploymentName, input);
+        float[] embedding;
+        synchronized (memory) {
+            embedding = memory.get(key);
+        }
+        if (embedding != null) {
+            hits.increment();
+            return embedding;
+        }
+
+        if (disk != null) {
+            embedding = disk.get(key.hash);
+            if (embedding != null) {
+                diskHits.increment();
+                hits.increment();
+                synchronized (memory) {
+                    memory.put(key, embedding);
+                }
+                return embedding;
+            }
+        }
+
+        misses.increment();
+        return null;
+    }
+
+    public void put(String deploymentName, String input, float[] embedding) {
+        CacheKey key = keyFor(deploymentName, input);
+        synchronized (memory) {
+            memory.put(key, embedding);
+        }
+        if (disk != null) {
+            disk.put(key.hash, embedding);
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getDiskHitCount() {
+        return diskHits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public int size() {
+        synchronized (memory) {
+            return memory.size();
+        }
+    }
+
+    static String normalize(String input) {
+        return input.strip().replaceAll("\\s+", " ");
+    }
+
+    private static CacheKey keyFor(String deploymentName, String input) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(deploymentName.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(normalize(input).getBytes(StandardCharsets.UTF_8));
+            return new CacheKey(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private DiskTier openDiskTier(Path path, int slots, int dimensions) {
+        try {
+            return new DiskTier(path, slots, dimensions);
+        } catch (IOException e) {
+            logger.error("Failed to open embedding disk cache at {}, continuing with memory only", path, e);
+            return null;
+        }
+    }
+
+    private static final class CacheKey {
+        private final byte[] hash;
+        private final int hashCode;
+
+        CacheKey(byte[] hash) {
+            this.hash = hash;
+            this.hashCode = Arrays.hashCode(hash);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof CacheKey && Arrays.equals(hash, ((CacheKey) o).hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    /**
+     * Fixed-size open-addressing table in a memory-mapped file. Each slot holds a 32-byte key
+     * followed by the embedding floats; an all-zero key marks an empty slot. The key is written
+     * last so a torn write never produces a readable entry.
+     */
+    private final class DiskTier {
+        private static final int MAX_PROBES = 4;
+
+        private final MappedByteBuffer[] segments;
+        private final int slots;
+        private final int slotsPerSegment;
+        private final int dimensions;
+        private final int slotBytes;
+
+        DiskTier(Path path, int slots, int dimensions) throws IOException {
+            this.slots = slots;
+            this.dimensions = dimensions;
+            this.slotBytes = KEY_BYTES + dimensions * Float.BYTES;
+            this.slotsPerSegment = Integer.MAX_VALUE / slotBytes;
+            int segmentCount = (slots + slotsPerSegment - 1) / slotsPerSegment;
+            this.segments = new MappedByteBuffer[segmentCount];
+
+            try (FileChannel channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                for (int i = 0; i < segmentCount; i++) {
+                    long offset = (long) i * slotsPerSegment * slotBytes;
+                    int segmentSlots = Math.min(slotsPerSegment, slots - i * slotsPerSegment);
+                    segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, offset, (long) segmentSlots * slotBytes);
+                }
+            }
+            logger.info("Opened embedding disk cache at {} with {} slots", path, slots);
+        }
+
+        synchronized float[] get(byte[] hash) {
+            int home = homeSlot(hash);
+            for (int probe = 0; probe < MAX_PROBES; probe++) {
+                int slot = (home + probe) % slots;
+                if (keyMatches(slot, hash)) {
+                    MappedByteBuffer segment = segments[slot / slotsPerSegment];
+                    int offset = (slot % slotsPerSegment) * slotBytes + KEY_BYTES;
+                    float[] embedding = new float[dimensions];
+                    for (int i = 0; i < dimensions; i++) {
+                        embedding[i] = segment.getFloat(offset + i * Float.BYTES);
+                    }
+                    return embedding;
+                }
+            }
+            return null;
+        }
+
+        synchronized void put(byte[] hash, float[] embedding) {
+            if (embedding.length != dimensions) {
+                return;
+            }
+            int home = homeSlot(hash);
+            int target = home;
+            for (int probe = 0; probe < MAX_PROBES; probe++) {
+                int slot = (home + probe) % slots;
+                if (keyMatches(slot, hash)) {
+                    return;
+                }
+                if (isEmpty(slot)) {
+                    target = slot;
+                    break;
+                }
+                if (probe == MAX_PROBES - 1) {
+                    evictions.increment();
+                }
+            }
+
+            MappedByteBuffer segment = segments[target / slotsPerSegment];
+            int offset = (target % slotsPerSegment) * slotBytes;
+            for (int i = 0; i < KEY_BYTES; i++) {
+                segment.put(offset + i, (byte) 0);
+            }
+            for (int i = 0; i < dimensions; i++) {
+                segment.putFloat(offset + KEY_BYTES + i * Float.BYTES, embedding[i]);
+            }
+            segment.put(offset, hash, 0, KEY_BYTES);
+        }
+
+        private int homeSlot(byte[] hash) {
+            long h = 0;
+            for (int i = 0; i < 8; i++) {
+                h = (h << 8) | (hash[i] & 0xFF);
+            }
+            return (int) Math.floorMod(h, (long) slots);
+        }
+
+        private boolean keyMatches(int slot, byte[] hash) {
+            MappedByteBuffer segment = segments[slot / slotsPerSegment];
+            int offset = (slot % slotsPerSegment) * slotBytes;
+            for (int i = 0; i < KEY_BYTES; i++) {
+                if (segment.get(offset + i) != hash[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean isEmpty(int slot) {
+            MappedByteBuffer segment = segments[slot / slotsPerSegment];
+            int offset = (slot % slotsPerSegment) * slotBytes;
+            for (int i = 0; i < KEY_BYTES; i++) {
+                if (segment.get(offset + i) != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
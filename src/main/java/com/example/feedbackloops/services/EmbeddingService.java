@@ -1,47 +1,173 @@
 package com.example.feedbackloops.services;
 
 import com.azure.ai.openai.OpenAIClient;
-import com.azure.ai.openai.OpenAIClientBuilder;
 import com.azure.ai.openai.models.EmbeddingItem;
 import com.azure.ai.openai.models.Embeddings;
-import com.azure.ai.openai.models.EmbeddingsOptions;
-import com.azure.core.credential.AzureKeyCredential;
+import com.azure.core.http.rest.RequestOptions;
+import com.azure.core.util.BinaryData;
+import com.example.feedbackloops.models.Embedding;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 public class EmbeddingService {
     private static final Logger logger = LoggerFactory.getLogger(EmbeddingService.class);
     
-    private final OpenAIClient client;
+    private final Supplier<OpenAIClient> client;
     private final String deploymentName;
+    private final EmbeddingCache cache;
+    private final EmbeddingBatcher batcher;
+    private final OpenAIRateLimiter rateLimiter;
+    
+    private final ServiceExecutor executor;
     
     public EmbeddingService(String endpoint, String apiKey, String deploymentName) {
-        this.client = new OpenAIClientBuilder()
-            .endpoint(endpoint)
-            .credential(new AzureKeyCredential(apiKey))
-            .buildClient();
+        this(endpoint, apiKey, deploymentName, null, 0, 1, 0,
+            new ServiceExecutor(ServiceExecutor.newExecutorService("platform", 8), 8, "openai-embedding"));
+    }
+    
+    public EmbeddingService(String endpoint, String apiKey, String deploymentName, EmbeddingCache cache,
+                            long batchWindowMillis, int maxBatchSize, int maxBatchTokens, ServiceExecutor executor) {
+        this(endpoint, apiKey, deploymentName, cache, batchWindowMillis, maxBatchSize, maxBatchTokens, executor,
+            OpenAIRateLimiter.retryOnly(deploymentName));
+    }
+    
+    public EmbeddingService(String endpoint, String apiKey, String deploymentName, EmbeddingCache cache,
+                            long batchWindowMillis, int maxBatchSize, int maxBatchTokens, ServiceExecutor executor,
+                            OpenAIRateLimiter rateLimiter) {
+        this(Lazy.of("openai-client", () -> OpenAIClients.build(endpoint, apiKey, rateLimiter.policy())),
+            deploymentName, cache, batchWindowMillis, maxBatchSize, maxBatchTokens, executor, rateLimiter);
+    }
+    
+    /**
+     * @param client built on first use; may be shared with other deployments on the same endpoint
+     */
+    public EmbeddingService(Supplier<OpenAIClient> client, String deploymentName, EmbeddingCache cache,
+                            long batchWindowMillis, int maxBatchSize, int maxBatchTokens, ServiceExecutor executor,
+                            OpenAIRateLimiter rateLimiter) {
+        this.client = client;
         this.deploymentName = deploymentName;
+        this.rateLimiter = rateLimiter;
+        this.cache = cache;
+        this.executor = executor;
+        this.batcher = batchWindowMillis > 0 && maxBatchSize > 1
+            ? new EmbeddingBatcher(this::fetchEmbeddings, batchWindowMillis, maxBatchSize, maxBatchTokens, executor)
+            : null;
     }
     
-    public CompletableFuture<List<Float>> getEmbeddingAsync(String input) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                EmbeddingsOptions embeddingsOptions = new EmbeddingsOptions(List.of(input));
-                Embeddings embeddings = client.getEmbeddings(deploymentName, embeddingsOptions);
-                
-                if (embeddings.getData() != null && !embeddings.getData().isEmpty()) {
-                    EmbeddingItem embeddingItem = embeddings.getData().get(0);
-                    return embeddingItem.getEmbedding();
-                }
-                
-                throw new RuntimeException("No embeddings were returned.");
-            } catch (Exception e) {
+    public EmbeddingCache getCache() {
+        return cache;
+    }
+    
+    public CompletableFuture<Embedding> getEmbeddingAsync(String input) {
+        if (cache != null) {
+            float[] cached = cache.get(deploymentName, input);
+            if (cached != null) {
+                return CompletableFuture.completedFuture(new Embedding(cached));
+            }
+        }
+        
+        CompletableFuture<Embedding> future = batcher != null
+            ? batcher.submit(input)
+            : executor.supplyAsync(() -> fetchEmbeddings(List.of(input)).get(0));
+        
+        return future.handle((embedding, e) -> {
+            if (e != null) {
                 logger.error("Error generating embedding: ", e);
                 throw new RuntimeException("Failed to generate embedding", e);
             }
+            if (cache != null) {
+                cache.put(deploymentName, input, embedding.toArray());
+            }
+            return embedding;
         });
     }
+    
+    public CompletableFuture<List<Embedding>> getEmbeddingsAsync(List<String> inputs) {
+        return executor.supplyAsync(() -> {
+            List<Embedding> results = new ArrayList<>(inputs.size());
+            List<String> missing = new ArrayList<>();
+            List<Integer> missingIndexes = new ArrayList<>();
+            
+            for (int i = 0; i < inputs.size(); i++) {
+                float[] cached = cache != null ? cache.get(deploymentName, inputs.get(i)) : null;
+                results.add(cached != null ? new Embedding(cached) : null);
+                if (cached == null) {
+                    missing.add(inputs.get(i));
+                    missingIndexes.add(i);
+                }
+            }
+            
+            if (!missing.isEmpty()) {
+                try {
+                    List<Embedding> fetched = fetchEmbeddings(missing);
+                    for (int i = 0; i < missing.size(); i++) {
+                        results.set(missingIndexes.get(i), fetched.get(i));
+                        if (cache != null) {
+                            cache.put(deploymentName, missing.get(i), fetched.get(i).toArray());
+                        }
+                    }
+                } catch (Exception e) {
+                    logger.error("Error generating embeddings: ", e);
+                    throw new RuntimeException("Failed to generate embeddings", e);
+                }
+            }
+            return results;
+        });
+    }
+    
+    // Sends all inputs in one request and returns the embeddings in input order
+    protected List<Embedding> fetchEmbeddings(List<String> inputs) {
+        // EmbeddingsOptions cannot ask for base64, and the default float array is parsed into a
+        // boxed List<Float> per item, so the request body is sent as raw JSON instead
+        BinaryData request = BinaryData.fromObject(Map.of("input", inputs, "encoding_format", "base64"));
+        int estimatedTokens = 0;
+        for (String input : inputs) {
+            estimatedTokens += TokenCounter.count(input);
+        }
+        
+        long start = System.nanoTime();
+        Embeddings embeddings;
+        try {
+            embeddings = rateLimiter.execute(estimatedTokens, () -> client.get()
+                .getEmbeddingsWithResponse(deploymentName, request, new RequestOptions())
+                .getValue()
+                .toObject(Embeddings.class));
+        } catch (RuntimeException e) {
+            recordRequest("error", start);
+            throw e;
+        }
+        recordRequest("success", start);
+        if (embeddings.getUsage() != null) {
+            rateLimiter.reconcile(estimatedTokens, embeddings.getUsage().getPromptTokens());
+            Metrics.recordTokens("embedding", deploymentName, "prompt", embeddings.getUsage().getPromptTokens());
+        }
+        
+        if (embeddings.getData() == null || embeddings.getData().size() != inputs.size()) {
+            throw new RuntimeException("No embeddings were returned.");
+        }
+        
+        List<Embedding> ordered = new ArrayList<>(Collections.nCopies(inputs.size(), null));
+        for (EmbeddingItem embeddingItem : embeddings.getData()) {
+            // The item holds the base64 string from the wire, decoded straight into a float[]
+            String base64 = embeddingItem.getEmbeddingAsString();
+            if (base64 == null) {
+                throw new RuntimeException("No embeddings were returned.");
+            }
+            ordered.set(embeddingItem.getPromptIndex(), Embedding.fromBase64(base64));
+        }
+        return ordered;
+    }
+    
+    private void recordRequest(String outcome, long start) {
+        Metrics.timer("openai.requests", "operation", "embedding", "deployment", String.valueOf(deploymentName), "outcome", outcome)
+            .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
 }
@@ -0,0 +1,392 @@
+package com.example.feedbackloops.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory HNSW (Hierarchical Navigable Small World) graph over fixed-size float vectors
+ * using squared L2 distance, matching the pgvector {@code <->} operator, or cosine distance,
+ * matching {@code <=>}. For cosine distance vectors are normalized when they are added and
+ * searched, since on unit vectors {@code |u - p|^2 = 2 - 2 cos} orders them the same way.
+ * Vectors and adjacency lists are kept in primitive arrays to avoid boxing.
+ */
+public class HnswIndex {
+    private final int dimensions;
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final boolean cosine;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private float[][] vectors = new float[1024][];
+    private int[] ids = new int[1024];
+    // links[node][level] = {count, neighbor1, neighbor2, ...}
+    private int[][][] links = new int[1024][][];
+    private final Map<Integer, Integer> nodeById = new HashMap<>();
+    private int size;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    /**
+     * @param cosine rank by cosine distance ({@code <=>}) instead of Euclidean distance
+     */
+    public HnswIndex(int dimensions, int m, int efConstruction, boolean cosine) {
+        if (m < 2) {
+            throw new IllegalArgumentException("M must be at least 2");
+        }
+        this.dimensions = dimensions;
+        this.m = m;
+        this.maxM0 = m * 2;
+        this.efConstruction = Math.max(efConstruction, m);
+        this.levelMultiplier = 1.0 / Math.log(m);
+        this.cosine = cosine;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void add(int id, float[] vector) {
+        if (vector.length != dimensions) {
+            throw new IllegalArgumentException("Expected " + dimensions + " dimensions but got " + vector.length);
+        }
+
+        // The array is retained rather than copied unless it is normalized; embeddings are
+        // never mutated after creation
+        vector = normalize(vector);
+        lock.writeLock().lock();
+        try {
+            Integer existing = nodeById.get(id);
+            if (existing != null) {
+                // Vector replaced in place; the graph neighbourhood is kept as an approximation
+                vectors[existing] = vector;
+                return;
+            }
+
+            int node = allocate(id, vector);
+            int level = randomLevel();
+            links[node] = new int[level + 1][];
+            for (int l = 0; l <= level; l++) {
+                links[node][l] = new int[(l == 0 ? maxM0 : m) + 1];
+            }
+
+            if (entryPoint < 0) {
+                entryPoint = node;
+                maxLevel = level;
+                return;
+            }
+
+            int current = entryPoint;
+            for (int l = maxLevel; l > level; l--) {
+                current = greedyClosest(vector, current, l);
+            }
+
+            for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+                long[] candidates = searchLayer(vector, current, efConstruction, l);
+                int maxConnections = l == 0 ? maxM0 : m;
+                int[] selected = selectNeighbors(candidates, maxConnections);
+                for (int neighbor : selected) {
+                    connect(node, neighbor, l);
+                    connect(neighbor, node, l);
+                }
+                current = nodeOf(candidates[0]);
+            }
+
+            if (level > maxLevel) {
+                maxLevel = level;
+                entryPoint = node;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns up to {@code k} nearest neighbours as {@link SearchResult}s ordered by ascending
+     * distance, in the units of the matching pgvector operator.
+     */
+    public List<SearchResult> search(float[] query, int k, int efSearch) {
+        query = normalize(query);
+        lock.readLock().lock();
+        try {
+            if (entryPoint < 0) {
+                return List.of();
+            }
+            int current = entryPoint;
+            for (int l = maxLevel; l > 0; l--) {
+                current = greedyClosest(query, current, l);
+            }
+            long[] candidates = searchLayer(query, current, Math.max(efSearch, k), 0);
+            int count = Math.min(k, candidates.length);
+            List<SearchResult> results = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                float squaredDistance = distanceOf(candidates[i]);
+                results.add(new SearchResult(ids[nodeOf(candidates[i])],
+                    cosine ? squaredDistance / 2 : (float) Math.sqrt(squaredDistance)));
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Zero vectors are left as they are; pgvector has no cosine distance for them either
+    private float[] normalize(float[] vector) {
+        if (!cosine) {
+            return vector;
+        }
+        double squaredNorm = 0;
+        for (float value : vector) {
+            squaredNorm += value * value;
+        }
+        if (squaredNorm == 0) {
+            return vector;
+        }
+        float scale = (float) (1 / Math.sqrt(squaredNorm));
+        float[] normalized = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            normalized[i] = vector[i] * scale;
+        }
+        return normalized;
+    }
+
+    private int allocate(int id, float[] vector) {
+        if (size == vectors.length) {
+            int capacity = size * 2;
+            vectors = Arrays.copyOf(vectors, capacity);
+            ids = Arrays.copyOf(ids, capacity);
+            links = Arrays.copyOf(links, capacity);
+        }
+        int node = size++;
+        vectors[node] = vector;
+        ids[node] = id;
+        nodeById.put(id, node);
+        return node;
+    }
+
+    private int randomLevel() {
+        double r = 1.0 - ThreadLocalRandom.current().nextDouble();
+        return (int) Math.floor(-Math.log(r) * levelMultiplier);
+    }
+
+    private int greedyClosest(float[] query, int start, int level) {
+        int current = start;
+        float currentDistance = distance(query, vectors[current]);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int[] neighbors = links[current][level];
+            for (int i = 1; i <= neighbors[0]; i++) {
+                int candidate = neighbors[i];
+                float d = distance(query, vectors[candidate]);
+                if (d < currentDistance) {
+                    currentDistance = d;
+                    current = candidate;
+                    changed = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Beam search on a single layer. Returns encoded (distance, node) pairs sorted ascending.
+     */
+    private long[] searchLayer(float[] query, int start, int ef, int level) {
+        BitSet visited = new BitSet(size);
+        LongHeap candidates = new LongHeap(ef * 2);
+        LongHeap results = new LongHeap(ef + 1);
+
+        long startKey = encode(distance(query, vectors[start]), start);
+        visited.set(start);
+        candidates.push(startKey);
+        results.push(-startKey);
+
+        while (candidates.size() > 0) {
+            long closest = candidates.pop();
+            if (distanceOf(closest) > distanceOf(-results.peek()) && results.size() >= ef) {
+                break;
+            }
+            int[] neighbors = links[nodeOf(closest)][level];
+            for (int i = 1; i <= neighbors[0]; i++) {
+                int neighbor = neighbors[i];
+                if (visited.get(neighbor)) {
+                    continue;
+                }
+                visited.set(neighbor);
+                float d = distance(query, vectors[neighbor]);
+                if (results.size() < ef || d < distanceOf(-results.peek())) {
+                    long key = encode(d, neighbor);
+                    candidates.push(key);
+                    results.push(-key);
+                    if (results.size() > ef) {
+                        results.pop();
+                    }
+                }
+            }
+        }
+
+        long[] sorted = new long[results.size()];
+        for (int i = sorted.length - 1; i >= 0; i--) {
+            sorted[i] = -results.pop();
+        }
+        return sorted;
+    }
+
+    /**
+     * Neighbour selection heuristic from the HNSW paper: keep a candidate only if it is closer
+     * to the new node than to any neighbour already selected, which preserves graph diversity.
+     */
+    private int[] selectNeighbors(long[] candidates, int maxConnections) {
+        int[] selected = new int[maxConnections];
+        int count = 0;
+        for (int i = 0; i < candidates.length && count < maxConnections; i++) {
+            int candidate = nodeOf(candidates[i]);
+            float candidateDistance = distanceOf(candidates[i]);
+            boolean keep = true;
+            for (int j = 0; j < count; j++) {
+                if (distance(vectors[candidate], vectors[selected[j]]) < candidateDistance) {
+                    keep = false;
+                    break;
+                }
+            }
+            if (keep) {
+                selected[count++] = candidate;
+            }
+        }
+        return Arrays.copyOf(selected, count);
+    }
+
+    private void connect(int from, int to, int level) {
+        int[] neighbors = links[from][level];
+        int count = neighbors[0];
+        int maxConnections = neighbors.length - 1;
+        if (count < maxConnections) {
+            neighbors[count + 1] = to;
+            neighbors[0] = count + 1;
+            return;
+        }
+
+        // Over capacity: re-select from existing neighbours plus the new one
+        long[] candidates = new long[count + 1];
+        for (int i = 0; i < count; i++) {
+            candidates[i] = encode(distance(vectors[from], vectors[neighbors[i + 1]]), neighbors[i + 1]);
+        }
+        candidates[count] = encode(distance(vectors[from], vectors[to]), to);
+        Arrays.sort(candidates);
+        int[] selected = selectNeighbors(candidates, maxConnections);
+        System.arraycopy(selected, 0, neighbors, 1, selected.length);
+        neighbors[0] = selected.length;
+    }
+
+    private float distance(float[] a, float[] b) {
+        float sum = 0f;
+        for (int i = 0; i < dimensions; i++) {
+            float diff = a[i] - b[i];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    // Non-negative floats keep their ordering when compared as raw int bits,
+    // so (distance, node) pairs can be packed into a single sortable long.
+    private static long encode(float distance, int node) {
+        return ((long) Float.floatToRawIntBits(distance) << 32) | (node & 0xFFFFFFFFL);
+    }
+
+    private static float distanceOf(long key) {
+        return Float.intBitsToFloat((int) (key >>> 32));
+    }
+
+    private static int nodeOf(long key) {
+        return (int) key;
+    }
+
+    public static class SearchResult {
+        private final int id;
+        private final float distance;
+
+        public SearchResult(int id, float distance) {
+            this.id = id;
+            this.distance = distance;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public float getDistance() {
+            return distance;
+        }
+    }
+
+    /**
+     * Minimal binary min-heap of primitive longs. Max-heap behaviour is obtained by pushing
+     * negated keys.
+     */
+    private static class LongHeap {
+        private long[] heap;
+        private int size;
+
+        LongHeap(int capacity) {
+            this.heap = new long[Math.max(capacity, 4)];
+        }
+
+        int size() {
+            return size;
+        }
+
+        long peek() {
+            return heap[0];
+        }
+
+        void push(long value) {
+            if (size == heap.length) {
+                heap = Arrays.copyOf(heap, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (heap[parent] <= value) {
+                    break;
+                }
+                heap[i] = heap[parent];
+                i = parent;
+            }
+            heap[i] = value;
+        }
+
+        long pop() {
+            long top = heap[0];
+            long last = heap[--size];
+            int i = 0;
+            int half = size >>> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && heap[child + 1] < heap[child]) {
+                    child++;
+                }
+                if (last <= heap[child]) {
+                    break;
+                }
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = last;
+            return top;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.feedbackloops.services;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * A value built once, on first use or ahead of it in the background. Callers that arrive while
+ * it is being built wait for the same result. A failed build is not cached, so the next caller
+ * tries again (e.g. when the database was briefly unreachable during a cold start). Build
+ * times are recorded in {@link StartupTimings}.
+ */
+public final class Lazy<T> implements Supplier<T> {
+    private final String name;
+    private final Supplier<T> factory;
+    private final AtomicReference<CompletableFuture<T>> value = new AtomicReference<>();
+
+    private Lazy(String name, Supplier<T> factory) {
+        this.name = name;
+        this.factory = factory;
+    }
+
+    public static <T> Lazy<T> of(String name, Supplier<T> factory) {
+        return new Lazy<>(name, factory);
+    }
+
+    /**
+     * Starts building the value on {@code executor} unless that has already happened.
+     */
+    public CompletableFuture<T> startAsync(Executor executor) {
+        CompletableFuture<T> created = new CompletableFuture<>();
+        CompletableFuture<T> existing = value.compareAndExchange(null, created);
+        if (existing != null) {
+            return existing;
+        }
+        executor.execute(() -> build(created));
+        return created;
+    }
+
+    @Override
+    public T get() {
+        CompletableFuture<T> future = value.get();
+        if (future == null) {
+            CompletableFuture<T> created = new CompletableFuture<>();
+            future = value.compareAndExchange(null, created);
+            if (future == null) {
+                build(created);
+                future = created;
+            }
+        }
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw e;
+        }
+    }
+
+    public boolean isInitialized() {
+        CompletableFuture<T> future = value.get();
+        return future != null && future.isDone() && !future.isCompletedExceptionally();
+    }
+
+    private void build(CompletableFuture<T> future) {
+        long start = System.nanoTime();
+        T built;
+        try {
+            built = factory.get();
+        } catch (RuntimeException e) {
+            StartupTimings.record(name, System.nanoTime() - start);
+            value.compareAndSet(future, null);
+            future.completeExceptionally(e);
+            return;
+        }
+        // Recorded before completing, so callbacks on the future see the timing
+        StartupTimings.record(name, System.nanoTime() - start);
+        future.complete(built);
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.feedbackloops.services;
+
+import com.example.feedbackloops.models.Embedding;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Keeps user embeddings current from listening events without calling OpenAI. Each event folds
+ * the podcast's stored embedding into the user's as an exponentially decayed running average,
+ * which costs O(d) and is applied under a row lock so concurrent events are not lost.
+ */
+public class ListeningEventService {
+    private static final Logger logger = LoggerFactory.getLogger(ListeningEventService.class);
+
+    private final SqlExecutorService sqlExecutorService;
+    private final EmbeddingService embeddingService;
+    private final double decay;
+
+    /**
+     * @param decay share of the user embedding replaced by a weight 1 event, between 0 and 1
+     */
+    public ListeningEventService(SqlExecutorService sqlExecutorService, EmbeddingService embeddingService, double decay) {
+        if (decay <= 0 || decay > 1) {
+            throw new IllegalArgumentException("Decay must be in (0, 1]");
+        }
+        this.sqlExecutorService = sqlExecutorService;
+        this.embeddingService = embeddingService;
+        this.decay = decay;
+    }
+
+    /**
+     * Records the event and folds it into the user's embedding in one transaction. Completes
+     * with {@code false} if the user or a podcast embedding does not exist.
+     */
+    public CompletableFuture<Boolean> recordAsync(int userId, int podcastId, double weight) {
+        return sqlExecutorService.executeInTransactionAsync(transaction -> {
+            Map<String, Object> userParams = new LinkedHashMap<>();
+            userParams.put("1", userId);
+            List<Map<String, Object>> users = transaction.executeQuery(
+                "SELECT embedding FROM users WHERE id = ? FOR UPDATE", userParams);
+
+            Map<String, Object> podcastParams = new LinkedHashMap<>();
+            podcastParams.put("1", podcastId);
+            List<Map<String, Object>> podcasts = transaction.executeQuery(
+                "SELECT embedding FROM podcast_episodes WHERE id = ? AND embedding IS NOT NULL", podcastParams);
+
+            if (users.isEmpty() || podcasts.isEmpty()) {
+                return false;
+            }
+
+            Embedding current = (Embedding) users.get(0).get("embedding");
+            Embedding podcast = (Embedding) podcasts.get(0).get("embedding");
+            float[] updated = foldIn(current != null ? current.toArray() : null, podcast.toArray(), weight);
+
+            Map<String, Object> eventParams = new LinkedHashMap<>();
+            eventParams.put("1", userId);
+            eventParams.put("2", podcastId);
+            eventParams.put("3", weight);
+            transaction.executeUpdate(
+                "INSERT INTO listening_events (user_id, podcast_id, weight) VALUES (?, ?, ?)", eventParams);
+
+            Map<String, Object> updateParams = new LinkedHashMap<>();
+            updateParams.put("1", new Embedding(updated));
+            updateParams.put("2", userId);
+            transaction.executeUpdate("UPDATE users SET embedding = ?, embedding_updated_at = clock_timestamp() WHERE id = ?", updateParams);
+            return true;
+        });
+    }
+
+    /**
+     * Rebuilds the embeddings of users with events since their last reconciliation: the
+     * listening history text is re-embedded and every recorded event is folded in again in
+     * order, which removes drift from the incremental updates. Returns the number of users
+     * reconciled.
+     */
+    public CompletableFuture<Integer> reconcileAsync(int batchSize) {
+        String query = """
+            SELECT u.id, u.listening_history
+            FROM users u
+            WHERE EXISTS (
+                SELECT 1 FROM listening_events e
+                WHERE e.user_id = u.id AND (u.reconciled_at IS NULL OR e.listened_at > u.reconciled_at)
+            )
+            ORDER BY u.reconciled_at NULLS FIRST
+            LIMIT ?
+            """;
+        Map<String, Object> parameters = new LinkedHashMap<>();
+        parameters.put("1", batchSize);
+
+        return sqlExecutorService.executeQueryAsync(query, parameters).thenCompose(rows -> {
+            CompletableFuture<?>[] reconciled = new CompletableFuture<?>[rows.size()];
+            for (int i = 0; i < rows.size(); i++) {
+                int userId = ((Number) rows.get(i).get("id")).intValue();
+                Object history = rows.get(i).get("listening_history");
+                CompletableFuture<Embedding> base = history != null && !history.toString().isEmpty()
+                    ? embeddingService.getEmbeddingAsync(history.toString())
+                    : CompletableFuture.completedFuture(null);
+                reconciled[i] = base.thenCompose(embedding -> replayAsync(userId, embedding));
+            }
+            return CompletableFuture.allOf(reconciled).thenApply(done -> rows.size());
+        });
+    }
+
+    private CompletableFuture<Void> replayAsync(int userId, Embedding base) {
+        return sqlExecutorService.executeInTransactionAsync(transaction -> {
+            Map<String, Object> userParams = new LinkedHashMap<>();
+            userParams.put("1", userId);
+            // Taking the lock first keeps new events from interleaving with the replay
+            transaction.executeQuery("SELECT id FROM users WHERE id = ? FOR UPDATE", userParams);
+
+            List<Map<String, Object>> events = transaction.executeQuery("""
+                SELECT e.weight, p.embedding
+                FROM listening_events e
+                JOIN podcast_episodes p ON p.id = e.podcast_id
+                WHERE e.user_id = ? AND p.embedding IS NOT NULL
+                ORDER BY e.id
+                """, userParams);
+
+            float[] embedding = base != null ? base.toArray() : null;
+            for (Map<String, Object> event : events) {
+                Embedding podcast = (Embedding) event.get("embedding");
+                embedding = foldIn(embedding, podcast.toArray(), ((Number) event.get("weight")).doubleValue());
+            }
+
+            Map<String, Object> updateParams = new LinkedHashMap<>();
+            updateParams.put("1", embedding != null ? new Embedding(embedding) : null);
+            updateParams.put("2", userId);
+            transaction.executeUpdate("UPDATE users SET embedding = ?, embedding_updated_at = clock_timestamp(), reconciled_at = now() WHERE id = ?", updateParams);
+            logger.debug("Reconciled embedding for user {} from {} events", userId, events.size());
+            return null;
+        });
+    }
+
+    /**
+     * Returns {@code normalize((1 - a) * user + a * podcast)} where {@code a = 1 - (1 - decay)^weight},
+     * so an event of weight {@code w} counts like {@code w} events of weight 1. A user without an
+     * embedding takes the podcast's direction.
+     */
+    float[] foldIn(float[] user, float[] podcast, double weight) {
+        double alpha = user == null ? 1.0 : 1.0 - Math.pow(1.0 - decay, weight);
+        float[] result = new float[podcast.length];
+        double norm = 0;
+        for (int i = 0; i < result.length; i++) {
+            double value = alpha * podcast[i] + (user == null ? 0 : (1.0 - alpha) * user[i]);
+            result[i] = (float) value;
+            norm += value * value;
+        }
+        if (norm > 0) {
+            // OpenAI embeddings are unit length; keep the running average on the same sphere
+            float scale = (float) (1.0 / Math.sqrt(norm));
+            for (int i = 0; i < result.length; i++) {
+                result[i] *= scale;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.feedbackloops.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.JvmGcMetrics;
+import io.micrometer.core.instrument.binder.jvm.JvmMemoryMetrics;
+import io.micrometer.core.instrument.binder.jvm.JvmThreadMetrics;
+import io.micrometer.core.instrument.binder.system.ProcessorMetrics;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Process-wide Micrometer registry scraped in Prometheus text format. Meters are looked up by
+ * name and a small, fixed set of tags, so recording is a map lookup plus a lock-free update.
+ */
+public final class Metrics {
+    private static final PrometheusMeterRegistry registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+    // SQL text -> logical statement name, derived once per distinct statement
+    private static final Map<String, String> statementNames = new ConcurrentHashMap<>();
+    // Gauge name and tags -> current source of the gauge registered under them
+    private static final Map<String, AtomicReference<DoubleSupplier>> gaugeSources = new ConcurrentHashMap<>();
+    private static final Pattern NAME_COMMENT = Pattern.compile("^\\s*/\\*\\s*(\\w+)\\s*\\*/");
+    private static final Pattern VERB = Pattern.compile("\\b(SELECT|INSERT|UPDATE|DELETE|COPY)\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern INSERT_TABLE = Pattern.compile("\\bINTO\\s+(\\w+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern UPDATE_TABLE = Pattern.compile("\\bUPDATE\\s+(\\w+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern COPY_TABLE = Pattern.compile("\\bCOPY\\s+(\\w+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern FROM_TABLE = Pattern.compile("\\bFROM\\s+(\\w+)", Pattern.CASE_INSENSITIVE);
+
+    static {
+        // Latency timers publish histogram buckets so quantiles can be aggregated across instances
+        registry.config().meterFilter(new MeterFilter() {
+            @Override
+            public DistributionStatisticConfig configure(Meter.Id id, DistributionStatisticConfig config) {
+                if (id.getType() == Meter.Type.TIMER) {
+                    return DistributionStatisticConfig.builder()
+                        .percentilesHistogram(true)
+                        .minimumExpectedValue((double) Duration.ofMillis(1).toNanos())
+                        .maximumExpectedValue((double) Duration.ofSeconds(60).toNanos())
+                        .build()
+                        .merge(config);
+                }
+                return config;
+            }
+        });
+        new JvmMemoryMetrics().bindTo(registry);
+        new JvmGcMetrics().bindTo(registry);
+        new JvmThreadMetrics().bindTo(registry);
+        new ProcessorMetrics().bindTo(registry);
+    }
+
+    private Metrics() {}
+
+    public static MeterRegistry registry() {
+        return registry;
+    }
+
+    public static String scrape() {
+        return registry.scrape();
+    }
+
+    public static Timer timer(String name, String... tags) {
+        return registry.timer(name, tags);
+    }
+
+    public static Counter counter(String name, String... tags) {
+        return registry.counter(name, tags);
+    }
+
+    /**
+     * Registers a gauge of {@code value}, or points the gauge already registered under the same
+     * name and tags at it. The registry keeps the first gauge of a name for good, so a service
+     * re-created on re-initialize takes over its gauge instead of leaving it reading, and
+     * holding on to, the instance it replaced.
+     *
+     * @param baseUnit unit of the value, or {@code null}
+     */
+    public static void gauge(String name, String baseUnit, DoubleSupplier value, String... tags) {
+        gaugeSources.computeIfAbsent(name + "," + String.join(",", tags), key -> {
+            AtomicReference<DoubleSupplier> source = new AtomicReference<>();
+            Gauge.builder(name, source, current -> current.get().getAsDouble())
+                .tags(tags)
+                .baseUnit(baseUnit)
+                .register(registry);
+            return source;
+        }).set(value);
+    }
+
+    /**
+     * Times {@code call} from invocation until the returned future completes, tagged with
+     * {@code outcome=success|error}.
+     */
+    public static <T> CompletableFuture<T> timeAsync(String name, String tagKey, String tagValue, Supplier<CompletableFuture<T>> call) {
+        long start = System.nanoTime();
+        return call.get().whenComplete((result, e) -> timer(name, tagKey, tagValue, "outcome", e == null ? "success" : "error")
+            .record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+    }
+
+    public static void recordSql(String sqlQuery, String outcome, long startNanos) {
+        timer("sql.statement", "statement", statementName(sqlQuery), "outcome", outcome)
+            .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public static void recordTokens(String operation, String deployment, String type, long tokens) {
+        counter("openai.tokens", "operation", operation, "deployment", String.valueOf(deployment), "type", type)
+            .increment(tokens);
+    }
+
+    public static void bindEmbeddingCache(EmbeddingCache cache) {
+        FunctionCounter.builder("embedding.cache.requests", cache, EmbeddingCache::getHitCount)
+            .tag("result", "hit").register(registry);
+        FunctionCounter.builder("embedding.cache.requests", cache, EmbeddingCache::getDiskHitCount)
+            .tag("result", "disk_hit").register(registry);
+        FunctionCounter.builder("embedding.cache.requests", cache, EmbeddingCache::getMissCount)
+            .tag("result", "miss").register(registry);
+        FunctionCounter.builder("embedding.cache.evictions", cache, EmbeddingCache::getEvictionCount)
+            .register(registry);
+    }
+
+    public static void bindRecommendationCache(RecommendationCache<?> cache) {
+        FunctionCounter.builder("recommendation.cache.requests", cache, RecommendationCache::getHitCount)
+            .tag("result", "hit").register(registry);
+        FunctionCounter.builder("recommendation.cache.requests", cache, RecommendationCache::getMissCount)
+            .tag("result", "miss").register(registry);
+    }
+
+    /**
+     * Logical name of a statement, used as a low cardinality tag instead of the SQL text. A
+     * leading <code>/&#42; name &#42;/</code> comment wins; otherwise the name is the verb and
+     * first table, e.g. {@code select_podcast_episodes}.
+     */
+    static String statementName(String sqlQuery) {
+        return statementNames.computeIfAbsent(sqlQuery, sql -> {
+            Matcher comment = NAME_COMMENT.matcher(sql);
+            if (comment.find()) {
+                return comment.group(1);
+            }
+            Matcher verb = VERB.matcher(sql);
+            if (!verb.find()) {
+                return "other";
+            }
+            String operation = verb.group(1).toLowerCase(Locale.ROOT);
+            Pattern tablePattern = operation.equals("insert") ? INSERT_TABLE
+                : operation.equals("update") ? UPDATE_TABLE
+                : operation.equals("copy") ? COPY_TABLE
+                : FROM_TABLE;
+            Matcher table = tablePattern.matcher(sql);
+            return table.find(verb.start()) ? operation + "_" + table.group(1).toLowerCase(Locale.ROOT) : operation;
+        });
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.feedbackloops.services;
+
+import com.azure.ai.openai.OpenAIClient;
+import com.azure.ai.openai.OpenAIClientBuilder;
+import com.azure.core.credential.AzureKeyCredential;
+import com.azure.core.http.policy.FixedDelayOptions;
+import com.azure.core.http.policy.HttpPipelinePolicy;
+import com.azure.core.http.policy.RetryOptions;
+
+import java.time.Duration;
+
+public final class OpenAIClients {
+    private OpenAIClients() {}
+
+    /**
+     * Builds a client whose HTTP stack and connection pool can be shared by every deployment
+     * on the same endpoint. Retries are left to the {@link OpenAIRateLimiter}s, which see every
+     * 429 and slow all callers down; their policies are passed in here.
+     */
+    public static OpenAIClient build(String endpoint, String apiKey, HttpPipelinePolicy... policies) {
+        OpenAIClientBuilder builder = new OpenAIClientBuilder()
+            .endpoint(endpoint)
+            .credential(new AzureKeyCredential(apiKey))
+            .retryOptions(new RetryOptions(new FixedDelayOptions(0, Duration.ZERO)));
+        for (HttpPipelinePolicy policy : policies) {
+            builder.addPolicy(policy);
+        }
+        return builder.buildClient();
+    }
+}
@@ -0,0 +1,272 @@
+package com.example.feedbackloops.services;
+
+import com.azure.core.exception.HttpResponseException;
+import com.azure.core.http.HttpHeaderName;
+import com.azure.core.http.HttpHeaders;
+import com.azure.core.http.HttpPipelineCallContext;
+import com.azure.core.http.HttpResponse;
+import com.azure.core.http.policy.HttpPipelinePolicy;
+import com.azure.core.http.policy.HttpPipelineSyncPolicy;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Client-side admission for one Azure OpenAI deployment. Calls reserve one request and their
+ * estimated tokens from per-minute buckets before they are sent, and retryable failures (429,
+ * 408, 5xx, I/O errors) are retried with full-jitter exponential backoff.
+ *
+ * <p>The buckets follow the service instead of only the configuration: the
+ * {@code x-ratelimit-remaining-*} headers clamp what is left, a 429 pauses admission for its
+ * {@code retry-after} and cuts the refill rate, and every success restores the rate a little.
+ * Under sustained load the admitted rate settles just below the quota instead of alternating
+ * between bursts and throttling. Concurrency per deployment is capped by the service's
+ * {@link ServiceExecutor}.
+ */
+public class OpenAIRateLimiter {
+    private static final Logger logger = LoggerFactory.getLogger(OpenAIRateLimiter.class);
+    private static final HttpHeaderName RETRY_AFTER_MS = HttpHeaderName.fromString("retry-after-ms");
+    private static final HttpHeaderName REMAINING_REQUESTS = HttpHeaderName.fromString("x-ratelimit-remaining-requests");
+    private static final HttpHeaderName REMAINING_TOKENS = HttpHeaderName.fromString("x-ratelimit-remaining-tokens");
+    // Azure evaluates the per-minute quotas over short windows, so bursts are limited to 10 seconds' worth
+    private static final double BURST_SECONDS = 10;
+    private static final double MIN_RATE_SCALE = 0.1;
+    private static final double THROTTLED_RATE_SCALE = 0.7;
+    private static final double RECOVERY_STEP = 0.02;
+
+    private final String deploymentName;
+    private final Bucket requests;
+    private final Bucket tokens;
+    private final int maxRetries;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final Timer admissionTimer;
+
+    // Guarded by this
+    private double rateScale = 1.0;
+    private long pausedUntilNanos;
+
+    /**
+     * @param requestsPerMinute deployment quota in requests per minute, or {@code 0} for no limit
+     * @param tokensPerMinute deployment quota in tokens per minute, or {@code 0} for no limit
+     * @param maxRetries retries after the first attempt; {@code 0} fails on the first error
+     */
+    public OpenAIRateLimiter(String deploymentName, int requestsPerMinute, int tokensPerMinute,
+                             int maxRetries, long baseDelayMillis, long maxDelayMillis) {
+        this.deploymentName = deploymentName;
+        this.requests = new Bucket(requestsPerMinute);
+        this.tokens = new Bucket(tokensPerMinute);
+        this.maxRetries = maxRetries;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.admissionTimer = Metrics.timer("openai.admission.wait", "deployment", String.valueOf(deploymentName));
+        Metrics.gauge("openai.rate.scale", null, this::getRateScale, "deployment", String.valueOf(deploymentName));
+    }
+
+    /**
+     * Limiter without configured quotas: it only retries and honours {@code retry-after}.
+     */
+    public static OpenAIRateLimiter retryOnly(String deploymentName) {
+        return new OpenAIRateLimiter(deploymentName, 0, 0, 3, 500, 30000);
+    }
+
+    /**
+     * Pipeline policy that feeds the rate limit headers of every response for this deployment
+     * back into the buckets. Requests for other deployments on the same client are ignored.
+     */
+    public HttpPipelinePolicy policy() {
+        String deploymentPath = "/deployments/" + deploymentName + "/";
+        return new HttpPipelineSyncPolicy() {
+            @Override
+            protected HttpResponse afterReceivedResponse(HttpPipelineCallContext context, HttpResponse response) {
+                if (context.getHttpRequest().getUrl().getPath().contains(deploymentPath)) {
+                    onHeaders(response.getHeaders());
+                }
+                return response;
+            }
+        };
+    }
+
+    /**
+     * Runs {@code call} once the deployment has room for one request and
+     * {@code estimatedTokens}, retrying retryable failures.
+     */
+    public <T> T execute(int estimatedTokens, Supplier<T> call) {
+        for (int attempt = 0; ; attempt++) {
+            acquire(estimatedTokens);
+            try {
+                T result = call.get();
+                onSuccess();
+                return result;
+            } catch (HttpResponseException e) {
+                int status = e.getResponse() != null ? e.getResponse().getStatusCode() : 0;
+                if (!isRetryable(status) || attempt >= maxRetries) {
+                    throw e;
+                }
+                long retryAfterMillis = e.getResponse() != null ? retryAfterMillis(e.getResponse().getHeaders()) : -1;
+                if (status == 429) {
+                    onThrottled(retryAfterMillis);
+                }
+                retry(attempt, String.valueOf(status), retryAfterMillis);
+            } catch (UncheckedIOException e) {
+                if (attempt >= maxRetries) {
+                    throw e;
+                }
+                retry(attempt, "io", -1);
+            }
+        }
+    }
+
+    /**
+     * Corrects the token bucket once the actual usage of a call is known.
+     */
+    public synchronized void reconcile(int estimatedTokens, int actualTokens) {
+        tokens.refund(estimatedTokens - actualTokens, rateScale);
+    }
+
+    public synchronized double getRateScale() {
+        return rateScale;
+    }
+
+    private void acquire(int estimatedTokens) {
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            requests.refill(now, rateScale);
+            tokens.refill(now, rateScale);
+            waitNanos = Math.max(pausedUntilNanos - now, 0);
+            waitNanos = Math.max(waitNanos, requests.reserve(1, rateScale));
+            waitNanos = Math.max(waitNanos, tokens.reserve(estimatedTokens, rateScale));
+        }
+        if (waitNanos > 0) {
+            admissionTimer.record(waitNanos, TimeUnit.NANOSECONDS);
+            sleep(TimeUnit.NANOSECONDS.toMillis(waitNanos));
+        }
+    }
+
+    private void retry(int attempt, String reason, long retryAfterMillis) {
+        // Full jitter spreads retries from concurrent callers instead of sending them in lockstep
+        long backoff = ThreadLocalRandom.current().nextLong(
+            Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt, 20)) + 1);
+        long delay = Math.max(backoff, retryAfterMillis);
+        Metrics.counter("openai.retries", "deployment", String.valueOf(deploymentName), "reason", reason).increment();
+        logger.warn("Retrying OpenAI call to {} after {} ms (attempt {}, reason {})", deploymentName, delay, attempt + 1, reason);
+        sleep(delay);
+    }
+
+    private synchronized void onSuccess() {
+        rateScale = Math.min(1.0, rateScale + RECOVERY_STEP);
+    }
+
+    private synchronized void onThrottled(long retryAfterMillis) {
+        rateScale = Math.max(MIN_RATE_SCALE, rateScale * THROTTLED_RATE_SCALE);
+        if (retryAfterMillis > 0) {
+            pausedUntilNanos = Math.max(pausedUntilNanos, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(retryAfterMillis));
+        }
+    }
+
+    private synchronized void onHeaders(HttpHeaders headers) {
+        // Refilled up to now first, so the next refill does not add back time the headers cover
+        long now = System.nanoTime();
+        long remainingRequests = parseLong(headers.getValue(REMAINING_REQUESTS));
+        if (remainingRequests >= 0) {
+            requests.refill(now, rateScale);
+            requests.clamp(remainingRequests);
+        }
+        long remainingTokens = parseLong(headers.getValue(REMAINING_TOKENS));
+        if (remainingTokens >= 0) {
+            tokens.refill(now, rateScale);
+            tokens.clamp(remainingTokens);
+        }
+    }
+
+    private static boolean isRetryable(int status) {
+        return status == 408 || status == 429 || status == 500 || status == 502 || status == 503 || status == 504;
+    }
+
+    private static long retryAfterMillis(HttpHeaders headers) {
+        long millis = parseLong(headers.getValue(RETRY_AFTER_MS));
+        if (millis >= 0) {
+            return millis;
+        }
+        long seconds = parseLong(headers.getValue(HttpHeaderName.RETRY_AFTER));
+        return seconds >= 0 ? TimeUnit.SECONDS.toMillis(seconds) : -1;
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * Per-minute quota refilled continuously. Reservations may take it below zero; the caller
+     * then waits until the debt has been refilled, so admission stays first come, first served.
+     */
+    private static final class Bucket {
+        private final int perMinute;
+        private double available;
+        private long lastRefillNanos = System.nanoTime();
+
+        Bucket(int perMinute) {
+            this.perMinute = perMinute;
+            this.available = capacity(1.0);
+        }
+
+        double capacity(double scale) {
+            return perMinute * scale * BURST_SECONDS / 60;
+        }
+
+        void refill(long now, double scale) {
+            if (perMinute > 0) {
+                available = Math.min(capacity(scale), available + (now - lastRefillNanos) * perNanosecond(scale));
+            }
+            lastRefillNanos = now;
+        }
+
+        long reserve(int amount, double scale) {
+            if (perMinute <= 0) {
+                return 0;
+            }
+            available -= amount;
+            return available >= 0 ? 0 : (long) (-available / perNanosecond(scale));
+        }
+
+        void refund(int amount, double scale) {
+            if (perMinute > 0) {
+                available = Math.min(capacity(scale), available + amount);
+            }
+        }
+
+        // The service's view wins when another instance has used part of the shared quota
+        void clamp(long remaining) {
+            if (perMinute > 0) {
+                available = Math.min(available, remaining);
+            }
+        }
+
+        private double perNanosecond(double scale) {
+            return perMinute * scale / 60e9;
+        }
+    }
+}
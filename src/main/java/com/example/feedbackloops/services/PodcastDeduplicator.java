@@ -0,0 +1,164 @@
+package com.example.feedbackloops.services;
+
+import io.micrometer.core.instrument.Counter;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Makes podcast ingestion idempotent on the transcript. Each transcript is keyed by the SHA-256
+ * of its normalized text, stored in {@code podcast_episodes.content_hash} under a unique index.
+ * A transcript already in the table is answered with the existing row before any OpenAI call,
+ * and concurrent submissions of one transcript in this process wait for the first one instead
+ * of summarizing and embedding it again. Submissions racing on other instances are settled by
+ * the unique index: the insert uses {@code ON CONFLICT DO NOTHING} and the loser reads the
+ * winner's row.
+ */
+public class PodcastDeduplicator {
+    private static final Pattern WHITESPACE = Pattern.compile("[ \\t\\n\\x0B\\f\\r]+");
+
+    private final SqlExecutorService sqlExecutorService;
+    private final Map<String, CompletableFuture<Integer>> inFlight = new ConcurrentHashMap<>();
+    private final Counter existingCounter;
+    private final Counter coalescedCounter;
+
+    public PodcastDeduplicator(SqlExecutorService sqlExecutorService) {
+        this.sqlExecutorService = sqlExecutorService;
+        this.existingCounter = Metrics.counter("podcast.ingest.deduplicated", "source", "database");
+        this.coalescedCounter = Metrics.counter("podcast.ingest.deduplicated", "source", "in_flight");
+    }
+
+    /**
+     * Hex SHA-256 of the transcript in Unicode NFC with runs of whitespace collapsed to one
+     * space and the ends trimmed, so reformatted resends of the same text match.
+     * {@code data/migrations/006_add_content_hash.sql} computes the same value in SQL.
+     */
+    public static String contentHash(String transcript) {
+        String normalized = WHITESPACE.matcher(Normalizer.normalize(transcript, Normalizer.Form.NFC)).replaceAll(" ");
+        int start = normalized.startsWith(" ") ? 1 : 0;
+        int end = normalized.length() > start && normalized.endsWith(" ") ? normalized.length() - 1 : normalized.length();
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(normalized.substring(start, end).getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Id of the podcast stored for {@code contentHash} by {@code insert}, by an earlier request or
+     * by a concurrent one. {@code insert} runs at most once per hash at a time in this process,
+     * only when no row exists, and returns the new id or {@code null} when the insert hit the
+     * unique index.
+     */
+    public Result ingest(String contentHash, Supplier<Integer> insert) {
+        CompletableFuture<Integer> owner = claim(contentHash);
+        if (owner != null) {
+            return new Result(owner.join(), false);
+        }
+
+        try {
+            Integer existing = findExisting(contentHash);
+            if (existing != null) {
+                complete(contentHash, existing);
+                return new Result(existing, false);
+            }
+
+            Integer inserted = insert.get();
+            Integer podcastId = inserted != null ? inserted : findExisting(contentHash);
+            if (podcastId == null) {
+                throw new IllegalStateException("Podcast with content hash " + contentHash + " was neither inserted nor found");
+            }
+            complete(contentHash, podcastId);
+            return new Result(podcastId, inserted != null);
+        } catch (RuntimeException e) {
+            fail(contentHash, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Takes ownership of {@code contentHash} for this process. Returns {@code null} when the
+     * caller is now the owner and must end with {@link #complete} or {@link #fail}; otherwise
+     * returns the current owner's future.
+     */
+    public CompletableFuture<Integer> claim(String contentHash) {
+        CompletableFuture<Integer> owner = inFlight.putIfAbsent(contentHash, new CompletableFuture<>());
+        if (owner != null) {
+            coalescedCounter.increment();
+        }
+        return owner;
+    }
+
+    public void complete(String contentHash, int podcastId) {
+        CompletableFuture<Integer> owner = inFlight.remove(contentHash);
+        if (owner != null) {
+            owner.complete(podcastId);
+        }
+    }
+
+    public void fail(String contentHash, Throwable e) {
+        CompletableFuture<Integer> owner = inFlight.remove(contentHash);
+        if (owner != null) {
+            owner.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Id of the stored podcast with this transcript, or {@code null}.
+     */
+    public Integer findExisting(String contentHash) {
+        Map<String, Object> parameters = new LinkedHashMap<>();
+        parameters.put("1", contentHash);
+        List<Map<String, Object>> rows = sqlExecutorService.executeQueryAsync(
+            "SELECT id FROM podcast_episodes WHERE content_hash = ?", parameters).join();
+        if (rows.isEmpty()) {
+            return null;
+        }
+        existingCounter.increment();
+        return ((Number) rows.get(0).get("id")).intValue();
+    }
+
+    /**
+     * Ids of the stored podcasts for any of {@code contentHashes}, keyed by hash.
+     */
+    public Map<String, Integer> findExisting(List<String> contentHashes) {
+        Map<String, Object> parameters = new LinkedHashMap<>();
+        parameters.put("1", contentHashes.toArray(new String[0]));
+        Map<String, Integer> ids = new HashMap<>();
+        for (Map<String, Object> row : sqlExecutorService.executeQueryAsync(
+                "SELECT id, content_hash FROM podcast_episodes WHERE content_hash = ANY(?)", parameters).join()) {
+            ids.put((String) row.get("content_hash"), ((Number) row.get("id")).intValue());
+        }
+        return ids;
+    }
+
+    public static final class Result {
+        private final int podcastId;
+        private final boolean created;
+
+        Result(int podcastId, boolean created) {
+            this.podcastId = podcastId;
+            this.created = created;
+        }
+
+        public int getPodcastId() {
+            return podcastId;
+        }
+
+        public boolean isCreated() {
+            return created;
+        }
+    }
+}
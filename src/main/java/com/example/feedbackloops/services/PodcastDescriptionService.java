@@ -0,0 +1,105 @@
+package com.example.feedbackloops.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Owns the short (five words or less) podcast description. Descriptions only depend on the
+ * podcast, so they are generated once, stored in {@code podcast_episodes.short_description}
+ * and served through a read-through cache keyed by podcast id.
+ */
+public class PodcastDescriptionService {
+    private static final Logger logger = LoggerFactory.getLogger(PodcastDescriptionService.class);
+
+    private final ChatCompletionService chatCompletionService;
+    private final SqlExecutorService sqlExecutorService;
+    private final Map<Integer, String> cache;
+
+    public PodcastDescriptionService(ChatCompletionService chatCompletionService, SqlExecutorService sqlExecutorService, int maxCachedDescriptions) {
+        this.chatCompletionService = chatCompletionService;
+        this.sqlExecutorService = sqlExecutorService;
+        this.cache = new LinkedHashMap<>(Math.min(maxCachedDescriptions, 1024), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+                return size() > maxCachedDescriptions;
+            }
+        };
+    }
+
+    public CompletableFuture<String> generateShortDescriptionAsync(String title, String summary) {
+        String prompt = String.format("Summarize the following podcast in 5 words or less:\n\nPodcast: %s\nDescription: %s\n\nSummary:",
+            title, summary);
+        return chatCompletionService.getChatCompletionAsync(prompt);
+    }
+
+    /**
+     * Returns the short description for a podcast, using the cache first, then the stored
+     * column value, and only calling GPT (and persisting the result) when neither exists.
+     */
+    public CompletableFuture<String> getShortDescriptionAsync(int podcastId, String title, String summary, String storedDescription) {
+        String cached;
+        synchronized (cache) {
+            cached = cache.get(podcastId);
+        }
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        if (storedDescription != null && !storedDescription.isEmpty()) {
+            cacheDescription(podcastId, storedDescription);
+            return CompletableFuture.completedFuture(storedDescription);
+        }
+
+        return generateShortDescriptionAsync(title, summary)
+            .thenCompose(description -> storeAsync(podcastId, description).thenApply(updated -> description));
+    }
+
+    public CompletableFuture<Integer> backfillAsync(int batchSize) {
+        String query = """
+            SELECT id, title, summary
+            FROM podcast_episodes
+            WHERE short_description IS NULL AND summary IS NOT NULL
+            ORDER BY id
+            LIMIT ?
+            """;
+        Map<String, Object> parameters = new LinkedHashMap<>();
+        parameters.put("1", batchSize);
+
+        return sqlExecutorService.executeQueryAsync(query, parameters).thenCompose(rows -> {
+            CompletableFuture<?>[] updates = new CompletableFuture<?>[rows.size()];
+            for (int i = 0; i < rows.size(); i++) {
+                Map<String, Object> row = rows.get(i);
+                int podcastId = ((Number) row.get("id")).intValue();
+                updates[i] = generateShortDescriptionAsync(row.get("title").toString(), row.get("summary").toString())
+                    .thenCompose(description -> storeAsync(podcastId, description));
+            }
+            return CompletableFuture.allOf(updates).thenApply(done -> rows.size());
+        });
+    }
+
+    private CompletableFuture<Integer> storeAsync(int podcastId, String description) {
+        cacheDescription(podcastId, description);
+
+        String updateQuery = "UPDATE podcast_episodes SET short_description = ? WHERE id = ? AND short_description IS NULL";
+        Map<String, Object> parameters = new LinkedHashMap<>();
+        parameters.put("1", description);
+        parameters.put("2", podcastId);
+
+        return sqlExecutorService.executeUpdateAsync(updateQuery, parameters)
+            .exceptionally(e -> {
+                // The description is still cached and returned; the next backfill will retry the write
+                logger.error("Failed to store short description for podcast {}", podcastId, e);
+                return 0;
+            });
+    }
+
+    private void cacheDescription(int podcastId, String description) {
+        synchronized (cache) {
+            cache.put(podcastId, description);
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package com.example.feedbackloops.services;
+
+import com.example.feedbackloops.models.Embedding;
+import com.example.feedbackloops.models.PodcastIngestionStatus;
+import com.example.feedbackloops.models.PodcastRequest;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Streams NDJSON podcast records through parse, summarize, embed and insert stages. Stages are
+ * connected by bounded queues, so a slow stage applies backpressure to the ones before it
+ * instead of buffering the whole request in memory.
+ *
+ * <p>Records whose transcript is already stored, or is being ingested by another record or
+ * request, are resolved through the {@link PodcastDeduplicator} before summarization and
+ * reported as {@code existing} without any OpenAI call.
+ */
+public class PodcastIngestionPipeline {
+    private static final Logger logger = LoggerFactory.getLogger(PodcastIngestionPipeline.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final Item END_OF_STREAM = new Item(null, null);
+
+    private static final String INSERT_QUERY =
+        "INSERT INTO podcast_episodes (title, summary, short_description, transcript, content_hash, embedding) "
+            + "VALUES (?, ?, ?, ?, ?, ?) ON CONFLICT (content_hash) DO NOTHING";
+
+    private final EmbeddingService embeddingService;
+    private final SqlExecutorService sqlExecutorService;
+    private final PodcastDescriptionService podcastDescriptionService;
+    private final PodcastVectorIndex podcastVectorIndex;
+    private final PodcastDeduplicator deduplicator;
+    private final Function<String, CompletableFuture<String>> summarizer;
+    private final int summarizeParallelism;
+    private final int embeddingBatchSize;
+    private final int insertBatchSize;
+    private final int queueCapacity;
+
+    public PodcastIngestionPipeline(EmbeddingService embeddingService, SqlExecutorService sqlExecutorService,
+                                    PodcastDescriptionService podcastDescriptionService, PodcastVectorIndex podcastVectorIndex,
+                                    PodcastDeduplicator deduplicator, Function<String, CompletableFuture<String>> summarizer,
+                                    int summarizeParallelism, int embeddingBatchSize, int insertBatchSize, int queueCapacity) {
+        this.embeddingService = embeddingService;
+        this.sqlExecutorService = sqlExecutorService;
+        this.podcastDescriptionService = podcastDescriptionService;
+        this.podcastVectorIndex = podcastVectorIndex;
+        this.deduplicator = deduplicator;
+        this.summarizer = summarizer;
+        this.summarizeParallelism = summarizeParallelism;
+        this.embeddingBatchSize = embeddingBatchSize;
+        this.insertBatchSize = insertBatchSize;
+        this.queueCapacity = queueCapacity;
+    }
+
+    public List<PodcastIngestionStatus> ingest(BufferedReader reader) throws IOException, InterruptedException {
+        BlockingQueue<Item> summarizeQueue = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Item> embedQueue = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Item> insertQueue = new ArrayBlockingQueue<>(queueCapacity);
+        List<PodcastIngestionStatus> statuses = new ArrayList<>();
+        // Records that wait for another one with the same transcript, resolved once the stages finish
+        Queue<Item> waiting = new ConcurrentLinkedQueue<>();
+
+        ExecutorService stages = Executors.newFixedThreadPool(summarizeParallelism + 2, runnable -> {
+            Thread thread = new Thread(runnable, "podcast-ingestion");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            AtomicInteger activeSummarizers = new AtomicInteger(summarizeParallelism);
+            for (int i = 0; i < summarizeParallelism; i++) {
+                stages.submit(() -> runSummarizeStage(summarizeQueue, embedQueue, waiting, activeSummarizers));
+            }
+            stages.submit(() -> runEmbedStage(embedQueue, insertQueue));
+            stages.submit(() -> runInsertStage(insertQueue));
+
+            // Parse stage runs on the calling thread
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+
+                PodcastIngestionStatus status = new PodcastIngestionStatus(lineNumber, null);
+                statuses.add(status);
+                try {
+                    PodcastRequest data = objectMapper.readValue(line, PodcastRequest.class);
+                    status.setTitle(data.getTitle());
+                    if (data.getTitle() == null || data.getTitle().isEmpty() ||
+                        data.getTranscript() == null || data.getTranscript().isEmpty()) {
+                        fail(status, "Missing 'title' or 'transcript'.");
+                        continue;
+                    }
+                    Item item = new Item(data, status);
+                    item.contentHash = PodcastDeduplicator.contentHash(data.getTranscript());
+                    summarizeQueue.put(item);
+                } catch (JsonProcessingException e) {
+                    fail(status, "Invalid JSON: " + e.getOriginalMessage());
+                }
+            }
+        } finally {
+            // Always terminate the stages, even if reading the request failed part-way
+            for (int i = 0; i < summarizeParallelism; i++) {
+                summarizeQueue.put(END_OF_STREAM);
+            }
+            stages.shutdown();
+            stages.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+
+        for (Item item : waiting) {
+            try {
+                existing(item.status, item.owner.join());
+            } catch (RuntimeException e) {
+                fail(item.status, "Ingesting the same transcript failed: " + rootMessage(e));
+            }
+        }
+
+        return statuses;
+    }
+
+    private void runSummarizeStage(BlockingQueue<Item> input, BlockingQueue<Item> output, Queue<Item> waiting,
+                                   AtomicInteger activeSummarizers) {
+        try {
+            while (true) {
+                Item item = input.take();
+                if (item == END_OF_STREAM) {
+                    break;
+                }
+                // Owners of a hash must end with complete or fail, or duplicates wait forever
+                item.owner = deduplicator.claim(item.contentHash);
+                if (item.owner != null) {
+                    waiting.add(item);
+                    continue;
+                }
+                try {
+                    Integer existingId = deduplicator.findExisting(item.contentHash);
+                    if (existingId != null) {
+                        deduplicator.complete(item.contentHash, existingId);
+                        existing(item.status, existingId);
+                        continue;
+                    }
+                    item.summary = summarizer.apply(item.request.getTranscript()).join();
+                    item.shortDescription = podcastDescriptionService
+                        .generateShortDescriptionAsync(item.request.getTitle(), item.summary).join();
+                    output.put(item);
+                } catch (RuntimeException e) {
+                    fail(item, "Summarization failed: " + rootMessage(e), e);
+                }
+            }
+            if (activeSummarizers.decrementAndGet() == 0) {
+                output.put(END_OF_STREAM);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runEmbedStage(BlockingQueue<Item> input, BlockingQueue<Item> output) {
+        try {
+            List<Item> batch = new ArrayList<>(embeddingBatchSize);
+            boolean done = false;
+            while (!done) {
+                done = drainBatch(input, batch, embeddingBatchSize);
+                if (batch.isEmpty()) {
+                    continue;
+                }
+
+                List<String> summaries = new ArrayList<>(batch.size());
+                for (Item item : batch) {
+                    summaries.add(item.summary);
+                }
+                try {
+                    List<Embedding> embeddings = embeddingService.getEmbeddingsAsync(summaries).join();
+                    for (int i = 0; i < batch.size(); i++) {
+                        batch.get(i).embedding = embeddings.get(i);
+                        output.put(batch.get(i));
+                    }
+                } catch (RuntimeException e) {
+                    for (Item item : batch) {
+                        fail(item, "Embedding failed: " + rootMessage(e), e);
+                    }
+                }
+                batch.clear();
+            }
+            output.put(END_OF_STREAM);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runInsertStage(BlockingQueue<Item> input) {
+        try {
+            List<Item> batch = new ArrayList<>(insertBatchSize);
+            boolean done = false;
+            while (!done) {
+                done = drainBatch(input, batch, insertBatchSize);
+                if (batch.isEmpty()) {
+                    continue;
+                }
+
+                List<Map<String, Object>> rows = new ArrayList<>(batch.size());
+                for (Item item : batch) {
+                    Map<String, Object> parameters = new LinkedHashMap<>();
+                    parameters.put("1", item.request.getTitle());
+                    parameters.put("2", item.summary);
+                    parameters.put("3", item.shortDescription);
+                    parameters.put("4", item.request.getTranscript());
+                    parameters.put("5", item.contentHash);
+                    parameters.put("6", item.embedding);
+                    rows.add(parameters);
+                }
+
+                try {
+                    // Conflicting rows return no key, so ids are matched to records by hash
+                    Set<Integer> createdIds = new HashSet<>(sqlExecutorService.executeBatchInsertAsync(INSERT_QUERY, rows).join());
+                    List<String> hashes = new ArrayList<>(batch.size());
+                    for (Item item : batch) {
+                        hashes.add(item.contentHash);
+                    }
+                    Map<String, Integer> ids = deduplicator.findExisting(hashes);
+                    for (Item item : batch) {
+                        Integer id = ids.get(item.contentHash);
+                        if (id == null) {
+                            fail(item, "Insert failed: row not found after insert", null);
+                        } else if (createdIds.contains(id)) {
+                            item.status.setStatus(PodcastIngestionStatus.CREATED);
+                            item.status.setPodcastId(id);
+                            if (podcastVectorIndex != null) {
+                                podcastVectorIndex.add(id, item.embedding.toArray());
+                            }
+                            deduplicator.complete(item.contentHash, id);
+                        } else {
+                            existing(item.status, id);
+                            deduplicator.complete(item.contentHash, id);
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    for (Item item : batch) {
+                        fail(item, "Insert failed: " + rootMessage(e), e);
+                    }
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Blocks for the first item, then takes whatever else is immediately available up to maxSize.
+    // Returns true once the end-of-stream marker has been seen.
+    private static boolean drainBatch(BlockingQueue<Item> queue, List<Item> batch, int maxSize) throws InterruptedException {
+        Item item = queue.take();
+        while (true) {
+            if (item == END_OF_STREAM) {
+                return true;
+            }
+            batch.add(item);
+            if (batch.size() >= maxSize) {
+                return false;
+            }
+            item = queue.poll();
+            if (item == null) {
+                return false;
+            }
+        }
+    }
+
+    private void fail(Item item, String error, Throwable cause) {
+        fail(item.status, error);
+        deduplicator.fail(item.contentHash, cause != null ? cause : new IllegalStateException(error));
+    }
+
+    private static void existing(PodcastIngestionStatus status, int podcastId) {
+        status.setStatus(PodcastIngestionStatus.EXISTING);
+        status.setPodcastId(podcastId);
+    }
+
+    private static void fail(PodcastIngestionStatus status, String error) {
+        status.setStatus(PodcastIngestionStatus.FAILED);
+        status.setError(error);
+        logger.warn("Failed to ingest podcast on line {}: {}", status.getLine(), error);
+    }
+
+    private static String rootMessage(Throwable e) {
+        Throwable root = e;
+        while (root.getCause() != null) {
+            root = root.getCause();
+        }
+        return root.getMessage();
+    }
+
+    private static final class Item {
+        private final PodcastRequest request;
+        private final PodcastIngestionStatus status;
+        private String summary;
+        private String shortDescription;
+        private Embedding embedding;
+        private String contentHash;
+        private CompletableFuture<Integer> owner;
+
+        Item(PodcastRequest request, PodcastIngestionStatus status) {
+            this.request = request;
+            this.status = status;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.feedbackloops.services;
+
+import com.example.feedbackloops.models.Embedding;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+public class PodcastVectorIndex {
+    private static final Logger logger = LoggerFactory.getLogger(PodcastVectorIndex.class);
+
+    private final SqlExecutorService sqlExecutorService;
+    private final HnswIndex index;
+    private final int efSearch;
+    private volatile boolean ready;
+
+    /**
+     * @param cosine rank by cosine distance ({@code <=>}) instead of Euclidean distance, as the
+     *               SQL search does with the same metric
+     */
+    public PodcastVectorIndex(SqlExecutorService sqlExecutorService, int dimensions, int m, int efConstruction,
+                              int efSearch, boolean cosine) {
+        this.sqlExecutorService = sqlExecutorService;
+        this.index = new HnswIndex(dimensions, m, efConstruction, cosine);
+        this.efSearch = efSearch;
+    }
+
+    public CompletableFuture<Void> warmAsync() {
+        long start = System.nanoTime();
+        String query = "SELECT id, embedding FROM podcast_episodes WHERE embedding IS NOT NULL";
+        return sqlExecutorService.executeQueryAsync(query, null)
+            .thenAccept(rows -> {
+                for (Map<String, Object> row : rows) {
+                    Embedding embedding = (Embedding) row.get("embedding");
+                    index.add(((Number) row.get("id")).intValue(), embedding.toArray());
+                }
+                ready = true;
+                logger.info("Warmed podcast vector index with {} episodes in {} ms",
+                    index.size(), (System.nanoTime() - start) / 1_000_000);
+            })
+            .exceptionally(e -> {
+                logger.error("Failed to warm podcast vector index, falling back to SQL search", e);
+                return null;
+            });
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Adds a podcast whose row is already committed. A failure is logged rather than thrown:
+     * the podcast is stored either way, and the next warm-up reads it from the table.
+     */
+    public void add(int podcastId, float[] embedding) {
+        try {
+            index.add(podcastId, embedding);
+        } catch (RuntimeException e) {
+            logger.error("Failed to add podcast {} to the vector index; it is served once the index is warmed again", podcastId, e);
+        }
+    }
+
+    public List<HnswIndex.SearchResult> search(float[] query, int k) {
+        return index.search(query, k, efSearch);
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.feedbackloops.services;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * In-process cache of computed recommendations keyed by (user id, k). Entries are stamped with
+ * the user's version and the catalog version at the time they were computed; bumping either
+ * version makes the entry stale without having to find and remove it. Concurrent misses for
+ * the same key wait for a single computation.
+ *
+ * <p>User versions are kept per stripe of user ids rather than per user, so their memory is
+ * fixed however many users are invalidated. Invalidating a user also makes the entries of the
+ * users sharing its stripe stale; with at least as many stripes as entries that is rare.
+ *
+ * <p>Invalidation is local to this instance, so the TTL bounds how long another instance can
+ * serve recommendations computed before a change.
+ */
+public class RecommendationCache<V> {
+    private static final int MAX_USER_STRIPES = 1 << 16;
+
+    private final long ttlNanos;
+    private final Map<Long, Entry<V>> entries;
+    private final AtomicLongArray userVersions;
+    private final AtomicLong versionSequence = new AtomicLong();
+    private volatile long catalogVersion;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    public RecommendationCache(int maxEntries, long ttlMillis) {
+        this.ttlNanos = ttlMillis * 1_000_000L;
+        // A power of two, so the stripe is a mask of the id
+        int stripes = Integer.highestOneBit(Math.max(1, Math.min(maxEntries, MAX_USER_STRIPES) - 1)) << 1;
+        this.userVersions = new AtomicLongArray(stripes);
+        this.entries = new LinkedHashMap<>(Math.min(maxEntries, 1024), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry<V>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached value for (userId, k), or runs {@code loader} on the calling thread
+     * if there is no current entry. Callers that arrive while a computation is in flight block
+     * until it finishes and share its result. {@code null} results and failures are not cached.
+     */
+    public V get(int userId, int k, Supplier<V> loader) {
+        long key = ((long) userId << 32) | (k & 0xFFFFFFFFL);
+        long userVersion = userVersions.get(stripe(userId));
+        long catalog = catalogVersion;
+        long now = System.nanoTime();
+
+        Entry<V> entry;
+        boolean owner = false;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry == null || !entry.isCurrent(userVersion, catalog, now, ttlNanos)) {
+                entry = new Entry<>(userVersion, catalog, now);
+                entries.put(key, entry);
+                owner = true;
+            }
+        }
+
+        if (!owner) {
+            hitCount.incrementAndGet();
+            return entry.future.join();
+        }
+
+        missCount.incrementAndGet();
+        V value;
+        try {
+            value = loader.get();
+        } catch (RuntimeException e) {
+            remove(key, entry);
+            entry.future.completeExceptionally(e);
+            throw e;
+        }
+        if (value == null) {
+            remove(key, entry);
+        }
+        entry.future.complete(value);
+        return value;
+    }
+
+    public void invalidateUser(int userId) {
+        userVersions.set(stripe(userId), versionSequence.incrementAndGet());
+    }
+
+    public void invalidateCatalog() {
+        catalogVersion = versionSequence.incrementAndGet();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private int stripe(int userId) {
+        return userId & (userVersions.length() - 1);
+    }
+
+    private void remove(long key, Entry<V> entry) {
+        synchronized (entries) {
+            entries.remove(key, entry);
+        }
+    }
+
+    private static final class Entry<V> {
+        private final long userVersion;
+        private final long catalogVersion;
+        private final long createdNanos;
+        private final CompletableFuture<V> future = new CompletableFuture<>();
+
+        Entry(long userVersion, long catalogVersion, long createdNanos) {
+            this.userVersion = userVersion;
+            this.catalogVersion = catalogVersion;
+            this.createdNanos = createdNanos;
+        }
+
+        boolean isCurrent(long userVersion, long catalogVersion, long now, long ttlNanos) {
+            return this.userVersion == userVersion
+                && this.catalogVersion == catalogVersion
+                && now - createdNanos < ttlNanos
+                && !future.isCompletedExceptionally();
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.example.feedbackloops.services;
+
+import com.pgvector.PGvector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Computes the top {@code k} podcasts for every user in one batch and writes them to
+ * {@code precomputed_recommendations}, which {@code recommend-podcasts} serves until the user's
+ * embedding changes.
+ *
+ * <p>Users are processed in tiles of contiguous {@code float} rows, so memory stays bounded by
+ * the tile sizes however many users there are. Each user tile is scored against the catalog
+ * (kept in memory when it fits {@code maxCachedPodcasts}, otherwise streamed in tiles again)
+ * in parallel blocks of users. Distances use {@code |u - p|^2 = |u|^2 + |p|^2 - 2 u.p}, so the
+ * inner loop is a dot product run by the {@link SimilarityKernel}, and each user keeps its
+ * best candidates in a {@link TopKHeap}. A finished tile replaces the users' previous lists in
+ * one transaction with a {@code COPY}.
+ */
+public class RecommendationPrecomputer {
+    private static final Logger logger = LoggerFactory.getLogger(RecommendationPrecomputer.class);
+    // Users per parallel task, and podcasts per block reused from cache by all of them
+    private static final int USER_BLOCK = 64;
+    private static final int PODCAST_BLOCK = 64;
+
+    private final SqlExecutorService sqlExecutorService;
+    private final SimilarityKernel kernel;
+    private final int dimensions;
+    private final int k;
+    private final boolean cosine;
+    private final int userTileSize;
+    private final int podcastTileSize;
+    private final int maxCachedPodcasts;
+    private final ForkJoinPool pool;
+
+    /**
+     * @param cosine rank by cosine distance ({@code <=>}) instead of Euclidean distance
+     * @param maxCachedPodcasts largest catalog kept in memory for the whole run; bigger catalogs
+     *                          are read again for every user tile
+     * @param parallelism worker threads, or {@code 0} for one per core
+     */
+    public RecommendationPrecomputer(SqlExecutorService sqlExecutorService, int dimensions, int k, boolean cosine,
+                                     int userTileSize, int podcastTileSize, int maxCachedPodcasts, int parallelism) {
+        this.sqlExecutorService = sqlExecutorService;
+        this.kernel = SimilarityKernel.create();
+        this.dimensions = dimensions;
+        this.k = k;
+        this.cosine = cosine;
+        this.userTileSize = userTileSize;
+        this.podcastTileSize = podcastTileSize;
+        this.maxCachedPodcasts = maxCachedPodcasts;
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Runs one full pass over all users with an embedding and returns how many were written.
+     */
+    public int run() {
+        long start = System.nanoTime();
+        logger.info("Precomputing top-{} recommendations with the {} kernel on {} threads",
+            k, kernel.name(), pool.getParallelism());
+
+        List<Tile> cachedPodcasts = loadCachedPodcasts();
+        Tile podcastBuffer = cachedPodcasts == null ? new Tile(podcastTileSize, dimensions) : null;
+        Tile users = new Tile(userTileSize, dimensions);
+        TopKHeap[] heaps = new TopKHeap[userTileSize];
+        for (int i = 0; i < heaps.length; i++) {
+            heaps[i] = new TopKHeap(k);
+        }
+
+        int written = 0;
+        int lastUserId = 0;
+        while (true) {
+            // Lists are stamped with the time their embeddings were read, so a user updated
+            // while the tile is being scored is served live instead of from this run
+            String computedAt = currentTimestamp();
+            load("SELECT id, embedding FROM users WHERE embedding IS NOT NULL AND id > ? ORDER BY id LIMIT ?",
+                lastUserId, users);
+            if (users.count == 0) {
+                break;
+            }
+
+            if (cachedPodcasts != null) {
+                for (Tile podcasts : cachedPodcasts) {
+                    score(users, podcasts, heaps);
+                }
+            } else {
+                int lastPodcastId = 0;
+                do {
+                    load(PODCASTS_QUERY, lastPodcastId, podcastBuffer);
+                    score(users, podcastBuffer, heaps);
+                    lastPodcastId = podcastBuffer.count > 0 ? podcastBuffer.ids[podcastBuffer.count - 1] : lastPodcastId;
+                } while (podcastBuffer.count == podcastTileSize);
+            }
+
+            write(users, heaps, computedAt);
+            written += users.count;
+            lastUserId = users.ids[users.count - 1];
+            if (users.count < userTileSize) {
+                break;
+            }
+        }
+
+        logger.info("Precomputed recommendations for {} users in {} ms", written, (System.nanoTime() - start) / 1_000_000);
+        return written;
+    }
+
+    /**
+     * Stops the worker threads. A run still in progress fails at its next tile.
+     */
+    public void close() {
+        pool.shutdown();
+    }
+
+    private static final String PODCASTS_QUERY =
+        "SELECT id, embedding FROM podcast_episodes WHERE embedding IS NOT NULL AND id > ? ORDER BY id LIMIT ?";
+
+    private List<Tile> loadCachedPodcasts() {
+        List<Tile> tiles = new ArrayList<>();
+        int total = 0;
+        int lastPodcastId = 0;
+        while (true) {
+            Tile tile = new Tile(podcastTileSize, dimensions);
+            load(PODCASTS_QUERY, lastPodcastId, tile);
+            if (tile.count > 0) {
+                tiles.add(tile);
+                total += tile.count;
+                lastPodcastId = tile.ids[tile.count - 1];
+            }
+            if (total > maxCachedPodcasts) {
+                logger.info("Catalog exceeds {} podcasts; streaming it once per user tile", maxCachedPodcasts);
+                return null;
+            }
+            if (tile.count < podcastTileSize) {
+                return tiles;
+            }
+        }
+    }
+
+    private void load(String query, int afterId, Tile tile) {
+        Map<String, Object> parameters = new LinkedHashMap<>();
+        parameters.put("1", afterId);
+        parameters.put("2", tile.ids.length);
+        tile.count = 0;
+        sqlExecutorService.executeStreamingQueryAsync(query, parameters, 1000, row -> {
+            float[] vector = ((PGvector) row.getObject("embedding")).toArray();
+            if (vector.length != dimensions) {
+                throw new IllegalStateException("Expected " + dimensions + " dimensions but row "
+                    + row.getInt("id") + " has " + vector.length);
+            }
+            int offset = tile.count * dimensions;
+            System.arraycopy(vector, 0, tile.vectors, offset, dimensions);
+            tile.ids[tile.count] = row.getInt("id");
+            float squaredNorm = kernel.dot(tile.vectors, offset, tile.vectors, offset, dimensions);
+            if (cosine && squaredNorm > 0) {
+                // On unit vectors |u - p|^2 = 2 - 2 cos, so the same ranking gives cosine order
+                float scale = (float) (1 / Math.sqrt(squaredNorm));
+                for (int d = offset; d < offset + dimensions; d++) {
+                    tile.vectors[d] *= scale;
+                }
+                squaredNorm = 1f;
+            }
+            tile.squaredNorms[tile.count] = squaredNorm;
+            tile.count++;
+        }).join();
+    }
+
+    private void score(Tile users, Tile podcasts, TopKHeap[] heaps) {
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int from = 0; from < users.count; from += USER_BLOCK) {
+            int userStart = from;
+            int userEnd = Math.min(from + USER_BLOCK, users.count);
+            tasks.add(pool.submit(() -> scoreBlock(users, userStart, userEnd, podcasts, heaps)));
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+    }
+
+    // Ranks by |p|^2 - 2 u.p; |u|^2 is the same for every candidate of a user and added back on write
+    private void scoreBlock(Tile users, int userStart, int userEnd, Tile podcasts, TopKHeap[] heaps) {
+        float[] dots = new float[4];
+        float[] u = users.vectors;
+        float[] p = podcasts.vectors;
+        for (int podcastStart = 0; podcastStart < podcasts.count; podcastStart += PODCAST_BLOCK) {
+            int podcastEnd = Math.min(podcastStart + PODCAST_BLOCK, podcasts.count);
+            int user = userStart;
+            for (; user + 4 <= userEnd; user += 4) {
+                int a0 = user * dimensions;
+                for (int podcast = podcastStart; podcast < podcastEnd; podcast++) {
+                    kernel.dot4(u, a0, a0 + dimensions, a0 + 2 * dimensions, a0 + 3 * dimensions,
+                        p, podcast * dimensions, dimensions, dots);
+                    float norm = podcasts.squaredNorms[podcast];
+                    int id = podcasts.ids[podcast];
+                    heaps[user].offer(norm - 2 * dots[0], id);
+                    heaps[user + 1].offer(norm - 2 * dots[1], id);
+                    heaps[user + 2].offer(norm - 2 * dots[2], id);
+                    heaps[user + 3].offer(norm - 2 * dots[3], id);
+                }
+            }
+            for (; user < userEnd; user++) {
+                for (int podcast = podcastStart; podcast < podcastEnd; podcast++) {
+                    float dot = kernel.dot(u, user * dimensions, p, podcast * dimensions, dimensions);
+                    heaps[user].offer(podcasts.squaredNorms[podcast] - 2 * dot, podcasts.ids[podcast]);
+                }
+            }
+        }
+    }
+
+    private void write(Tile users, TopKHeap[] heaps, String computedAt) {
+        ByteArrayOutputStream rows = new ByteArrayOutputStream(users.count * k * 48);
+        StringBuilder line = new StringBuilder(64);
+        float[] scores = new float[k];
+        int[] podcastIds = new int[k];
+        for (int user = 0; user < users.count; user++) {
+            int count = heaps[user].drainSorted(scores, podcastIds);
+            for (int rank = 0; rank < count; rank++) {
+                // Same value as pgvector's <-> or <=> for the pair, so scores match the live search
+                float squaredDistance = Math.max(0f, users.squaredNorms[user] + scores[rank]);
+                double distance = cosine ? squaredDistance / 2 : Math.sqrt(squaredDistance);
+                line.setLength(0);
+                line.append(users.ids[user]).append('\t')
+                    .append(rank + 1).append('\t')
+                    .append(podcastIds[rank]).append('\t')
+                    .append((float) distance).append('\t')
+                    .append(computedAt).append('\n');
+                rows.writeBytes(line.toString().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        Map<String, Object> deleteParams = new LinkedHashMap<>();
+        deleteParams.put("1", Arrays.copyOf(users.ids, users.count));
+        byte[] data = rows.toByteArray();
+        sqlExecutorService.executeInTransactionAsync(transaction -> {
+            transaction.executeUpdate("DELETE FROM precomputed_recommendations WHERE user_id = ANY(?)", deleteParams);
+            return transaction.copyIn(
+                "COPY precomputed_recommendations (user_id, rank, podcast_id, distance, computed_at) FROM STDIN",
+                new ByteArrayInputStream(data));
+        }).join();
+    }
+
+    private String currentTimestamp() {
+        return sqlExecutorService.executeQueryAsync("SELECT localtimestamp::text AS now", null)
+            .join().get(0).get("now").toString();
+    }
+
+    /**
+     * Up to {@code capacity} embeddings as one row-major array, with ids and squared norms.
+     */
+    private static final class Tile {
+        final int[] ids;
+        final float[] vectors;
+        final float[] squaredNorms;
+        int count;
+
+        Tile(int capacity, int dimensions) {
+            this.ids = new int[capacity];
+            this.vectors = new float[capacity * dimensions];
+            this.squaredNorms = new float[capacity];
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.feedbackloops.services;
+
+import io.micrometer.core.instrument.Counter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides whether a read may be served by the read replica. A read goes to the primary when
+ * the replica failed recently, when its replication lag exceeds {@code maxStalenessMillis}, or
+ * when its consistency key (for example a user id) was written less than
+ * {@code readYourWritesMillis} ago or after the last point the replica is known to have
+ * replayed. The lag is measured by {@link SqlExecutorService} and reported here.
+ */
+public class ReplicaRouter {
+    private static final Logger logger = LoggerFactory.getLogger(ReplicaRouter.class);
+    // Reads stay on the primary this long after a replica error before the replica is tried again
+    private static final long FAILURE_BACKOFF_MILLIS = 5000;
+    // Writes are pruned once this many, or twice as many as were left by the last prune, are kept
+    private static final int MIN_PRUNE_SIZE = 1024;
+
+    private final long maxStalenessMillis;
+    private final long readYourWritesMillis;
+    private final Map<Object, Long> lastWriteMillis = new ConcurrentHashMap<>();
+    // Latest write forgotten before the replica replayed it; keyed reads stay on the primary
+    // until the replica is past it
+    private final AtomicLong forgottenWriteMillis = new AtomicLong(Long.MIN_VALUE);
+    private volatile int pruneSize = MIN_PRUNE_SIZE;
+    private final Counter replicaReads;
+    private final Counter primaryReads;
+    private final Counter fallbacks;
+
+    private volatile long lagMillis = Long.MAX_VALUE;
+    // Wall-clock time up to which the replica had replayed the primary's writes at the last poll
+    private volatile long replayedThroughMillis = Long.MIN_VALUE;
+    private volatile long unavailableUntilMillis;
+
+    /**
+     * @param maxStalenessMillis largest replication lag reads are served with, or {@code 0} for
+     *                           no bound
+     * @param readYourWritesMillis how long reads for a key stay on the primary after it is written
+     */
+    public ReplicaRouter(long maxStalenessMillis, long readYourWritesMillis) {
+        this.maxStalenessMillis = maxStalenessMillis;
+        this.readYourWritesMillis = readYourWritesMillis;
+        this.replicaReads = Metrics.counter("database.reads", "target", "replica");
+        this.primaryReads = Metrics.counter("database.reads", "target", "primary");
+        this.fallbacks = Metrics.counter("database.replica.fallbacks");
+        Metrics.gauge("database.replica.lag", "seconds", () -> lagMillis == Long.MAX_VALUE ? Double.NaN : lagMillis / 1000.0);
+    }
+
+    /**
+     * Whether a read for {@code consistencyKey}, which may be {@code null}, should go to the
+     * replica. Counts the decision.
+     */
+    public boolean useReplica(Object consistencyKey) {
+        boolean replica = isReplicaUsable() && !recentlyWritten(consistencyKey);
+        (replica ? replicaReads : primaryReads).increment();
+        return replica;
+    }
+
+    /**
+     * Sends reads for {@code consistencyKey} to the primary until the replica has caught up
+     * with this write.
+     */
+    public void recordWrite(Object consistencyKey) {
+        long now = System.currentTimeMillis();
+        lastWriteMillis.put(consistencyKey, now);
+        // Also pruned here, so the map stays bounded when lag polling stops
+        if (lastWriteMillis.size() >= pruneSize) {
+            prune(now);
+            pruneSize = Math.max(MIN_PRUNE_SIZE, 2 * lastWriteMillis.size());
+        }
+    }
+
+    /**
+     * Records a lag measurement taken at {@code measuredAtMillis}, and forgets writes that are
+     * past the read-your-writes window.
+     */
+    public void recordLag(long lagMillis, long measuredAtMillis) {
+        this.lagMillis = lagMillis;
+        this.replayedThroughMillis = measuredAtMillis - lagMillis;
+        prune(measuredAtMillis);
+    }
+
+    // Drops writes past the window, keeping the latest one the replica had not replayed yet
+    private void prune(long nowMillis) {
+        long cutoff = nowMillis - readYourWritesMillis;
+        long replayedThrough = replayedThroughMillis;
+        lastWriteMillis.values().removeIf(written -> {
+            if (written >= cutoff) {
+                return false;
+            }
+            if (written > replayedThrough) {
+                forgottenWriteMillis.accumulateAndGet(written, Math::max);
+            }
+            return true;
+        });
+    }
+
+    public void recordFailure(Exception e) {
+        if (System.currentTimeMillis() >= unavailableUntilMillis) {
+            logger.warn("Read replica failed; reading from the primary for {} ms", FAILURE_BACKOFF_MILLIS, e);
+        }
+        unavailableUntilMillis = System.currentTimeMillis() + FAILURE_BACKOFF_MILLIS;
+        lagMillis = Long.MAX_VALUE;
+    }
+
+    public void recordFallback() {
+        fallbacks.increment();
+    }
+
+    private boolean isReplicaUsable() {
+        long lag = lagMillis;
+        return System.currentTimeMillis() >= unavailableUntilMillis
+            && lag != Long.MAX_VALUE
+            && (maxStalenessMillis <= 0 || lag <= maxStalenessMillis);
+    }
+
+    private boolean recentlyWritten(Object consistencyKey) {
+        if (consistencyKey == null) {
+            return false;
+        }
+        long replayedThrough = replayedThroughMillis;
+        if (forgottenWriteMillis.get() > replayedThrough) {
+            return true;
+        }
+        Long written = lastWriteMillis.get(consistencyKey);
+        return written != null
+            && (System.currentTimeMillis() - written < readYourWritesMillis || written > replayedThrough);
+    }
+}
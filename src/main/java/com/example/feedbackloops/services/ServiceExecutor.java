@@ -0,0 +1,151 @@
+package com.example.feedbackloops.services;
+
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs blocking service calls (JDBC, OpenAI HTTP) off the common ForkJoinPool. Each instance
+ * caps how many of its calls run at once, so a slow dependency cannot take every thread and
+ * database calls never wait longer in the pool than they would on a Hikari connection.
+ *
+ * <p>Calls over the cap wait in this instance's own queue and are only handed to the shared
+ * executor once a permit is free, so a saturated service never holds threads that another
+ * service's calls could run on.
+ */
+public class ServiceExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(ServiceExecutor.class);
+
+    private final ExecutorService executor;
+    private final int maxConcurrency;
+    private final Timer permitWaitTimer;
+    private final Timer threadWaitTimer;
+    // Guarded by this; each queued call starts with the permit of the call that finishes
+    private final Queue<Runnable> waiting = new ArrayDeque<>();
+    private int running;
+
+    public ServiceExecutor(ExecutorService executor, int maxConcurrency) {
+        this(executor, maxConcurrency, "default");
+    }
+
+    /**
+     * @param name tag for the wait timers and the available permits gauge
+     */
+    public ServiceExecutor(ExecutorService executor, int maxConcurrency, String name) {
+        this.executor = executor;
+        this.maxConcurrency = maxConcurrency;
+        // Waiting for a permit, e.g. a database connection slot, and then for a thread of the
+        // shared executor
+        this.permitWaitTimer = Metrics.timer("service.executor.wait", "executor", name, "phase", "permit");
+        this.threadWaitTimer = Metrics.timer("service.executor.wait", "executor", name, "phase", "thread");
+        Metrics.gauge("service.executor.available.permits", null, this::getAvailablePermits, "executor", name);
+    }
+
+    public <T> CompletableFuture<T> supplyAsync(Supplier<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        long submitted = System.nanoTime();
+        acquire(() -> {
+            long admitted = System.nanoTime();
+            permitWaitTimer.record(admitted - submitted, TimeUnit.NANOSECONDS);
+            try {
+                executor.execute(() -> {
+                    threadWaitTimer.record(System.nanoTime() - admitted, TimeUnit.NANOSECONDS);
+                    T value = null;
+                    Throwable failure = null;
+                    try {
+                        value = task.get();
+                    } catch (Throwable e) {
+                        failure = e;
+                    } finally {
+                        release();
+                    }
+                    // Completed only after the permit is back, so dependent stages that run
+                    // on this thread (e.g. building the vector index) never hold it
+                    if (failure != null) {
+                        // Same exception shape as CompletableFuture.supplyAsync
+                        result.completeExceptionally(failure instanceof CompletionException ? failure : new CompletionException(failure));
+                    } else {
+                        result.complete(value);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                release();
+                result.completeExceptionally(new CompletionException(e));
+            }
+        });
+        return result;
+    }
+
+    // Runs start now when a permit is free, otherwise when a running call releases one
+    private void acquire(Runnable start) {
+        synchronized (this) {
+            if (running >= maxConcurrency) {
+                waiting.add(start);
+                return;
+            }
+            running++;
+        }
+        start.run();
+    }
+
+    private void release() {
+        Runnable next;
+        synchronized (this) {
+            next = waiting.poll();
+            if (next == null) {
+                running--;
+                return;
+            }
+        }
+        next.run();
+    }
+
+    public CompletableFuture<Void> runAsync(Runnable task) {
+        return supplyAsync(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    public synchronized int getAvailablePermits() {
+        return maxConcurrency - running;
+    }
+
+    /**
+     * Creates the shared executor for blocking calls. {@code "virtual"} uses a virtual thread
+     * per task when running on Java 21 or later and otherwise falls back to a fixed pool of
+     * {@code platformThreads} daemon threads.
+     */
+    public static ExecutorService newExecutorService(String model, int platformThreads) {
+        if ("virtual".equalsIgnoreCase(model)) {
+            try {
+                // Looked up reflectively so the same build runs on Java 17 and 21
+                ExecutorService executor = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+                logger.info("Using virtual threads for blocking service calls");
+                return executor;
+            } catch (ReflectiveOperationException e) {
+                logger.warn("Virtual threads require Java 21, falling back to {} platform threads", platformThreads);
+            }
+        }
+
+        AtomicInteger threadCount = new AtomicInteger();
+        return Executors.newFixedThreadPool(platformThreads, runnable -> {
+            Thread thread = new Thread(runnable, "service-call-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
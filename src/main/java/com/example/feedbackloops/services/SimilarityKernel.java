@@ -0,0 +1,69 @@
+package com.example.feedbackloops.services;
+
+import org.slf4j.LoggerFactory;
+
+/**
+ * Dot products over row-major float matrices, the inner loop of the batch top-k job. The SIMD
+ * implementation is only built with the {@code vector} Maven profile and needs the
+ * {@code jdk.incubator.vector} module at runtime ({@code --add-modules jdk.incubator.vector});
+ * otherwise the scalar loops are used.
+ */
+public interface SimilarityKernel {
+
+    /**
+     * Dot products of the four rows of {@code a} starting at {@code a0..a3} with the row of
+     * {@code b} starting at {@code bOffset}, written to {@code out[0..3]}. Loading each element
+     * of {@code b} once for four rows keeps the loop bound by arithmetic instead of memory.
+     */
+    void dot4(float[] a, int a0, int a1, int a2, int a3, float[] b, int bOffset, int dimensions, float[] out);
+
+    float dot(float[] a, int aOffset, float[] b, int bOffset, int dimensions);
+
+    String name();
+
+    static SimilarityKernel create() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return (SimilarityKernel) Class.forName("com.example.feedbackloops.services.VectorSimilarityKernel")
+                    .getDeclaredConstructor().newInstance();
+            } catch (ClassNotFoundException e) {
+                LoggerFactory.getLogger(SimilarityKernel.class).info("Built without the vector profile, using scalar kernel");
+            } catch (ReflectiveOperationException | LinkageError e) {
+                LoggerFactory.getLogger(SimilarityKernel.class).warn("Vector API unavailable, using scalar kernel", e);
+            }
+        }
+        return new Scalar();
+    }
+
+    final class Scalar implements SimilarityKernel {
+        @Override
+        public void dot4(float[] a, int a0, int a1, int a2, int a3, float[] b, int bOffset, int dimensions, float[] out) {
+            float sum0 = 0f, sum1 = 0f, sum2 = 0f, sum3 = 0f;
+            for (int d = 0; d < dimensions; d++) {
+                float value = b[bOffset + d];
+                sum0 += a[a0 + d] * value;
+                sum1 += a[a1 + d] * value;
+                sum2 += a[a2 + d] * value;
+                sum3 += a[a3 + d] * value;
+            }
+            out[0] = sum0;
+            out[1] = sum1;
+            out[2] = sum2;
+            out[3] = sum3;
+        }
+
+        @Override
+        public float dot(float[] a, int aOffset, float[] b, int bOffset, int dimensions) {
+            float sum = 0f;
+            for (int d = 0; d < dimensions; d++) {
+                sum += a[aOffset + d] * b[bOffset + d];
+            }
+            return sum;
+        }
+
+        @Override
+        public String name() {
+            return "scalar";
+        }
+    }
+}
@@ -1,138 +1,617 @@
 package com.example.feedbackloops.services;
 
+import com.example.feedbackloops.models.Embedding;
 import com.pgvector.PGvector;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import org.postgresql.PGConnection;
+import org.postgresql.PGStatement;
+import org.postgresql.core.BaseConnection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.sql.*;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
 
 public class SqlExecutorService {
     private static final Logger logger = LoggerFactory.getLogger(SqlExecutorService.class);
+    private static final long REPLICA_LAG_POLL_MILLIS = 1000;
+    // Zero when the replica has replayed everything it received (or is not a standby), so an
+    // idle primary does not look like growing lag
+    private static final String REPLICA_LAG_QUERY = """
+        SELECT CASE
+            WHEN NOT pg_is_in_recovery() OR pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0
+            ELSE COALESCE(EXTRACT(EPOCH FROM clock_timestamp() - pg_last_xact_replay_timestamp()) * 1000, 0)
+        END::bigint AS lag_millis
+        """;
     
-    private final HikariDataSource dataSource;
+    private final Lazy<HikariDataSource> dataSource;
+    // Physical connections that already have the vector type registered
+    private final Set<BaseConnection> preparedConnections = Collections.synchronizedSet(
+        Collections.newSetFromMap(new WeakHashMap<>()));
+    
+    private final ExecutorService executorService;
+    private final ServiceExecutor executor;
+    private final Lazy<HikariDataSource> replicaDataSource;
+    private final ServiceExecutor replicaExecutor;
+    private final ReplicaRouter replicaRouter;
+    private final ScheduledExecutorService replicaLagPoller;
+    // Statements registered with hotQuery(), matched by their exact text
+    private final Set<String> hotQueries = ConcurrentHashMap.newKeySet();
+    private final int hotQueryPrepareThreshold;
     
     public SqlExecutorService(String connectionString) {
+        this(connectionString, 10, ServiceExecutor.newExecutorService("platform", 10));
+    }
+    
+    public SqlExecutorService(String connectionString, int maxPoolSize, ExecutorService executorService) {
+        this(connectionString, maxPoolSize, executorService, 1);
+    }
+    
+    /**
+     * @param hotQueryPrepareThreshold executions on a connection after which a statement
+     *                                 registered with {@link #hotQuery} uses a server-side
+     *                                 prepared statement, or {@code 0} to never prepare them
+     */
+    public SqlExecutorService(String connectionString, int maxPoolSize, ExecutorService executorService,
+                              int hotQueryPrepareThreshold) {
+        this(connectionString, maxPoolSize, executorService, hotQueryPrepareThreshold, null, 0, null);
+    }
+    
+    /**
+     * @param replicaConnectionString read replica for the {@code executeRead*} methods, or
+     *                                {@code null} to run every statement on the primary
+     * @param replicaMaxPoolSize size of the replica's own pool
+     * @param replicaRouter decides per read whether the replica is fresh enough
+     */
+    public SqlExecutorService(String connectionString, int maxPoolSize, ExecutorService executorService,
+                              int hotQueryPrepareThreshold, String replicaConnectionString, int replicaMaxPoolSize,
+                              ReplicaRouter replicaRouter) {
+        HikariConfig config = poolConfig("primary", connectionString, maxPoolSize);
+        
+        // Opening the pool costs a TLS handshake and login, so it happens on first use or in
+        // the background via startAsync() rather than in the constructor
+        this.dataSource = Lazy.of("database-pool", () -> openPool(config));
+        this.executorService = executorService;
+        this.hotQueryPrepareThreshold = hotQueryPrepareThreshold;
+        // At most one in-flight statement per pooled connection; extra callers queue here
+        // instead of timing out inside Hikari
+        this.executor = new ServiceExecutor(executorService, maxPoolSize, "database");
+        
+        if (replicaConnectionString == null || replicaConnectionString.isEmpty()) {
+            this.replicaDataSource = null;
+            this.replicaExecutor = null;
+            this.replicaRouter = null;
+            this.replicaLagPoller = null;
+            return;
+        }
+        HikariConfig replicaConfig = poolConfig("replica", replicaConnectionString, replicaMaxPoolSize);
+        // An unreachable replica must fail fast so reads fall back to the primary, and must not
+        // keep the pool from opening once it is back
+        replicaConfig.setConnectionTimeout(2000);
+        replicaConfig.setInitializationFailTimeout(-1);
+        this.replicaDataSource = Lazy.of("replica-pool", () -> openPool(replicaConfig));
+        this.replicaExecutor = new ServiceExecutor(executorService, replicaMaxPoolSize, "database-replica");
+        this.replicaRouter = replicaRouter;
+        this.replicaLagPoller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "replica-lag");
+            thread.setDaemon(true);
+            return thread;
+        });
+        replicaLagPoller.scheduleWithFixedDelay(this::pollReplicaLag, 0, REPLICA_LAG_POLL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+    
+    private static HikariConfig poolConfig(String name, String connectionString, int maxPoolSize) {
         HikariConfig config = new HikariConfig();
+        config.setPoolName(name);
         config.setJdbcUrl(connectionString);
-        config.setMaximumPoolSize(10);
+        config.setMaximumPoolSize(maxPoolSize);
         config.setMinimumIdle(2);
         config.setConnectionTimeout(30000);
         config.setIdleTimeout(600000);
         config.setMaxLifetime(1800000);
-        
-        this.dataSource = new HikariDataSource(config);
-        
-        // Register PGvector types with a connection
-        try (Connection connection = this.dataSource.getConnection()) {
-            PGvector.addVectorType(connection);
+        // Lets the driver collapse JDBC insert batches into multi-row INSERT statements
+        config.addDataSourceProperty("reWriteBatchedInserts", "true");
+        // Pool gauges (active, idle, pending) and connection acquire/usage timers
+        config.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(Metrics.registry()));
+        return config;
+    }
+    
+    private HikariDataSource openPool(HikariConfig config) {
+        HikariDataSource pool = new HikariDataSource(config);
+        try (Connection ignored = prepare(pool.getConnection())) {
+            logger.info("Registered PGvector types on the {} pool", config.getPoolName());
         } catch (SQLException e) {
-            logger.error("Failed to register PGvector types", e);
+            logger.error("Failed to register PGvector types on the {} pool", config.getPoolName(), e);
+        }
+        return pool;
+    }
+    
+    /**
+     * Opens the connection pools in the background so they are ready by the first query.
+     */
+    public CompletableFuture<?> startAsync() {
+        if (replicaDataSource != null) {
+            replicaDataSource.startAsync(executorService);
         }
+        return dataSource.startAsync(executorService);
+    }
+    
+    public boolean hasReadReplica() {
+        return replicaDataSource != null;
+    }
+    
+    /**
+     * Sends reads for {@code consistencyKey} to the primary until the replica has replayed
+     * this write, so callers see their own changes. A no-op without a replica.
+     */
+    public void recordWrite(Object consistencyKey) {
+        if (replicaRouter != null) {
+            replicaRouter.recordWrite(consistencyKey);
+        }
+    }
+    
+    /**
+     * Registers a statement that runs on most requests and returns it unchanged, so callers can
+     * keep it in a field. The driver parses and plans other statements on the server on every
+     * execution until it has seen them five times on a connection; hot queries are prepared
+     * from their first execution instead, and later executions on that connection reuse the
+     * server-side statement from the driver's per-connection cache and only send parameters.
+     * The text must be identical on every call, so values that vary belong in parameters.
+     */
+    public String hotQuery(String sqlQuery) {
+        hotQueries.add(sqlQuery);
+        return sqlQuery;
+    }
+    
+    private PreparedStatement prepareStatement(Connection connection, String sqlQuery) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(sqlQuery);
+        if (hotQueries.contains(sqlQuery)) {
+            statement.unwrap(PGStatement.class).setPrepareThreshold(hotQueryPrepareThreshold);
+        }
+        return statement;
+    }
+    
+    private Connection getConnection() throws SQLException {
+        return prepare(dataSource.get().getConnection());
+    }
+    
+    // Type registration is per physical connection, so it runs the first time each pooled
+    // connection is borrowed. Vectors are also switched to the binary wire format there, which
+    // avoids formatting and parsing 1536 floats as text on every round trip.
+    private Connection prepare(Connection connection) throws SQLException {
+        BaseConnection pgConnection = connection.unwrap(BaseConnection.class);
+        if (!preparedConnections.contains(pgConnection)) {
+            PGvector.addVectorType(connection);
+            int vectorOid = pgConnection.getTypeInfo().getPGType("vector");
+            if (vectorOid != 0) {
+                pgConnection.getQueryExecutor().addBinarySendOid(vectorOid);
+                pgConnection.getQueryExecutor().addBinaryReceiveOid(vectorOid);
+            }
+            preparedConnections.add(pgConnection);
+        }
+        return connection;
     }
     
     public CompletableFuture<List<Map<String, Object>>> executeQueryAsync(String sqlQuery, Map<String, Object> parameters) {
-        return CompletableFuture.supplyAsync(() -> {
-            List<Map<String, Object>> result = new ArrayList<>();
+        return executor.supplyAsync(() -> {
+            try (Connection connection = getConnection()) {
+                return query(connection, sqlQuery, parameters);
+            } catch (SQLException e) {
+                logger.error("Error executing query: " + sqlQuery, e);
+                throw new RuntimeException("Database query failed", e);
+            }
+        });
+    }
+    
+    /**
+     * Runs {@code work} on a single connection inside one transaction. The transaction is
+     * committed when {@code work} returns and rolled back if it throws.
+     */
+    public <T> CompletableFuture<T> executeInTransactionAsync(TransactionCallback<T> work) {
+        return executor.supplyAsync(() -> {
+            try (Connection connection = getConnection()) {
+                return inTransaction(connection, work);
+            } catch (SQLException e) {
+                logger.error("Error executing transaction", e);
+                throw new RuntimeException("Database transaction failed", e);
+            }
+        });
+    }
+    
+    /**
+     * Runs {@code work} on a single connection in autocommit mode: each statement commits on
+     * its own, but session state such as advisory locks lasts until {@code work} returns. For
+     * statements that cannot run inside a transaction, like {@code CREATE INDEX CONCURRENTLY}.
+     */
+    public <T> CompletableFuture<T> executeInSessionAsync(TransactionCallback<T> work) {
+        return executor.supplyAsync(() -> {
+            try (Connection connection = getConnection()) {
+                return work.execute(new Transaction(this, connection));
+            } catch (SQLException e) {
+                logger.error("Error executing session", e);
+                throw new RuntimeException("Database session failed", e);
+            }
+        });
+    }
+    
+    private <T> T inTransaction(Connection connection, TransactionCallback<T> work) throws SQLException {
+        connection.setAutoCommit(false);
+        try {
+            T result = work.execute(new Transaction(this, connection));
+            connection.commit();
+            return result;
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+    
+    /**
+     * Read-only variant of {@link #executeQueryAsync} that runs on the read replica when there
+     * is one and the {@link ReplicaRouter} allows it for {@code consistencyKey}, which may be
+     * {@code null}. Falls back to the primary when the replica fails.
+     */
+    public CompletableFuture<List<Map<String, Object>>> executeReadQueryAsync(String sqlQuery, Map<String, Object> parameters,
+                                                                              Object consistencyKey) {
+        return read(consistencyKey, connection -> query(connection, sqlQuery, parameters), "query: " + sqlQuery);
+    }
+    
+    /**
+     * Read-only variant of {@link #executeInTransactionAsync}, routed like
+     * {@link #executeReadQueryAsync}. {@code work} must not write.
+     */
+    public <T> CompletableFuture<T> executeReadInTransactionAsync(Object consistencyKey, TransactionCallback<T> work) {
+        return read(consistencyKey, connection -> inTransaction(connection, work), "read transaction");
+    }
+    
+    private <T> CompletableFuture<T> read(Object consistencyKey, ConnectionCallback<T> work, String description) {
+        return read(consistencyKey, work, description, () -> true);
+    }
+    
+    private <T> CompletableFuture<T> read(Object consistencyKey, ConnectionCallback<T> work, String description,
+                                          BooleanSupplier canFallBack) {
+        if (replicaDataSource == null || !replicaRouter.useReplica(consistencyKey)) {
+            return onPrimary(work, description);
+        }
+        
+        CompletableFuture<T> replica = replicaExecutor.supplyAsync(() -> {
+            try (Connection connection = prepare(replicaDataSource.get().getConnection())) {
+                return work.execute(connection);
+            } catch (SQLException | IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+        return replica.exceptionallyCompose(e -> {
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (isReplicaFailure(cause)) {
+                replicaRouter.recordFailure(cause instanceof Exception exception ? exception : new RuntimeException(cause));
+            }
+            if (!canFallBack.getAsBoolean()) {
+                logger.error("Error executing " + description + " on the read replica", cause);
+                return CompletableFuture.failedFuture(new RuntimeException("Database query failed", cause));
+            }
+            replicaRouter.recordFallback();
+            return onPrimary(work, description);
+        });
+    }
+    
+    private <T> CompletableFuture<T> onPrimary(ConnectionCallback<T> work, String description) {
+        return executor.supplyAsync(() -> {
+            try (Connection connection = getConnection()) {
+                return work.execute(connection);
+            } catch (SQLException | IOException e) {
+                logger.error("Error executing " + description, e);
+                throw new RuntimeException("Database query failed", e);
+            }
+        });
+    }
+    
+    // Failures of the replica rather than of the statement or the caller: lost connections,
+    // shutdowns, resource limits, queries cancelled by WAL replay, and pool timeouts
+    private static boolean isReplicaFailure(Throwable e) {
+        if (!(e instanceof SQLException sqlException)) {
+            return false;
+        }
+        String state = sqlException.getSQLState();
+        return state == null || state.startsWith("08") || state.startsWith("53") || state.startsWith("57")
+            || "40001".equals(state);
+    }
+    
+    private void pollReplicaLag() {
+        try (Connection connection = replicaDataSource.get().getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(REPLICA_LAG_QUERY)) {
+            resultSet.next();
+            replicaRouter.recordLag(resultSet.getLong("lag_millis"), System.currentTimeMillis());
+        } catch (SQLException | RuntimeException e) {
+            replicaRouter.recordFailure(e);
+        }
+    }
+    
+    /**
+     * Passes each row of the result set to {@code rowHandler} as it is read instead of building
+     * a list, and returns the number of rows handled. The driver only honours the fetch size
+     * inside a transaction, so the statement runs with auto-commit disabled.
+     */
+    public CompletableFuture<Integer> executeStreamingQueryAsync(String sqlQuery, Map<String, Object> parameters,
+                                                                 int fetchSize, RowHandler rowHandler) {
+        return executor.supplyAsync(() -> {
+            try (Connection connection = getConnection()) {
+                return stream(connection, sqlQuery, parameters, fetchSize, rowHandler);
+            } catch (SQLException | IOException e) {
+                logger.error("Error executing streaming query: " + sqlQuery, e);
+                throw new RuntimeException("Database query failed", e);
+            }
+        });
+    }
+    
+    /**
+     * Read-only variant of {@link #executeStreamingQueryAsync}, routed like
+     * {@link #executeReadQueryAsync}. It only falls back to the primary while no row has been
+     * handled yet, so {@code rowHandler} never sees a row twice.
+     */
+    public CompletableFuture<Integer> executeReadStreamingQueryAsync(String sqlQuery, Map<String, Object> parameters,
+                                                                     int fetchSize, RowHandler rowHandler,
+                                                                     Object consistencyKey) {
+        int[] handled = new int[1];
+        RowHandler countingHandler = row -> {
+            rowHandler.handle(row);
+            handled[0]++;
+        };
+        return read(consistencyKey, connection -> stream(connection, sqlQuery, parameters, fetchSize, countingHandler),
+            "streaming query: " + sqlQuery, () -> handled[0] == 0);
+    }
+    
+    private int stream(Connection connection, String sqlQuery, Map<String, Object> parameters, int fetchSize,
+                       RowHandler rowHandler) throws SQLException, IOException {
+        int rowCount = 0;
+        long start = System.nanoTime();
+        
+        connection.setAutoCommit(false);
+        try (PreparedStatement statement = prepareStatement(connection, sqlQuery)) {
+            statement.setFetchSize(fetchSize);
+            setParameters(statement, parameters);
             
-            try (Connection connection = dataSource.getConnection();
-                 PreparedStatement statement = connection.prepareStatement(sqlQuery)) {
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    rowHandler.handle(resultSet);
+                    rowCount++;
+                }
+            }
+            connection.commit();
+        } catch (SQLException | IOException e) {
+            Metrics.recordSql(sqlQuery, "error", start);
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+        
+        Metrics.recordSql(sqlQuery, "success", start);
+        return rowCount;
+    }
+    
+    public CompletableFuture<Integer> executeUpdateAsync(String sqlQuery, Map<String, Object> parameters) {
+        return executor.supplyAsync(() -> {
+            try (Connection connection = getConnection()) {
+                return update(connection, sqlQuery, parameters);
+            } catch (SQLException e) {
+                logger.error("Error executing update: " + sqlQuery, e);
+                throw new RuntimeException("Database update failed", e);
+            }
+        });
+    }
+    
+    public CompletableFuture<List<Integer>> executeBatchInsertAsync(String sqlQuery, List<Map<String, Object>> parameterRows) {
+        return executor.supplyAsync(() -> {
+            List<Integer> generatedIds = new ArrayList<>(parameterRows.size());
+            long start = System.nanoTime();
+            
+            try (Connection connection = getConnection();
+                 PreparedStatement statement = connection.prepareStatement(sqlQuery, new String[] {"id"})) {
                 
-                // Set parameters
-                if (parameters != null) {
-                    int paramIndex = 1;
-                    for (Map.Entry<String, Object> entry : parameters.entrySet()) {
-                        Object value = entry.getValue();
-                        if (value instanceof List<?>) {
-                            // Handle vector/embedding parameters
-                            @SuppressWarnings("unchecked")
-                            List<Float> embedding = (List<Float>) value;
-                            float[] floatArray = new float[embedding.size()];
-                            for (int i = 0; i < embedding.size(); i++) {
-                                floatArray[i] = embedding.get(i);
-                            }
-                            PGvector vector = new PGvector(floatArray);
-                            statement.setObject(paramIndex++, vector);
-                        } else {
-                            statement.setObject(paramIndex++, value);
-                        }
-                    }
+                for (Map<String, Object> parameters : parameterRows) {
+                    setParameters(statement, parameters);
+                    statement.addBatch();
                 }
+                statement.executeBatch();
                 
-                try (ResultSet resultSet = statement.executeQuery()) {
-                    ResultSetMetaData metaData = resultSet.getMetaData();
-                    int columnCount = metaData.getColumnCount();
-                    
-                    while (resultSet.next()) {
-                        Map<String, Object> row = new HashMap<>();
-                        for (int i = 1; i <= columnCount; i++) {
-                            String columnName = metaData.getColumnLabel(i);
-                            String columnType = metaData.getColumnTypeName(i);
-                            
-                            if ("vector".equals(columnType)) {
-                                // Handle pgvector columns
-                                PGvector vector = (PGvector) resultSet.getObject(i);
-                                if (vector != null) {
-                                    row.put(columnName, vector);
-                                } else {
-                                    row.put(columnName, null);
-                                }
-                            } else {
-                                row.put(columnName, resultSet.getObject(i));
-                            }
-                        }
-                        result.add(row);
+                try (ResultSet keys = statement.getGeneratedKeys()) {
+                    while (keys.next()) {
+                        generatedIds.add(keys.getInt(1));
                     }
                 }
             } catch (SQLException e) {
-                logger.error("Error executing query: " + sqlQuery, e);
-                throw new RuntimeException("Database query failed", e);
+                Metrics.recordSql(sqlQuery, "error", start);
+                logger.error("Error executing batch insert: " + sqlQuery, e);
+                throw new RuntimeException("Database batch insert failed", e);
             }
             
-            return result;
+            Metrics.recordSql(sqlQuery, "success", start);
+            return generatedIds;
         });
     }
     
-    public CompletableFuture<Integer> executeUpdateAsync(String sqlQuery, Map<String, Object> parameters) {
-        return CompletableFuture.supplyAsync(() -> {
-            try (Connection connection = dataSource.getConnection();
-                 PreparedStatement statement = connection.prepareStatement(sqlQuery)) {
+    /**
+     * Runs {@code sqlQuery} once per parameter row as one JDBC batch and returns the update
+     * count of each row.
+     */
+    public CompletableFuture<int[]> executeBatchUpdateAsync(String sqlQuery, List<Map<String, Object>> parameterRows) {
+        return executor.supplyAsync(() -> {
+            long start = System.nanoTime();
+            
+            try (Connection connection = getConnection();
+                 PreparedStatement statement = prepareStatement(connection, sqlQuery)) {
                 
-                // Set parameters
-                if (parameters != null) {
-                    int paramIndex = 1;
-                    for (Map.Entry<String, Object> entry : parameters.entrySet()) {
-                        Object value = entry.getValue();
-                        if (value instanceof List<?>) {
-                            // Handle vector/embedding parameters
-                            @SuppressWarnings("unchecked")
-                            List<Float> embedding = (List<Float>) value;
-                            float[] floatArray = new float[embedding.size()];
-                            for (int i = 0; i < embedding.size(); i++) {
-                                floatArray[i] = embedding.get(i);
-                            }
-                            PGvector vector = new PGvector(floatArray);
-                            statement.setObject(paramIndex++, vector);
-                        } else {
-                            statement.setObject(paramIndex++, value);
-                        }
-                    }
+                for (Map<String, Object> parameters : parameterRows) {
+                    setParameters(statement, parameters);
+                    statement.addBatch();
                 }
-                
-                return statement.executeUpdate();
+                int[] updated = statement.executeBatch();
+                Metrics.recordSql(sqlQuery, "success", start);
+                return updated;
             } catch (SQLException e) {
-                logger.error("Error executing update: " + sqlQuery, e);
-                throw new RuntimeException("Database update failed", e);
+                Metrics.recordSql(sqlQuery, "error", start);
+                logger.error("Error executing batch update: " + sqlQuery, e);
+                throw new RuntimeException("Database batch update failed", e);
             }
         });
     }
     
+    private List<Map<String, Object>> query(Connection connection, String sqlQuery, Map<String, Object> parameters) throws SQLException {
+        List<Map<String, Object>> result = new ArrayList<>();
+        long start = System.nanoTime();
+        
+        try (PreparedStatement statement = prepareStatement(connection, sqlQuery)) {
+            setParameters(statement, parameters);
+            
+            try (ResultSet resultSet = statement.executeQuery()) {
+                ResultSetMetaData metaData = resultSet.getMetaData();
+                
+                while (resultSet.next()) {
+                    result.add(mapRow(resultSet, metaData));
+                }
+            }
+        } catch (SQLException e) {
+            Metrics.recordSql(sqlQuery, "error", start);
+            throw e;
+        }
+        
+        Metrics.recordSql(sqlQuery, "success", start);
+        return result;
+    }
+    
+    // Package-private so the benchmarks module can measure row mapping without a database
+    static Map<String, Object> mapRow(ResultSet resultSet, ResultSetMetaData metaData) throws SQLException {
+        int columnCount = metaData.getColumnCount();
+        Map<String, Object> row = new HashMap<>();
+        for (int i = 1; i <= columnCount; i++) {
+            String columnName = metaData.getColumnLabel(i);
+            String columnType = metaData.getColumnTypeName(i);
+            
+            if ("vector".equals(columnType)) {
+                // Handle pgvector columns; the float[] is shared, not copied
+                PGvector vector = (PGvector) resultSet.getObject(i);
+                if (vector != null) {
+                    row.put(columnName, new Embedding(vector.toArray()));
+                } else {
+                    row.put(columnName, null);
+                }
+            } else {
+                row.put(columnName, resultSet.getObject(i));
+            }
+        }
+        return row;
+    }
+    
+    private int update(Connection connection, String sqlQuery, Map<String, Object> parameters) throws SQLException {
+        long start = System.nanoTime();
+        try (PreparedStatement statement = prepareStatement(connection, sqlQuery)) {
+            setParameters(statement, parameters);
+            int updated = statement.executeUpdate();
+            Metrics.recordSql(sqlQuery, "success", start);
+            return updated;
+        } catch (SQLException e) {
+            Metrics.recordSql(sqlQuery, "error", start);
+            throw e;
+        }
+    }
+    
+    static void setParameters(PreparedStatement statement, Map<String, Object> parameters) throws SQLException {
+        if (parameters == null) {
+            return;
+        }
+        
+        int paramIndex = 1;
+        for (Map.Entry<String, Object> entry : parameters.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof Embedding) {
+                // Handle vector/embedding parameters; PGvector wraps the array without copying
+                statement.setObject(paramIndex++, new PGvector(((Embedding) value).toArray()));
+            } else if (value instanceof float[]) {
+                statement.setObject(paramIndex++, new PGvector((float[]) value));
+            } else {
+                statement.setObject(paramIndex++, value);
+            }
+        }
+    }
+    
+    /**
+     * Statements issued through a {@link Transaction} share its connection, so row locks taken
+     * with {@code SELECT ... FOR UPDATE} are held until the transaction ends. The handle passed
+     * by {@link #executeInSessionAsync} shares a connection the same way, in autocommit mode.
+     */
+    public static class Transaction {
+        private final SqlExecutorService sqlExecutorService;
+        private final Connection connection;
+        
+        private Transaction(SqlExecutorService sqlExecutorService, Connection connection) {
+            this.sqlExecutorService = sqlExecutorService;
+            this.connection = connection;
+        }
+        
+        public List<Map<String, Object>> executeQuery(String sqlQuery, Map<String, Object> parameters) throws SQLException {
+            return sqlExecutorService.query(connection, sqlQuery, parameters);
+        }
+        
+        public int executeUpdate(String sqlQuery, Map<String, Object> parameters) throws SQLException {
+            return sqlExecutorService.update(connection, sqlQuery, parameters);
+        }
+        
+        /**
+         * Streams {@code data} to a {@code COPY ... FROM STDIN} statement and returns the number
+         * of rows copied. Much cheaper than batched inserts for bulk writes.
+         */
+        public long copyIn(String copySql, InputStream data) throws SQLException {
+            long start = System.nanoTime();
+            try {
+                long rows = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(copySql, data);
+                Metrics.recordSql(copySql, "success", start);
+                return rows;
+            } catch (SQLException | IOException e) {
+                Metrics.recordSql(copySql, "error", start);
+                throw e instanceof SQLException sqlException ? sqlException : new SQLException("COPY failed", e);
+            }
+        }
+    }
+    
+    @FunctionalInterface
+    public interface TransactionCallback<T> {
+        T execute(Transaction transaction) throws SQLException;
+    }
+    
+    @FunctionalInterface
+    public interface RowHandler {
+        void handle(ResultSet row) throws SQLException, IOException;
+    }
+    
+    @FunctionalInterface
+    private interface ConnectionCallback<T> {
+        T execute(Connection connection) throws SQLException, IOException;
+    }
+    
     public void close() {
-        if (dataSource != null && !dataSource.isClosed()) {
-            dataSource.close();
+        if (dataSource.isInitialized() && !dataSource.get().isClosed()) {
+            dataSource.get().close();
+        }
+        if (replicaDataSource != null) {
+            replicaLagPoller.shutdownNow();
+            if (replicaDataSource.isInitialized() && !replicaDataSource.get().isClosed()) {
+                replicaDataSource.get().close();
+            }
         }
     }
 }
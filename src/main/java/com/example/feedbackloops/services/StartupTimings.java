@@ -0,0 +1,40 @@
+package com.example.feedbackloops.services;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durations of the cold start phases: JVM start until the function class is initialized, and
+ * each client or pool built by a {@link Lazy}. Phases also go to the {@code startup.phase}
+ * timer, so they can be compared across instances and deployments.
+ */
+public final class StartupTimings {
+    private static final Map<String, Long> phases = new ConcurrentSkipListMap<>();
+
+    private StartupTimings() {}
+
+    public static void record(String phase, long nanos) {
+        phases.merge(phase, nanos, Long::sum);
+        Metrics.timer("startup.phase", "phase", phase).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records the time since the JVM started as {@code phase}.
+     */
+    public static void recordSinceJvmStart(String phase) {
+        record(phase, TimeUnit.MILLISECONDS.toNanos(ManagementFactory.getRuntimeMXBean().getUptime()));
+    }
+
+    /**
+     * One line with every phase recorded so far, e.g.
+     * {@code class-init=420 ms, database-pool=1310 ms, openai-client=380 ms}.
+     */
+    public static String report() {
+        StringJoiner report = new StringJoiner(", ");
+        phases.forEach((phase, nanos) -> report.add(phase + "=" + TimeUnit.NANOSECONDS.toMillis(nanos) + " ms"));
+        return report.toString();
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.feedbackloops.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps {@code suggested_podcasts} partitioned by month on {@code suggested_at}: creates the
+ * partitions of the coming months and drops the ones past the retention period.
+ *
+ * <p>A recommendation replaces the user's earlier rows for the podcasts it suggests with rows
+ * stamped with the current time, so a podcast that is suggested again moves to the current
+ * month's partition. An expired partition therefore only holds suggestions that were not
+ * repeated since, and dropping it replaces deleting its rows and vacuuming after them.
+ */
+public class SuggestedPodcastsPartitionManager {
+    private static final Logger logger = LoggerFactory.getLogger(SuggestedPodcastsPartitionManager.class);
+    private static final String TABLE = "suggested_podcasts";
+    private static final String DEFAULT_PARTITION = "suggested_podcasts_default";
+    private static final Pattern PARTITION_NAME = Pattern.compile("suggested_podcasts_p(\\d{6})");
+    private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.ofPattern("yyyyMM");
+    // Partitions are created this many months ahead, so a few missed runs never send inserts
+    // to the default partition
+    private static final int MONTHS_AHEAD = 2;
+
+    private final SqlExecutorService sqlExecutorService;
+    private final int retentionDays;
+
+    /**
+     * @param retentionDays age after which suggestions that were not repeated are dropped, or
+     *                      {@code 0} to keep them
+     */
+    public SuggestedPodcastsPartitionManager(SqlExecutorService sqlExecutorService, int retentionDays) {
+        this.sqlExecutorService = sqlExecutorService;
+        this.retentionDays = retentionDays;
+    }
+
+    /**
+     * Creates missing partitions up to {@link #MONTHS_AHEAD} months ahead and drops partitions
+     * that ended more than the retention period ago. Does nothing until
+     * {@code data/migrations/007_partition_suggested_podcasts.sql} is applied, or while another
+     * instance holds the lock for the same work.
+     *
+     * <p>Runs as one transaction on the database executor, so a failure leaves the partitions
+     * as they were.
+     */
+    public CompletableFuture<Void> maintainAsync() {
+        return sqlExecutorService.executeInTransactionAsync(transaction -> {
+            Map<String, Object> database = transaction.executeQuery("""
+                SELECT c.relkind::text AS kind, to_char(localtimestamp, 'YYYY-MM-DD') AS today,
+                       pg_try_advisory_xact_lock(hashtext('suggested_podcasts_partitions')) AS locked
+                FROM pg_class c
+                WHERE c.oid = 'suggested_podcasts'::regclass
+                """, null).get(0);
+            if (!"p".equals(database.get("kind"))) {
+                logger.info("{} is not partitioned yet; see data/migrations/007_partition_suggested_podcasts.sql", TABLE);
+                return null;
+            }
+            if (!Boolean.TRUE.equals(database.get("locked"))) {
+                logger.info("Another instance is maintaining the {} partitions", TABLE);
+                return null;
+            }
+            LocalDate today = LocalDate.parse(database.get("today").toString());
+
+            TreeSet<LocalDate> partitions = partitions(transaction);
+            LocalDate currentMonth = today.withDayOfMonth(1);
+            for (int i = 0; i <= MONTHS_AHEAD; i++) {
+                LocalDate month = currentMonth.plusMonths(i);
+                if (!partitions.contains(month)) {
+                    createPartition(transaction, month);
+                }
+            }
+
+            if (retentionDays > 0) {
+                LocalDate cutoff = today.minusDays(retentionDays);
+                for (LocalDate month : partitions) {
+                    if (!month.plusMonths(1).isAfter(cutoff)) {
+                        // Takes an exclusive lock on suggested_podcasts until the job commits,
+                        // which only waits for the catalog changes after it
+                        transaction.executeUpdate("DROP TABLE IF EXISTS " + partitionName(month), null);
+                        logger.info("Dropped expired partition {}", partitionName(month));
+                    }
+                }
+                transaction.executeUpdate("DELETE FROM " + DEFAULT_PARTITION + " WHERE suggested_at < '" + cutoff + "'", null);
+            }
+            return null;
+        });
+    }
+
+    private TreeSet<LocalDate> partitions(SqlExecutorService.Transaction transaction) throws SQLException {
+        List<Map<String, Object>> rows = transaction.executeQuery("""
+            SELECT c.relname AS name
+            FROM pg_inherits i
+            JOIN pg_class c ON c.oid = i.inhrelid
+            WHERE i.inhparent = 'suggested_podcasts'::regclass
+            """, null);
+
+        TreeSet<LocalDate> months = new TreeSet<>();
+        for (Map<String, Object> row : rows) {
+            Matcher matcher = PARTITION_NAME.matcher(row.get("name").toString());
+            if (matcher.matches()) {
+                months.add(LocalDate.parse(matcher.group(1) + "01", DateTimeFormatter.BASIC_ISO_DATE));
+            }
+        }
+        return months;
+    }
+
+    // Rows that reached the default partition while no partition covered them are moved into
+    // the new one; attaching it would fail otherwise
+    private void createPartition(SqlExecutorService.Transaction transaction, LocalDate month) throws SQLException {
+        String name = partitionName(month);
+        String from = "'" + month + "'";
+        String to = "'" + month.plusMonths(1) + "'";
+        transaction.executeUpdate("CREATE TABLE " + name + " (LIKE " + TABLE + " INCLUDING DEFAULTS INCLUDING CONSTRAINTS)", null);
+        int moved = transaction.executeUpdate("WITH moved AS (DELETE FROM " + DEFAULT_PARTITION
+            + " WHERE suggested_at >= " + from + " AND suggested_at < " + to + " RETURNING *) "
+            + "INSERT INTO " + name + " SELECT * FROM moved", null);
+        transaction.executeUpdate("ALTER TABLE " + TABLE + " ATTACH PARTITION " + name
+            + " FOR VALUES FROM (" + from + ") TO (" + to + ")", null);
+        logger.info("Created partition {} ({} rows moved from {})", name, moved, DEFAULT_PARTITION);
+    }
+
+    private static String partitionName(LocalDate month) {
+        return TABLE + "_p" + month.format(PARTITION_SUFFIX);
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.feedbackloops.services;
+
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingType;
+import com.knuddels.jtokkit.api.IntArrayList;
+
+/**
+ * Local cl100k_base tokenizer (the encoding used by gpt-4 and text-embedding-ada-002), so token
+ * budgets can be enforced without a network call.
+ */
+public final class TokenCounter {
+    private static final Encoding ENCODING = Encodings.newLazyEncodingRegistry().getEncoding(EncodingType.CL100K_BASE);
+
+    private TokenCounter() {}
+
+    public static int count(String text) {
+        return ENCODING.countTokensOrdinary(text);
+    }
+
+    public static IntArrayList encode(String text) {
+        return ENCODING.encodeOrdinary(text);
+    }
+
+    public static String decode(IntArrayList tokens, int fromIndex, int toIndex) {
+        IntArrayList slice = new IntArrayList(toIndex - fromIndex);
+        for (int i = fromIndex; i < toIndex; i++) {
+            slice.add(tokens.get(i));
+        }
+        return ENCODING.decode(slice);
+    }
+
+    /**
+     * Returns the nearest index at or before {@code index} where {@code tokens} can be cut
+     * between characters. cl100k_base splits many characters outside ASCII, like CJK and emoji,
+     * over several byte-level tokens, and a cut between those decodes to U+FFFD on both sides.
+     */
+    public static int characterBoundary(IntArrayList tokens, int index) {
+        // A UTF-8 character has at most three continuation bytes, so this steps back at most three tokens
+        int boundary = index;
+        while (boundary > 0 && boundary < tokens.size() && startsInsideCharacter(tokens.get(boundary))) {
+            boundary--;
+        }
+        return boundary;
+    }
+
+    private static boolean startsInsideCharacter(int token) {
+        IntArrayList single = new IntArrayList(1);
+        single.add(token);
+        byte[] bytes = ENCODING.decodeBytes(single);
+        return bytes.length > 0 && (bytes[0] & 0xC0) == 0x80;
+    }
+}
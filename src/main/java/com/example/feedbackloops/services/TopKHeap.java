@@ -0,0 +1,78 @@
+package com.example.feedbackloops.services;
+
+/**
+ * Bounded max-heap of the {@code k} smallest scores seen, on primitive arrays so the batch
+ * job allocates nothing per candidate. Not thread safe; each user's heap is only touched by
+ * the task that owns the user.
+ */
+final class TopKHeap {
+    private final float[] scores;
+    private final int[] ids;
+    private int size;
+
+    TopKHeap(int k) {
+        this.scores = new float[k];
+        this.ids = new int[k];
+    }
+
+    void offer(float score, int id) {
+        if (size < scores.length) {
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (scores[parent] >= score) {
+                    break;
+                }
+                scores[i] = scores[parent];
+                ids[i] = ids[parent];
+                i = parent;
+            }
+            scores[i] = score;
+            ids[i] = id;
+        } else if (score < scores[0]) {
+            siftDown(score, id, size);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Empties the heap into {@code outScores} and {@code outIds} in ascending score order and
+     * returns the number of entries.
+     */
+    int drainSorted(float[] outScores, int[] outIds) {
+        int count = size;
+        for (int last = count - 1; last >= 0; last--) {
+            outScores[last] = scores[0];
+            outIds[last] = ids[0];
+            siftDown(scores[last], ids[last], last);
+        }
+        size = 0;
+        return count;
+    }
+
+    private void siftDown(float score, int id, int heapSize) {
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && scores[child + 1] > scores[child]) {
+                child++;
+            }
+            if (scores[child] <= score) {
+                break;
+            }
+            scores[i] = scores[child];
+            ids[i] = ids[child];
+            i = child;
+        }
+        if (heapSize > 0) {
+            scores[i] = score;
+            ids[i] = id;
+        }
+    }
+}
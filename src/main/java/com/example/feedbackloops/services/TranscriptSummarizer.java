@@ -0,0 +1,96 @@
+package com.example.feedbackloops.services;
+
+import com.knuddels.jtokkit.api.IntArrayList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Summarizes podcast transcripts. Transcripts that fit in one chunk are summarized with a
+ * single prompt; longer ones are split on token boundaries between characters, the chunks are
+ * summarized in parallel (map) and the partial summaries are merged in a final pass (reduce).
+ */
+public class TranscriptSummarizer {
+    private static final Logger logger = LoggerFactory.getLogger(TranscriptSummarizer.class);
+
+    private final ChatCompletionService chatCompletionService;
+    private final int chunkTokens;
+    private final int overlapTokens;
+    private final int parallelism;
+
+    public TranscriptSummarizer(ChatCompletionService chatCompletionService, int chunkTokens, int overlapTokens, int parallelism) {
+        if (overlapTokens >= chunkTokens) {
+            throw new IllegalArgumentException("Chunk overlap must be smaller than the chunk size");
+        }
+        this.chatCompletionService = chatCompletionService;
+        this.chunkTokens = chunkTokens;
+        this.overlapTokens = overlapTokens;
+        this.parallelism = parallelism;
+    }
+
+    public CompletableFuture<String> summarizeAsync(String transcript) {
+        IntArrayList tokens = TokenCounter.encode(transcript);
+        if (tokens.size() <= chunkTokens) {
+            String summaryPrompt = String.format("Summarize the following podcast transcript:\n%s\nSummary:", transcript);
+            return chatCompletionService.getChatCompletionAsync(summaryPrompt);
+        }
+
+        List<String> chunks = split(tokens);
+        logger.info("Summarizing transcript of {} tokens in {} chunks", tokens.size(), chunks.size());
+
+        List<Integer> chunkIndexes = new ArrayList<>(chunks.size());
+        for (int i = 0; i < chunks.size(); i++) {
+            chunkIndexes.add(i);
+        }
+
+        return BoundedFanOut.map(chunkIndexes, parallelism, i -> {
+                String chunkPrompt = String.format(
+                    "Summarize part %d of %d of the following podcast transcript:\n%s\nSummary:",
+                    i + 1, chunks.size(), chunks.get(i));
+                return chatCompletionService.getChatCompletionAsync(chunkPrompt);
+            })
+            .thenCompose(this::reduceAsync);
+    }
+
+    private CompletableFuture<String> reduceAsync(List<String> partialSummaries) {
+        StringBuilder joined = new StringBuilder();
+        for (int i = 0; i < partialSummaries.size(); i++) {
+            joined.append("Part ").append(i + 1).append(": ").append(partialSummaries.get(i)).append('\n');
+        }
+
+        // Very long episodes can produce more partial summary text than fits in one prompt,
+        // in which case the partial summaries are themselves summarized again
+        if (TokenCounter.count(joined.toString()) > chunkTokens) {
+            return summarizeAsync(joined.toString());
+        }
+
+        String reducePrompt = String.format(
+            "The following are summaries of consecutive parts of one podcast transcript. " +
+            "Combine them into a single summary of the whole episode:\n%s\nSummary:", joined);
+        return chatCompletionService.getChatCompletionAsync(reducePrompt);
+    }
+
+    // Both ends of a chunk are moved back to a character boundary, so no chunk starts or ends
+    // with part of a multi-byte character
+    private List<String> split(IntArrayList tokens) {
+        List<String> chunks = new ArrayList<>();
+        int start = 0;
+        while (true) {
+            int end = Math.min(start + chunkTokens, tokens.size());
+            int cut = TokenCounter.characterBoundary(tokens, end);
+            if (cut > start) {
+                end = cut;
+            }
+            chunks.add(TokenCounter.decode(tokens, start, end));
+            if (end == tokens.size()) {
+                break;
+            }
+            int next = TokenCounter.characterBoundary(tokens, end - overlapTokens);
+            start = next > start ? next : end;
+        }
+        return chunks;
+    }
+}
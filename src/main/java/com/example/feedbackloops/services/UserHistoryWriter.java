@@ -0,0 +1,304 @@
+package com.example.feedbackloops.services;
+
+import com.example.feedbackloops.models.Embedding;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+/**
+ * Write-behind queue for listening history updates. Updates are held per user, and a newer
+ * update replaces a pending one, so a burst for one user costs a single embedding and a single
+ * {@code UPDATE}. A user's update is written once no newer one has arrived for
+ * {@code debounceMillis}, but never later than {@code maxDelayMillis} after the first pending
+ * one. Due updates are embedded in one multi-input call and written in one JDBC batch.
+ *
+ * <p>Batches are written one at a time on a single thread, so an older update can never land
+ * after a newer one for the same user. Pending updates live only in memory; {@link #close}
+ * writes them out when the JVM shuts down cleanly, and fails the futures of any it could not.
+ */
+public class UserHistoryWriter {
+    private static final Logger logger = LoggerFactory.getLogger(UserHistoryWriter.class);
+    private static final String UPDATE_QUERY =
+        "UPDATE users SET listening_history = ?, embedding = ?, embedding_updated_at = clock_timestamp() WHERE id = ?";
+    private static final long RETRY_DELAY_MILLIS = 1000;
+
+    private final EmbeddingService embeddingService;
+    private final SqlExecutorService sqlExecutorService;
+    private final long debounceNanos;
+    private final long maxDelayNanos;
+    private final int maxBatchSize;
+    private final int maxAttempts;
+    private final IntConsumer onWritten;
+    private final ScheduledExecutorService scheduler;
+    private final Counter coalescedCounter;
+    private final Counter droppedCounter;
+    private final Timer lagTimer;
+
+    // Guarded by this; insertion order approximates due order for the batch scan
+    private final Map<Integer, PendingUpdate> pending = new LinkedHashMap<>();
+    private final Map<Integer, PendingUpdate> inFlight = new HashMap<>();
+    private ScheduledFuture<?> scheduledFlush;
+    private long scheduledFlushNanos;
+    private boolean closed;
+
+    /**
+     * @param maxAttempts writes of a batch before its updates are dropped
+     * @param onWritten called with each user id once its update is stored
+     */
+    public UserHistoryWriter(EmbeddingService embeddingService, SqlExecutorService sqlExecutorService,
+                             long debounceMillis, long maxDelayMillis, int maxBatchSize, int maxAttempts,
+                             IntConsumer onWritten) {
+        this.embeddingService = embeddingService;
+        this.sqlExecutorService = sqlExecutorService;
+        this.debounceNanos = TimeUnit.MILLISECONDS.toNanos(debounceMillis);
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(debounceMillis, maxDelayMillis));
+        this.maxBatchSize = maxBatchSize;
+        this.maxAttempts = maxAttempts;
+        this.onWritten = onWritten;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "user-history-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.coalescedCounter = Metrics.counter("user.history.coalesced");
+        this.droppedCounter = Metrics.counter("user.history.dropped");
+        this.lagTimer = Metrics.timer("user.history.write.lag");
+        Metrics.gauge("user.history.queue.depth", null, this::getQueueDepth);
+    }
+
+    /**
+     * Queues {@code listeningHistory} for the user, replacing any update not yet written. The
+     * returned future completes when this update, or a newer one for the same user, is stored.
+     *
+     * @throws IllegalStateException once the writer is closed, so callers can write synchronously
+     */
+    public CompletableFuture<Void> submit(int userId, String listeningHistory) {
+        long now = System.nanoTime();
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Listening history writer is closed");
+            }
+            PendingUpdate update = pending.get(userId);
+            if (update == null) {
+                update = new PendingUpdate(userId, now);
+                pending.put(userId, update);
+            } else {
+                coalescedCounter.increment();
+            }
+            update.listeningHistory = listeningHistory;
+            update.dueNanos = Math.min(now + debounceNanos, update.firstSubmittedNanos + maxDelayNanos);
+            schedule(update.dueNanos);
+            return update.written;
+        }
+    }
+
+    /**
+     * Writes the user's pending update now instead of after the debounce, for reads that must
+     * see it. The returned future completes when nothing older than this call is left unwritten.
+     */
+    public CompletableFuture<Void> flushUserAsync(int userId) {
+        synchronized (this) {
+            PendingUpdate update = pending.get(userId);
+            if (update != null) {
+                update.dueNanos = System.nanoTime();
+                schedule(update.dueNanos);
+                return update.written;
+            }
+            update = inFlight.get(userId);
+            return update != null ? update.written : CompletableFuture.completedFuture(null);
+        }
+    }
+
+    public synchronized int getQueueDepth() {
+        return pending.size() + inFlight.size();
+    }
+
+    /**
+     * Stops accepting updates and writes everything pending, waiting at most
+     * {@code timeoutMillis}. Returns the number of updates that could not be written; their
+     * futures complete with an {@link IllegalStateException}. Later calls return {@code 0}.
+     */
+    public int close(long timeoutMillis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        int lost;
+        synchronized (this) {
+            if (closed) {
+                return 0;
+            }
+            closed = true;
+            long now = System.nanoTime();
+            for (PendingUpdate update : pending.values()) {
+                update.dueNanos = now;
+            }
+            if (!pending.isEmpty()) {
+                schedule(now);
+            }
+            while (getQueueDepth() > 0 && System.nanoTime() < deadline) {
+                try {
+                    wait(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            // Counted at the deadline: a batch the shutdown interrupts is failed by requeue()
+            // and would otherwise be gone from the queue, and from the count, by the next block
+            lost = getQueueDepth();
+        }
+
+        scheduler.shutdownNow();
+        synchronized (this) {
+            // A batch still in flight may yet be stored, but nobody waits for it past this point
+            IllegalStateException notWritten = new IllegalStateException("Listening history writer closed before the update was written");
+            for (PendingUpdate update : pending.values()) {
+                update.written.completeExceptionally(notWritten);
+            }
+            for (PendingUpdate update : inFlight.values()) {
+                update.written.completeExceptionally(notWritten);
+            }
+            pending.clear();
+        }
+        if (lost > 0) {
+            logger.error("Shut down with {} listening history updates not written", lost);
+        } else {
+            logger.info("Listening history updates written before shutdown");
+        }
+        return lost;
+    }
+
+    // Must be called while holding the lock
+    private void schedule(long dueNanos) {
+        if (scheduler.isShutdown() || (scheduledFlush != null && scheduledFlushNanos <= dueNanos)) {
+            return;
+        }
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+        }
+        scheduledFlushNanos = dueNanos;
+        scheduledFlush = scheduler.schedule(this::flush, Math.max(0, dueNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    private void flush() {
+        List<PendingUpdate> batch = new ArrayList<>();
+        synchronized (this) {
+            scheduledFlush = null;
+            long now = System.nanoTime();
+            Iterator<PendingUpdate> iterator = pending.values().iterator();
+            while (iterator.hasNext() && batch.size() < maxBatchSize) {
+                PendingUpdate update = iterator.next();
+                if (update.dueNanos <= now) {
+                    iterator.remove();
+                    inFlight.put(update.userId, update);
+                    batch.add(update);
+                }
+            }
+        }
+
+        boolean written = batch.isEmpty() || write(batch);
+
+        synchronized (this) {
+            for (PendingUpdate update : batch) {
+                inFlight.remove(update.userId);
+                if (!written) {
+                    requeue(update);
+                }
+            }
+            long next = Long.MAX_VALUE;
+            for (PendingUpdate update : pending.values()) {
+                next = Math.min(next, update.dueNanos);
+            }
+            if (next != Long.MAX_VALUE) {
+                schedule(next);
+            }
+            notifyAll();
+        }
+    }
+
+    private boolean write(List<PendingUpdate> batch) {
+        List<String> histories = new ArrayList<>(batch.size());
+        for (PendingUpdate update : batch) {
+            histories.add(update.listeningHistory);
+        }
+
+        try {
+            List<Embedding> embeddings = embeddingService.getEmbeddingsAsync(histories).join();
+            List<Map<String, Object>> rows = new ArrayList<>(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                Map<String, Object> parameters = new LinkedHashMap<>();
+                parameters.put("1", histories.get(i));
+                parameters.put("2", embeddings.get(i));
+                parameters.put("3", batch.get(i).userId);
+                rows.add(parameters);
+            }
+            sqlExecutorService.executeBatchUpdateAsync(UPDATE_QUERY, rows).join();
+        } catch (Exception e) {
+            logger.warn("Writing {} listening history updates failed", batch.size(), e);
+            return false;
+        }
+
+        long now = System.nanoTime();
+        for (PendingUpdate update : batch) {
+            onWritten.accept(update.userId);
+            lagTimer.record(now - update.firstSubmittedNanos, TimeUnit.NANOSECONDS);
+            update.written.complete(null);
+        }
+        return true;
+    }
+
+    // Must be called while holding the lock. A newer update for the user supersedes this one.
+    private void requeue(PendingUpdate update) {
+        if (scheduler.isShutdown()) {
+            update.written.completeExceptionally(new IllegalStateException("Listening history writer closed before the update was written"));
+            return;
+        }
+        PendingUpdate newer = pending.get(update.userId);
+        if (newer != null) {
+            newer.written.whenComplete((ignored, e) -> {
+                if (e == null) {
+                    update.written.complete(null);
+                } else {
+                    update.written.completeExceptionally(e);
+                }
+            });
+            return;
+        }
+
+        if (++update.attempts >= maxAttempts) {
+            droppedCounter.increment();
+            logger.error("Dropping listening history update for user {} after {} attempts", update.userId, update.attempts);
+            update.written.completeExceptionally(
+                new IllegalStateException("Listening history update for user " + update.userId + " was not written"));
+            return;
+        }
+        update.dueNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RETRY_DELAY_MILLIS << (update.attempts - 1));
+        pending.put(update.userId, update);
+    }
+
+    private static final class PendingUpdate {
+        private final int userId;
+        private final long firstSubmittedNanos;
+        private final CompletableFuture<Void> written = new CompletableFuture<>();
+        private String listeningHistory;
+        private long dueNanos;
+        private int attempts;
+
+        PendingUpdate(int userId, long firstSubmittedNanos) {
+            this.userId = userId;
+            this.firstSubmittedNanos = firstSubmittedNanos;
+        }
+    }
+}
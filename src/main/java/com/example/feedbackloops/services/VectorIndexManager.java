@@ -0,0 +1,331 @@
+package com.example.feedbackloops.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Owns the pgvector ANN index on one embedding column: creates it, rebuilds it when its build
+ * parameters no longer match the configuration, and runs searches with the matching
+ * {@code hnsw.ef_search} or {@code ivfflat.probes}.
+ *
+ * <p>An index only serves {@code ORDER BY} on the operator of its opclass, so the distance
+ * operator used by callers comes from here as well. Indexes are built and dropped
+ * {@code CONCURRENTLY}; a rebuild creates the replacement before dropping the old index, so
+ * searches never fall back to a sequential scan while it runs. A session advisory lock per
+ * column keeps instances that start or run the nightly job together from building the same
+ * index twice.
+ */
+public class VectorIndexManager {
+    private static final Logger logger = LoggerFactory.getLogger(VectorIndexManager.class);
+    // pgvector's own default for hnsw.ef_search
+    private static final int DEFAULT_EF_SEARCH = 40;
+
+    public enum IndexType {
+        NONE, HNSW, IVFFLAT;
+
+        public static IndexType parse(String value) {
+            return value == null || value.isEmpty() ? NONE : valueOf(value.toUpperCase(Locale.ROOT));
+        }
+    }
+
+    public enum Metric {
+        L2("<->", "l2_ops"),
+        COSINE("<=>", "cosine_ops");
+
+        private final String operator;
+        private final String opclassSuffix;
+
+        Metric(String operator, String opclassSuffix) {
+            this.operator = operator;
+            this.opclassSuffix = opclassSuffix;
+        }
+
+        public String operator() {
+            return operator;
+        }
+
+        public static Metric parse(String value) {
+            return value == null || value.isEmpty() ? L2 : valueOf(value.toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private final SqlExecutorService sqlExecutorService;
+    private final String table;
+    private final String column;
+    private final String vectorType;
+    private final IndexType type;
+    private final Metric metric;
+    private final int m;
+    private final int efConstruction;
+    private final int lists;
+    private final int efSearch;
+    private final int probes;
+
+    /**
+     * @param vectorType {@code vector} or {@code halfvec}, the type of {@code column}
+     * @param lists IVFFlat lists, or {@code 0} to derive them from the row count
+     * @param efSearch HNSW candidate list size per search, or {@code 0} for the server default
+     * @param probes IVFFlat lists scanned per search, or {@code 0} for the server default
+     */
+    public VectorIndexManager(SqlExecutorService sqlExecutorService, String table, String column, String vectorType,
+                              IndexType type, Metric metric, int m, int efConstruction, int lists,
+                              int efSearch, int probes) {
+        this.sqlExecutorService = sqlExecutorService;
+        this.table = table;
+        this.column = column;
+        this.vectorType = vectorType;
+        this.type = type;
+        this.metric = metric;
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.lists = lists;
+        this.efSearch = efSearch;
+        this.probes = probes;
+    }
+
+    /**
+     * Operator to order by so the planner can use the index.
+     */
+    public String operator() {
+        return metric.operator();
+    }
+
+    public IndexType getType() {
+        return type;
+    }
+
+    public Metric getMetric() {
+        return metric;
+    }
+
+    public String indexName() {
+        return (table + "_" + column + "_" + type + "_" + metric + "_idx").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Creates the configured index, or rebuilds it when it is invalid or was built with other
+     * parameters, then drops indexes this class created for another type or metric. Does
+     * nothing when the index type is {@link IndexType#NONE}, or when another instance holds
+     * the lock for this column and is doing the same.
+     *
+     * <p>Runs on one database connection for the whole build, so it holds one slot of the
+     * database executor rather than a shared pool thread.
+     */
+    public CompletableFuture<Void> ensureIndexAsync() {
+        if (type == IndexType.NONE) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        Map<String, Object> lockParams = new LinkedHashMap<>();
+        lockParams.put("1", "vector_index:" + table + "." + column);
+        return sqlExecutorService.executeInSessionAsync(session -> {
+            if (!Boolean.TRUE.equals(session.executeQuery(
+                    "SELECT pg_try_advisory_lock(hashtext(?)) AS locked", lockParams).get(0).get("locked"))) {
+                logger.info("Another instance is maintaining the vector index on {}.{}", table, column);
+                return null;
+            }
+            try {
+                ensureIndex(session);
+            } finally {
+                session.executeQuery("SELECT pg_advisory_unlock(hashtext(?)) AS unlocked", lockParams);
+            }
+            return null;
+        });
+    }
+
+    private void ensureIndex(SqlExecutorService.Transaction session) throws SQLException {
+        Map<String, Object> params = new LinkedHashMap<>();
+        params.put("1", table);
+        List<Map<String, Object>> existing = session.executeQuery("""
+            SELECT c.relname AS name, i.indisvalid AS valid, array_to_string(c.reloptions, ',') AS options
+            FROM pg_index i
+            JOIN pg_class c ON c.oid = i.indexrelid
+            WHERE i.indrelid = ?::regclass
+            """, params);
+
+        Map<String, String> wanted = buildOptions(session);
+        if (wanted == null) {
+            logger.info("Not building {} yet: {} has no rows with an embedding", indexName(), table);
+            return;
+        }
+
+        Map<String, Object> current = null;
+        for (Map<String, Object> row : existing) {
+            if (indexName().equals(row.get("name"))) {
+                current = row;
+            }
+        }
+
+        if (current == null) {
+            createIndex(session, indexName(), wanted);
+        } else if (!Boolean.TRUE.equals(current.get("valid"))) {
+            // Left behind by an interrupted concurrent build; it is maintained but never used
+            session.executeUpdate("DROP INDEX CONCURRENTLY IF EXISTS " + indexName(), null);
+            createIndex(session, indexName(), wanted);
+        } else if (needsRebuild(parseOptions((String) current.get("options")), wanted)) {
+            String replacement = indexName() + "_new";
+            session.executeUpdate("DROP INDEX CONCURRENTLY IF EXISTS " + replacement, null);
+            createIndex(session, replacement, wanted);
+            session.executeUpdate("DROP INDEX CONCURRENTLY IF EXISTS " + indexName(), null);
+            session.executeUpdate("ALTER INDEX " + replacement + " RENAME TO " + indexName(), null);
+        }
+
+        for (Map<String, Object> row : existing) {
+            String name = (String) row.get("name");
+            if (!indexName().equals(name) && isManaged(name)) {
+                logger.info("Dropping vector index {} that no longer matches the configuration", name);
+                session.executeUpdate("DROP INDEX CONCURRENTLY IF EXISTS " + name, null);
+            }
+        }
+    }
+
+    /**
+     * Runs a nearest-neighbour query with this index's search parameter set for its transaction
+     * only. {@code limit} is the query's {@code LIMIT}: an HNSW scan returns at most
+     * {@code ef_search} rows, so the parameter is raised to it when needed.
+     */
+    public CompletableFuture<List<Map<String, Object>>> searchAsync(String sqlQuery, Map<String, Object> parameters, int limit) {
+        String setting = searchSetting(limit);
+        if (setting == null) {
+            return sqlExecutorService.executeQueryAsync(sqlQuery, parameters);
+        }
+
+        return sqlExecutorService.executeInTransactionAsync(transaction -> search(transaction, sqlQuery, parameters, limit));
+    }
+
+    /**
+     * {@link #searchAsync} inside a transaction the caller already holds, for searches that
+     * have to run after other statements of the same transaction.
+     */
+    public List<Map<String, Object>> search(SqlExecutorService.Transaction transaction, String sqlQuery,
+                                            Map<String, Object> parameters, int limit) throws SQLException {
+        String setting = searchSetting(limit);
+        if (setting != null) {
+            transaction.executeUpdate(setting, null);
+        }
+        return transaction.executeQuery(sqlQuery, parameters);
+    }
+
+    /**
+     * Read-only {@link #searchAsync} that may run on the read replica, which has the same
+     * indexes through physical replication. See {@link SqlExecutorService#executeReadQueryAsync}.
+     */
+    public CompletableFuture<List<Map<String, Object>>> searchReplicaAsync(String sqlQuery, Map<String, Object> parameters,
+                                                                           int limit, Object consistencyKey) {
+        String setting = searchSetting(limit);
+        if (setting == null) {
+            return sqlExecutorService.executeReadQueryAsync(sqlQuery, parameters, consistencyKey);
+        }
+
+        return sqlExecutorService.executeReadInTransactionAsync(consistencyKey, transaction -> {
+            transaction.executeUpdate(setting, null);
+            return transaction.executeQuery(sqlQuery, parameters);
+        });
+    }
+
+    // Settings cannot be bound as parameters, so the value is formatted into the statement
+    private String searchSetting(int limit) {
+        if (type == IndexType.HNSW && (efSearch > 0 || limit > DEFAULT_EF_SEARCH)) {
+            return "SET LOCAL hnsw.ef_search = " + Math.max(efSearch > 0 ? efSearch : DEFAULT_EF_SEARCH, limit);
+        }
+        if (type == IndexType.IVFFLAT && probes > 0) {
+            return "SET LOCAL ivfflat.probes = " + probes;
+        }
+        return null;
+    }
+
+    /**
+     * Build parameters as they appear in {@code pg_class.reloptions}, or {@code null} when an
+     * IVFFlat index should wait for data to train its lists on.
+     */
+    private Map<String, String> buildOptions(SqlExecutorService.Transaction session) throws SQLException {
+        Map<String, String> options = new LinkedHashMap<>();
+        if (type == IndexType.HNSW) {
+            options.put("m", String.valueOf(m));
+            options.put("ef_construction", String.valueOf(efConstruction));
+            return options;
+        }
+
+        int listCount = lists;
+        if (listCount <= 0) {
+            long rows = countRows(session);
+            if (rows == 0) {
+                return null;
+            }
+            // pgvector's guidance: rows / 1000 up to 1M rows, sqrt(rows) above
+            listCount = (int) Math.max(1, rows <= 1_000_000 ? rows / 1000 : Math.sqrt(rows));
+        }
+        options.put("lists", String.valueOf(listCount));
+        return options;
+    }
+
+    // Derived list counts drift with every insert, so only a twofold change triggers a rebuild
+    private boolean needsRebuild(Map<String, String> current, Map<String, String> wanted) {
+        if (type == IndexType.IVFFLAT && lists <= 0) {
+            String built = current.get("lists");
+            if (built == null) {
+                return true;
+            }
+            double ratio = Double.parseDouble(wanted.get("lists")) / Double.parseDouble(built);
+            return ratio >= 2 || ratio <= 0.5;
+        }
+        return !current.equals(wanted);
+    }
+
+    private void createIndex(SqlExecutorService.Transaction session, String name, Map<String, String> options)
+            throws SQLException {
+        StringBuilder with = new StringBuilder();
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            with.append(with.length() == 0 ? "" : ", ").append(option.getKey()).append(" = ").append(option.getValue());
+        }
+        String ddl = "CREATE INDEX CONCURRENTLY IF NOT EXISTS " + name + " ON " + table
+            + " USING " + type.name().toLowerCase(Locale.ROOT)
+            + " (" + column + " " + vectorType + "_" + metric.opclassSuffix + ") WITH (" + with + ")";
+
+        long start = System.nanoTime();
+        logger.info("Building vector index: {}", ddl);
+        session.executeUpdate(ddl, null);
+        logger.info("Built vector index {} in {} ms", name, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private boolean isManaged(String name) {
+        String prefix = (table + "_" + column + "_").toLowerCase(Locale.ROOT);
+        for (IndexType candidateType : IndexType.values()) {
+            for (Metric candidateMetric : Metric.values()) {
+                String candidate = (prefix + candidateType + "_" + candidateMetric + "_idx").toLowerCase(Locale.ROOT);
+                if (candidate.equals(name) || (candidate + "_new").equals(name)) {
+                    return candidateType != IndexType.NONE;
+                }
+            }
+        }
+        return false;
+    }
+
+    private long countRows(SqlExecutorService.Transaction session) throws SQLException {
+        return ((Number) session.executeQuery(
+            "SELECT count(*) AS n FROM " + table + " WHERE " + column + " IS NOT NULL", null)
+            .get(0).get("n")).longValue();
+    }
+
+    private static Map<String, String> parseOptions(String options) {
+        Map<String, String> parsed = new HashMap<>();
+        if (options == null || options.isEmpty()) {
+            return parsed;
+        }
+        for (String option : options.split(",")) {
+            int separator = option.indexOf('=');
+            if (separator > 0) {
+                parsed.put(option.substring(0, separator).trim(), option.substring(separator + 1).trim());
+            }
+        }
+        return parsed;
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.feedbackloops.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Order of the results, the cap on tasks in flight, and how a failing task ends the fan-out.
+ */
+class BoundedFanOutTest {
+
+    @Test
+    void resultsKeepTheInputOrderWhateverOrderTasksFinishIn() {
+        List<Integer> items = IntStream.range(0, 8).boxed().collect(Collectors.toList());
+
+        // Later items finish first
+        List<String> results = BoundedFanOut.map(items, 8, item -> CompletableFuture.supplyAsync(
+            () -> "result " + item, CompletableFuture.delayedExecutor(80 - 10L * item, TimeUnit.MILLISECONDS))).join();
+
+        assertEquals(items.stream().map(item -> "result " + item).collect(Collectors.toList()), results);
+    }
+
+    @Test
+    void atMostParallelismTasksAreInFlight() {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+
+        BoundedFanOut.map(IntStream.range(0, 20).boxed().collect(Collectors.toList()), 3, item -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            return CompletableFuture.supplyAsync(() -> {
+                inFlight.decrementAndGet();
+                return item;
+            }, CompletableFuture.delayedExecutor(10, TimeUnit.MILLISECONDS));
+        }).join();
+
+        assertEquals(3, maxInFlight.get());
+    }
+
+    @Test
+    void aFailedTaskFailsTheResultAndNoFurtherTasksStart() {
+        RuntimeException failure = new IllegalStateException("description failed");
+        List<Integer> started = new ArrayList<>();
+
+        CompletableFuture<List<Integer>> result = BoundedFanOut.map(List.of(0, 1, 2, 3), 1, item -> {
+            started.add(item);
+            return item == 1 ? CompletableFuture.failedFuture(failure) : CompletableFuture.completedFuture(item);
+        });
+
+        assertSame(failure, assertThrows(CompletionException.class, result::join).getCause());
+        assertEquals(List.of(0, 1), started);
+    }
+
+    @Test
+    void aTaskThrowingInsteadOfReturningAFutureFailsTheResult() {
+        RuntimeException failure = new IllegalArgumentException("bad item");
+
+        CompletableFuture<List<Integer>> result = BoundedFanOut.map(List.of(0, 1), 2, item -> {
+            throw failure;
+        });
+
+        assertSame(failure, assertThrows(CompletionException.class, result::join).getCause());
+    }
+
+    @Test
+    void anEmptyInputCompletesAtOnce() {
+        CompletableFuture<List<Object>> result = BoundedFanOut.map(List.of(), 4, item -> new CompletableFuture<>());
+
+        assertTrue(result.isDone());
+        assertEquals(List.of(), result.join());
+    }
+
+    @Test
+    void manyTasksThatCompleteSynchronouslyDoNotOverflowTheStack() {
+        List<Integer> items = IntStream.range(0, 100_000).boxed().collect(Collectors.toList());
+
+        List<Integer> results = BoundedFanOut.map(items, 1, CompletableFuture::completedFuture).join();
+
+        assertEquals(items, results);
+    }
+}
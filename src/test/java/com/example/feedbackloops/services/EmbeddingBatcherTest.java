@@ -0,0 +1,104 @@
+package com.example.feedbackloops.services;
+
+import com.example.feedbackloops.models.Embedding;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Concurrent requests against an embedding deployment stub that takes {@link #LATENCY_MILLIS}
+ * per call and serves one call at a time: batched, they finish in about one call's latency,
+ * one call per text they take the sum of all latencies.
+ */
+class EmbeddingBatcherTest {
+    private static final long LATENCY_MILLIS = 50;
+    private static final int REQUESTS = 20;
+
+    @BeforeAll
+    static void loadTokenizer() {
+        // The batcher counts tokens on submit; loading the encoding is not part of the timing
+        TokenCounter.count("warm up");
+    }
+
+    @Test
+    void batchedRequestsFinishInAboutOneCallLatency() {
+        LatencyStub stub = new LatencyStub(10, REQUESTS);
+
+        long elapsedMillis = runConcurrently(stub);
+
+        assertEquals(1, stub.calls.get());
+        assertTrue(elapsedMillis < 3 * LATENCY_MILLIS, "took " + elapsedMillis + " ms");
+    }
+
+    @Test
+    void unbatchedRequestsTakeTheSumOfTheirLatencies() {
+        LatencyStub stub = new LatencyStub(0, 1);
+
+        long elapsedMillis = runConcurrently(stub);
+
+        assertEquals(REQUESTS, stub.calls.get());
+        assertTrue(elapsedMillis >= REQUESTS * LATENCY_MILLIS, "took " + elapsedMillis + " ms");
+    }
+
+    @Test
+    void eachCallerGetsTheEmbeddingOfItsOwnInput() {
+        LatencyStub stub = new LatencyStub(10, REQUESTS);
+        List<CompletableFuture<Embedding>> futures = new ArrayList<>();
+        for (int i = 0; i < REQUESTS; i++) {
+            futures.add(stub.getEmbeddingAsync("text " + i));
+        }
+
+        for (int i = 0; i < REQUESTS; i++) {
+            assertArrayEquals(LatencyStub.vectorFor("text " + i), futures.get(i).join().toArray());
+        }
+    }
+
+    // Milliseconds until all of REQUESTS concurrent calls have an embedding
+    private static long runConcurrently(LatencyStub stub) {
+        long start = System.nanoTime();
+        List<CompletableFuture<Embedding>> futures = new ArrayList<>();
+        for (int i = 0; i < REQUESTS; i++) {
+            futures.add(stub.getEmbeddingAsync("text " + i));
+        }
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    private static final class LatencyStub extends EmbeddingService {
+        private final AtomicInteger calls = new AtomicInteger();
+
+        LatencyStub(long batchWindowMillis, int maxBatchSize) {
+            super(() -> null, "stub", null, batchWindowMillis, maxBatchSize, 8000,
+                new ServiceExecutor(ServiceExecutor.newExecutorService("platform", 4), 1, "embedding-test"),
+                OpenAIRateLimiter.retryOnly("stub"));
+        }
+
+        @Override
+        protected List<Embedding> fetchEmbeddings(List<String> inputs) {
+            calls.incrementAndGet();
+            try {
+                Thread.sleep(LATENCY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+            List<Embedding> embeddings = new ArrayList<>(inputs.size());
+            for (String input : inputs) {
+                embeddings.add(new Embedding(vectorFor(input)));
+            }
+            return embeddings;
+        }
+
+        static float[] vectorFor(String input) {
+            return new float[] {input.hashCode(), input.length()};
+        }
+    }
+}
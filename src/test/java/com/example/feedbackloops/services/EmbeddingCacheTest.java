@@ -0,0 +1,138 @@
+package com.example.feedbackloops.services;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Keys, the disk tier a new instance reads after a cold start, its probing on collisions, and
+ * slots left half written by a crash.
+ */
+class EmbeddingCacheTest {
+    private static final int DIMENSIONS = 4;
+    private static final int KEY_BYTES = 32;
+
+    private Path file;
+
+    @BeforeEach
+    void createFile() throws IOException {
+        file = Files.createTempFile("embedding-cache", ".bin");
+    }
+
+    @AfterEach
+    void deleteFile() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    void inputsDifferingOnlyInWhitespaceShareAnEntry() {
+        EmbeddingCache cache = new EmbeddingCache(16);
+        cache.put("embeddings", "  a podcast\n about   caching ", vector(1));
+
+        assertArrayEquals(vector(1), cache.get("embeddings", "a podcast about caching"));
+        assertNull(cache.get("other-deployment", "a podcast about caching"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    void memoryTierEvictsTheLeastRecentlyUsedEntry() {
+        EmbeddingCache cache = new EmbeddingCache(2);
+        cache.put("embeddings", "first", vector(1));
+        cache.put("embeddings", "second", vector(2));
+        cache.get("embeddings", "first");
+        cache.put("embeddings", "third", vector(3));
+
+        assertNotNull(cache.get("embeddings", "first"));
+        assertNull(cache.get("embeddings", "second"));
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    void aNewInstanceReadsEntriesFromTheDiskTier() {
+        EmbeddingCache writer = new EmbeddingCache(16, file, 64, DIMENSIONS);
+        writer.put("embeddings", "cold start", vector(7));
+
+        EmbeddingCache reader = new EmbeddingCache(16, file, 64, DIMENSIONS);
+
+        assertArrayEquals(vector(7), reader.get("embeddings", "cold start"));
+        assertEquals(1, reader.getDiskHitCount());
+        // Promoted to the memory tier
+        assertEquals(1, reader.size());
+    }
+
+    @Test
+    void collidingEntriesAreFoundByProbing() {
+        // Every key probes all four slots, so four entries fill the table whatever their hashes
+        EmbeddingCache writer = new EmbeddingCache(16, file, 4, DIMENSIONS);
+        for (int i = 0; i < 4; i++) {
+            writer.put("embeddings", "input " + i, vector(i));
+        }
+
+        EmbeddingCache reader = new EmbeddingCache(16, file, 4, DIMENSIONS);
+        for (int i = 0; i < 4; i++) {
+            assertArrayEquals(vector(i), reader.get("embeddings", "input " + i));
+        }
+        assertEquals(4, reader.getDiskHitCount());
+    }
+
+    @Test
+    void aFullProbeSequenceOverwritesTheHomeSlot() {
+        EmbeddingCache writer = new EmbeddingCache(16, file, 4, DIMENSIONS);
+        for (int i = 0; i < 5; i++) {
+            writer.put("embeddings", "input " + i, vector(i));
+        }
+
+        EmbeddingCache reader = new EmbeddingCache(16, file, 4, DIMENSIONS);
+        int found = 0;
+        for (int i = 0; i < 5; i++) {
+            if (reader.get("embeddings", "input " + i) != null) {
+                found++;
+            }
+        }
+        assertArrayEquals(vector(4), reader.get("embeddings", "input 4"));
+        assertEquals(4, found);
+        assertEquals(1, writer.getEvictionCount());
+    }
+
+    @Test
+    void aTornWriteIsNeverRead() throws IOException {
+        EmbeddingCache writer = new EmbeddingCache(16, file, 1, DIMENSIONS);
+        writer.put("embeddings", "before the crash", vector(1));
+
+        // A crash while overwriting the only slot: the key is cleared first and written last,
+        // so the process died with the old key gone and only some of the new floats written
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(KEY_BYTES), 0);
+            channel.write(ByteBuffer.allocate(Float.BYTES).putFloat(0, 99f), KEY_BYTES);
+        }
+
+        EmbeddingCache reader = new EmbeddingCache(16, file, 1, DIMENSIONS);
+        assertNull(reader.get("embeddings", "before the crash"));
+        assertEquals(0, reader.getDiskHitCount());
+
+        // The slot is empty again and takes the next entry
+        reader.put("embeddings", "after the crash", vector(2));
+        assertArrayEquals(vector(2), new EmbeddingCache(16, file, 1, DIMENSIONS).get("embeddings", "after the crash"));
+    }
+
+    private static float[] vector(int seed) {
+        float[] vector = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] = seed + i / 10f;
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.feedbackloops.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Recall of the in-memory index against an exact scan with the distance functions pgvector
+ * uses for {@code <->} and {@code <=>}, so the index returns the podcasts the SQL search would.
+ */
+class HnswIndexTest {
+    private static final int DIMENSIONS = 32;
+    private static final int PODCASTS = 2000;
+    private static final int QUERIES = 50;
+    private static final int K = 10;
+    private static final int EF_SEARCH = 64;
+    private static final double MIN_RECALL = 0.95;
+
+    @Test
+    void l2SearchFindsTheExactNearestNeighbours() {
+        assertRecall(false);
+    }
+
+    @Test
+    void cosineSearchFindsTheExactNearestNeighbours() {
+        assertRecall(true);
+    }
+
+    @Test
+    void cosineDistanceIsTheDistanceOfTheSqlOperator() {
+        HnswIndex index = new HnswIndex(2, 16, 32, true);
+        index.add(1, new float[] {3, 0});
+        index.add(2, new float[] {0, 5});
+
+        List<HnswIndex.SearchResult> results = index.search(new float[] {2, 2}, 2, EF_SEARCH);
+
+        assertEquals(2, results.size());
+        assertEquals(1 - Math.sqrt(0.5), results.get(0).getDistance(), 1e-6);
+        assertEquals(1 - Math.sqrt(0.5), results.get(1).getDistance(), 1e-6);
+    }
+
+    private static void assertRecall(boolean cosine) {
+        Random random = new Random(42);
+        float[][] podcasts = new float[PODCASTS][];
+        HnswIndex index = new HnswIndex(DIMENSIONS, 16, 200, cosine);
+        for (int id = 0; id < PODCASTS; id++) {
+            podcasts[id] = randomVector(random);
+            index.add(id, podcasts[id]);
+        }
+
+        int found = 0;
+        for (int q = 0; q < QUERIES; q++) {
+            float[] query = randomVector(random);
+            List<Integer> exact = exactNearest(podcasts, query, cosine);
+            Set<Integer> expected = new HashSet<>(exact);
+            for (HnswIndex.SearchResult result : index.search(query, K, EF_SEARCH)) {
+                if (expected.contains(result.getId())) {
+                    found++;
+                    assertEquals(sqlDistance(podcasts[result.getId()], query, cosine), result.getDistance(), 1e-4);
+                }
+            }
+        }
+
+        double recall = found / (double) (QUERIES * K);
+        assertTrue(recall >= MIN_RECALL, "recall@" + K + " was " + recall);
+    }
+
+    private static List<Integer> exactNearest(float[][] podcasts, float[] query, boolean cosine) {
+        List<Integer> ids = new ArrayList<>(podcasts.length);
+        for (int id = 0; id < podcasts.length; id++) {
+            ids.add(id);
+        }
+        ids.sort(Comparator.comparingDouble(id -> sqlDistance(podcasts[id], query, cosine)));
+        return ids.subList(0, K);
+    }
+
+    // pgvector's l2_distance and cosine_distance, computed in double precision
+    private static double sqlDistance(float[] a, float[] b, boolean cosine) {
+        double dot = 0;
+        double normA = 0;
+        double normB = 0;
+        double squaredDistance = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * (double) b[i];
+            normA += a[i] * (double) a[i];
+            normB += b[i] * (double) b[i];
+            double diff = a[i] - (double) b[i];
+            squaredDistance += diff * diff;
+        }
+        return cosine ? 1 - dot / Math.sqrt(normA * normB) : Math.sqrt(squaredDistance);
+    }
+
+    // Lengths vary around 1 like embeddings do, so cosine and Euclidean order differ
+    private static float[] randomVector(Random random) {
+        float scale = 0.5f + random.nextFloat();
+        float[] vector = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] = (float) random.nextGaussian() * scale;
+        }
+        return vector;
+    }
+}
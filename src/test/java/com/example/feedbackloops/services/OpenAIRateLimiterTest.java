@@ -0,0 +1,193 @@
+package com.example.feedbackloops.services;
+
+import com.azure.core.exception.HttpResponseException;
+import com.azure.core.http.HttpHeaders;
+import com.azure.core.http.HttpMethod;
+import com.azure.core.http.HttpPipeline;
+import com.azure.core.http.HttpPipelineBuilder;
+import com.azure.core.http.HttpRequest;
+import com.azure.core.http.HttpResponse;
+import com.azure.core.util.Context;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Admission after the service's rate limit headers, and the retry loop: which failures are
+ * retried, how long the backoff may be, and how a 429 slows the deployment down.
+ */
+class OpenAIRateLimiterTest {
+    private static final String DEPLOYMENT = "embeddings";
+
+    @Test
+    void remainingRequestsHeaderClampsAdmission() {
+        // 600 requests a minute admit a burst of 100 and then one every 100 ms
+        OpenAIRateLimiter limiter = new OpenAIRateLimiter(DEPLOYMENT, 600, 0, 0, 1, 1);
+        respond(limiter, "/openai/deployments/" + DEPLOYMENT + "/embeddings", new HttpHeaders()
+            .set("x-ratelimit-remaining-requests", "0"));
+
+        long start = System.nanoTime();
+        limiter.execute(1, () -> "done");
+
+        assertTrue(elapsedMillis(start) >= 80, "admitted after " + elapsedMillis(start) + " ms");
+    }
+
+    @Test
+    void headersOfOtherDeploymentsAreIgnored() {
+        OpenAIRateLimiter limiter = new OpenAIRateLimiter(DEPLOYMENT, 600, 0, 0, 1, 1);
+        respond(limiter, "/openai/deployments/chat/chat/completions", new HttpHeaders()
+            .set("x-ratelimit-remaining-requests", "0"));
+
+        long start = System.nanoTime();
+        limiter.execute(1, () -> "done");
+
+        assertTrue(elapsedMillis(start) < 50, "admitted after " + elapsedMillis(start) + " ms");
+    }
+
+    @Test
+    void retryableFailuresAreRetriedUntilTheCallSucceeds() {
+        OpenAIRateLimiter limiter = new OpenAIRateLimiter(DEPLOYMENT, 0, 0, 3, 1, 5);
+        AtomicInteger calls = new AtomicInteger();
+
+        String result = limiter.execute(1, () -> {
+            if (calls.incrementAndGet() < 3) {
+                throw failure(503, new HttpHeaders());
+            }
+            return "done";
+        });
+
+        assertEquals("done", result);
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    void nonRetryableFailuresAreThrownAtOnce() {
+        OpenAIRateLimiter limiter = new OpenAIRateLimiter(DEPLOYMENT, 0, 0, 3, 1, 5);
+        AtomicInteger calls = new AtomicInteger();
+        HttpResponseException badRequest = failure(400, new HttpHeaders());
+
+        assertSame(badRequest, assertThrows(HttpResponseException.class, () -> limiter.execute(1, () -> {
+            calls.incrementAndGet();
+            throw badRequest;
+        })));
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void theLastFailureIsThrownOnceRetriesAreUsedUp() {
+        OpenAIRateLimiter limiter = new OpenAIRateLimiter(DEPLOYMENT, 0, 0, 2, 1, 5);
+        AtomicInteger calls = new AtomicInteger();
+
+        assertThrows(HttpResponseException.class, () -> limiter.execute(1, () -> {
+            calls.incrementAndGet();
+            throw failure(500, new HttpHeaders());
+        }));
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    void backoffIsJitteredBelowTheMaximumDelay() {
+        // Uncapped, the base delay alone would make ten retries take at least seconds on average
+        OpenAIRateLimiter limiter = new OpenAIRateLimiter(DEPLOYMENT, 0, 0, 10, 1000, 10);
+        AtomicInteger calls = new AtomicInteger();
+
+        long start = System.nanoTime();
+        assertThrows(HttpResponseException.class, () -> limiter.execute(1, () -> {
+            calls.incrementAndGet();
+            throw failure(503, new HttpHeaders());
+        }));
+
+        assertEquals(11, calls.get());
+        assertTrue(elapsedMillis(start) <= 10 * 10 + 200, "retried for " + elapsedMillis(start) + " ms");
+    }
+
+    @Test
+    void throttlingWaitsForRetryAfterAndCutsTheRate() {
+        OpenAIRateLimiter limiter = new OpenAIRateLimiter(DEPLOYMENT, 0, 0, 1, 1, 1);
+        AtomicInteger calls = new AtomicInteger();
+
+        long start = System.nanoTime();
+        limiter.execute(1, () -> {
+            if (calls.incrementAndGet() == 1) {
+                throw failure(429, new HttpHeaders().set("retry-after-ms", "150"));
+            }
+            return "done";
+        });
+
+        assertTrue(elapsedMillis(start) >= 150, "retried after " + elapsedMillis(start) + " ms");
+        // Cut to 0.7 by the 429, then restored by one step for the success
+        assertEquals(0.72, limiter.getRateScale(), 1e-9);
+    }
+
+    private static void respond(OpenAIRateLimiter limiter, String path, HttpHeaders headers) {
+        HttpPipeline pipeline = new HttpPipelineBuilder()
+            .policies(limiter.policy())
+            .httpClient(request -> Mono.just(new StubResponse(request, 200, headers)))
+            .build();
+        pipeline.sendSync(new HttpRequest(HttpMethod.POST, "https://example.openai.azure.com" + path), Context.NONE);
+    }
+
+    private static HttpResponseException failure(int status, HttpHeaders headers) {
+        HttpRequest request = new HttpRequest(HttpMethod.POST, "https://example.openai.azure.com/openai/deployments/" + DEPLOYMENT + "/embeddings");
+        return new HttpResponseException("status " + status, new StubResponse(request, status, headers));
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+
+    private static final class StubResponse extends HttpResponse {
+        private final int status;
+        private final HttpHeaders headers;
+
+        StubResponse(HttpRequest request, int status, HttpHeaders headers) {
+            super(request);
+            this.status = status;
+            this.headers = headers;
+        }
+
+        @Override
+        public int getStatusCode() {
+            return status;
+        }
+
+        @Override
+        public String getHeaderValue(String name) {
+            return headers.getValue(name);
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return headers;
+        }
+
+        @Override
+        public Flux<ByteBuffer> getBody() {
+            return Flux.empty();
+        }
+
+        @Override
+        public Mono<byte[]> getBodyAsByteArray() {
+            return Mono.just(new byte[0]);
+        }
+
+        @Override
+        public Mono<String> getBodyAsString() {
+            return Mono.just("");
+        }
+
+        @Override
+        public Mono<String> getBodyAsString(Charset charset) {
+            return Mono.just("");
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.feedbackloops.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link PodcastDeduplicator#contentHash} must equal the hash
+ * {@code data/migrations/006_add_content_hash.sql} stores for existing rows, or a resend of an
+ * old transcript would not be recognized.
+ */
+class PodcastDeduplicatorTest {
+    private static final Path MIGRATION = Path.of("data/migrations/006_add_content_hash.sql");
+    // encode(sha256(convert_to('hello world', 'UTF8')), 'hex')
+    private static final String HELLO_WORLD_SHA256 = "b94d27b9934d3e08a52e52d7da7dabfac484efe37a5380ee9088f7ace2efcde9";
+
+    @Test
+    void hashIsTheHexSha256OfTheNormalizedUtf8Text() {
+        assertEquals(HELLO_WORLD_SHA256, PodcastDeduplicator.contentHash("hello world"));
+        assertEquals(HELLO_WORLD_SHA256, PodcastDeduplicator.contentHash("  hello \t\r\n world\n"));
+    }
+
+    @Test
+    void composedAndDecomposedTextHashAlike() {
+        assertEquals(PodcastDeduplicator.contentHash("caf\u00e9"), PodcastDeduplicator.contentHash("cafe\u0301"));
+    }
+
+    @Test
+    void collapsesExactlyTheWhitespaceOfTheMigrationsPattern() throws IOException {
+        Set<Character> sqlWhitespace = migrationWhitespace();
+        String collapsed = PodcastDeduplicator.contentHash("a b");
+
+        // Characters outside the SQL class, such as U+00A0 or U+2003, are part of the text
+        for (char c = 0; c < 0x3100; c++) {
+            if (Character.isSurrogate(c)) {
+                continue;
+            }
+            String hash = PodcastDeduplicator.contentHash("a" + c + c + "b");
+            if (sqlWhitespace.contains(c)) {
+                assertEquals(collapsed, hash, "U+" + Integer.toHexString(c));
+            } else {
+                assertNotEquals(collapsed, hash, "U+" + Integer.toHexString(c));
+            }
+        }
+    }
+
+    @Test
+    void textThatIsOnlyWhitespaceHashesAsEmpty() {
+        // btrim of a single space leaves the empty string
+        assertEquals(PodcastDeduplicator.contentHash(""), PodcastDeduplicator.contentHash(" \n\t "));
+    }
+
+    // Characters of the E'[...]+' class the migration passes to regexp_replace
+    private static Set<Character> migrationWhitespace() throws IOException {
+        Matcher matcher = Pattern.compile("E'\\[(.*?)\\]\\+'").matcher(Files.readString(MIGRATION));
+        assertTrue(matcher.find(), "no whitespace class in " + MIGRATION);
+        String escaped = matcher.group(1);
+
+        Set<Character> characters = new HashSet<>();
+        for (int i = 0; i < escaped.length(); i++) {
+            char c = escaped.charAt(i);
+            if (c != '\\') {
+                characters.add(c);
+                continue;
+            }
+            char escape = escaped.charAt(++i);
+            switch (escape) {
+                case 't' -> characters.add('\t');
+                case 'n' -> characters.add('\n');
+                case 'f' -> characters.add('\f');
+                case 'r' -> characters.add('\r');
+                default -> {
+                    // Octal escape such as \013
+                    characters.add((char) Integer.parseInt(escaped.substring(i, i + 3), 8));
+                    i += 2;
+                }
+            }
+        }
+        return characters;
+    }
+}
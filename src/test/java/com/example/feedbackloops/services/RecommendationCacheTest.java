@@ -0,0 +1,169 @@
+package com.example.feedbackloops.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Version-based invalidation, including the user id stripes the versions are kept in, and the
+ * sharing of in-flight computations.
+ */
+class RecommendationCacheTest {
+    private static final long TTL_MILLIS = 60_000;
+
+    @Test
+    void entriesAreServedUntilTheirUserIsInvalidated() {
+        RecommendationCache<String> cache = new RecommendationCache<>(16, TTL_MILLIS);
+        CountingLoader loader = new CountingLoader();
+
+        assertEquals("value 1", cache.get(1, 10, loader));
+        assertEquals("value 1", cache.get(1, 10, loader));
+        cache.invalidateUser(1);
+        assertEquals("value 2", cache.get(1, 10, loader));
+
+        assertEquals(2, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    void invalidatingAUserOnlyStalesTheUsersOfItsStripe() {
+        // Four stripes, so users 1 and 5 share one and user 2 has another
+        RecommendationCache<String> cache = new RecommendationCache<>(4, TTL_MILLIS);
+        CountingLoader loader = new CountingLoader();
+        cache.get(1, 10, loader);
+        cache.get(5, 10, loader);
+        cache.get(2, 10, loader);
+
+        cache.invalidateUser(1);
+        cache.get(5, 10, loader);
+        cache.get(2, 10, loader);
+
+        assertEquals(4, loader.calls.get());
+    }
+
+    @Test
+    void catalogInvalidationStalesEveryEntry() {
+        RecommendationCache<String> cache = new RecommendationCache<>(16, TTL_MILLIS);
+        CountingLoader loader = new CountingLoader();
+        cache.get(1, 10, loader);
+        cache.get(2, 10, loader);
+
+        cache.invalidateCatalog();
+        cache.get(1, 10, loader);
+        cache.get(2, 10, loader);
+
+        assertEquals(4, loader.calls.get());
+    }
+
+    @Test
+    void expiredEntriesAreRecomputed() {
+        RecommendationCache<String> cache = new RecommendationCache<>(16, 0);
+        CountingLoader loader = new CountingLoader();
+
+        cache.get(1, 10, loader);
+        cache.get(1, 10, loader);
+
+        assertEquals(2, loader.calls.get());
+    }
+
+    @Test
+    void concurrentMissesShareOneComputation() throws Exception {
+        RecommendationCache<String> cache = new RecommendationCache<>(16, TTL_MILLIS);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountingLoader loader = new CountingLoader(() -> {
+            started.countDown();
+            await(release);
+        });
+
+        CompletableFuture<String> owner = CompletableFuture.supplyAsync(() -> cache.get(1, 10, loader));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        CompletableFuture<String> waiter = CompletableFuture.supplyAsync(() -> cache.get(1, 10, loader));
+        // The waiter counts as a hit before it blocks on the owner's computation
+        while (cache.getHitCount() == 0) {
+            Thread.onSpinWait();
+        }
+        release.countDown();
+
+        assertSame(owner.get(5, TimeUnit.SECONDS), waiter.get(5, TimeUnit.SECONDS));
+        assertEquals(1, loader.calls.get());
+    }
+
+    @Test
+    void failuresReachWaitersAndAreNotCached() throws Exception {
+        RecommendationCache<String> cache = new RecommendationCache<>(16, TTL_MILLIS);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        RuntimeException failure = new IllegalStateException("search failed");
+
+        CompletableFuture<String> owner = CompletableFuture.supplyAsync(() -> cache.get(1, 10, () -> {
+            started.countDown();
+            await(release);
+            throw failure;
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        CompletableFuture<String> waiter = CompletableFuture.supplyAsync(() -> cache.get(1, 10, () -> "unused"));
+        while (cache.getHitCount() == 0) {
+            Thread.onSpinWait();
+        }
+        release.countDown();
+
+        assertSame(failure, assertThrows(CompletionException.class, owner::join).getCause());
+        assertSame(failure, assertThrows(CompletionException.class, waiter::join).getCause());
+        assertEquals("value 1", cache.get(1, 10, new CountingLoader()));
+    }
+
+    @Test
+    void nullResultsAreNotCached() {
+        RecommendationCache<String> cache = new RecommendationCache<>(16, TTL_MILLIS);
+        AtomicInteger calls = new AtomicInteger();
+        Supplier<String> loader = () -> {
+            calls.incrementAndGet();
+            return null;
+        };
+
+        cache.get(1, 10, loader);
+        cache.get(1, 10, loader);
+
+        assertEquals(2, calls.get());
+        assertEquals(0, cache.size());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class CountingLoader implements Supplier<String> {
+        private final AtomicInteger calls = new AtomicInteger();
+        private final Runnable onCall;
+
+        CountingLoader() {
+            this(() -> {});
+        }
+
+        CountingLoader(Runnable onCall) {
+            this.onCall = onCall;
+        }
+
+        @Override
+        public String get() {
+            int call = calls.incrementAndGet();
+            onCall.run();
+            return "value " + call;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.feedbackloops.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Which reads the router sends to the replica: by measured lag, after a replica failure, and
+ * for keys written within the read-your-writes window or not yet replayed.
+ */
+class ReplicaRouterTest {
+    private static final long MAX_STALENESS_MILLIS = 1000;
+    private static final long READ_YOUR_WRITES_MILLIS = 50;
+
+    @Test
+    void readsStayOnThePrimaryUntilTheLagIsKnown() {
+        ReplicaRouter router = new ReplicaRouter(MAX_STALENESS_MILLIS, READ_YOUR_WRITES_MILLIS);
+
+        assertFalse(router.useReplica(null));
+    }
+
+    @Test
+    void readsGoToTheReplicaOnlyWhileItsLagIsWithinTheBound() {
+        ReplicaRouter router = new ReplicaRouter(MAX_STALENESS_MILLIS, READ_YOUR_WRITES_MILLIS);
+
+        router.recordLag(MAX_STALENESS_MILLIS, System.currentTimeMillis());
+        assertTrue(router.useReplica(null));
+
+        router.recordLag(MAX_STALENESS_MILLIS + 1, System.currentTimeMillis());
+        assertFalse(router.useReplica(null));
+    }
+
+    @Test
+    void zeroMaxStalenessAcceptsAnyLag() {
+        ReplicaRouter router = new ReplicaRouter(0, READ_YOUR_WRITES_MILLIS);
+
+        router.recordLag(3_600_000, System.currentTimeMillis());
+
+        assertTrue(router.useReplica(null));
+    }
+
+    @Test
+    void aReplicaFailureSendsReadsToThePrimary() {
+        ReplicaRouter router = new ReplicaRouter(MAX_STALENESS_MILLIS, READ_YOUR_WRITES_MILLIS);
+        router.recordLag(0, System.currentTimeMillis());
+
+        router.recordFailure(new SQLException("connection refused"));
+
+        assertFalse(router.useReplica(null));
+    }
+
+    @Test
+    void aWrittenKeyIsReadFromThePrimaryWithinTheWindow() {
+        ReplicaRouter router = new ReplicaRouter(MAX_STALENESS_MILLIS, READ_YOUR_WRITES_MILLIS);
+        router.recordLag(0, System.currentTimeMillis());
+
+        router.recordWrite(1);
+
+        assertFalse(router.useReplica(1));
+        assertTrue(router.useReplica(2));
+        assertTrue(router.useReplica(null));
+    }
+
+    @Test
+    void aWrittenKeyReturnsToTheReplicaOnceTheWindowAndTheReplicaHaveCaughtUp() throws Exception {
+        ReplicaRouter router = new ReplicaRouter(MAX_STALENESS_MILLIS, READ_YOUR_WRITES_MILLIS);
+        router.recordLag(0, System.currentTimeMillis());
+        router.recordWrite(1);
+        Thread.sleep(2 * READ_YOUR_WRITES_MILLIS);
+
+        // Past the window, but the replica was last seen replaying a point before the write
+        router.recordLag(500, System.currentTimeMillis());
+        assertFalse(router.useReplica(1));
+
+        router.recordLag(0, System.currentTimeMillis());
+        assertTrue(router.useReplica(1));
+    }
+
+    @Test
+    void writesForgottenBeforeTheReplicaReplayedThemKeepKeyedReadsOnThePrimary() throws Exception {
+        ReplicaRouter router = new ReplicaRouter(MAX_STALENESS_MILLIS, READ_YOUR_WRITES_MILLIS);
+        router.recordLag(500, System.currentTimeMillis());
+        router.recordWrite(1);
+        Thread.sleep(2 * READ_YOUR_WRITES_MILLIS);
+
+        // Without lag polls, enough writes prune the map and drop key 1 with the window past
+        for (int key = 2; key <= 5000; key++) {
+            router.recordWrite(key);
+        }
+        Thread.sleep(2 * READ_YOUR_WRITES_MILLIS);
+
+        assertFalse(router.useReplica(1));
+        assertFalse(router.useReplica(-1));
+        assertTrue(router.useReplica(null));
+
+        router.recordLag(0, System.currentTimeMillis());
+        assertTrue(router.useReplica(1));
+        assertTrue(router.useReplica(-1));
+    }
+}
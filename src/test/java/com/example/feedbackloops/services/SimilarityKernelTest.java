@@ -0,0 +1,71 @@
+package com.example.feedbackloops.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+
+/**
+ * Both kernels against a double-precision dot product, on rows at arbitrary offsets and with
+ * a dimension count that leaves a tail after the vector lanes. The SIMD kernel is only checked
+ * in a build with the {@code vector} profile run with {@code jdk.incubator.vector}.
+ */
+class SimilarityKernelTest {
+    private static final int DIMENSIONS = 37;
+    private static final int ROWS = 9;
+    // Relative, since the kernels sum in a different order than the reference
+    private static final double TOLERANCE = 1e-5;
+
+    private final Random random = new Random(42);
+    private final float[] a = randomMatrix();
+    private final float[] b = randomMatrix();
+
+    @Test
+    void scalarKernelMatchesTheReference() {
+        assertMatchesReference(new SimilarityKernel.Scalar());
+    }
+
+    @Test
+    void vectorKernelMatchesTheReference() {
+        SimilarityKernel kernel = SimilarityKernel.create();
+        assumeFalse(kernel instanceof SimilarityKernel.Scalar, "built or run without the Vector API");
+        assertMatchesReference(kernel);
+    }
+
+    private void assertMatchesReference(SimilarityKernel kernel) {
+        float[] out = new float[4];
+        for (int row = 0; row + 3 < ROWS; row++) {
+            for (int other = 0; other < ROWS; other++) {
+                int bOffset = other * DIMENSIONS;
+                kernel.dot4(a, row * DIMENSIONS, (row + 1) * DIMENSIONS, (row + 2) * DIMENSIONS, (row + 3) * DIMENSIONS,
+                    b, bOffset, DIMENSIONS, out);
+                for (int i = 0; i < 4; i++) {
+                    assertClose(reference((row + i) * DIMENSIONS, bOffset), out[i], kernel);
+                }
+                assertClose(reference(row * DIMENSIONS, bOffset), kernel.dot(a, row * DIMENSIONS, b, bOffset, DIMENSIONS), kernel);
+            }
+        }
+    }
+
+    private double reference(int aOffset, int bOffset) {
+        double sum = 0;
+        for (int d = 0; d < DIMENSIONS; d++) {
+            sum += a[aOffset + d] * (double) b[bOffset + d];
+        }
+        return sum;
+    }
+
+    private static void assertClose(double expected, float actual, SimilarityKernel kernel) {
+        assertEquals(expected, actual, TOLERANCE * Math.max(1, Math.abs(expected)), kernel.name());
+    }
+
+    private float[] randomMatrix() {
+        float[] matrix = new float[ROWS * DIMENSIONS];
+        for (int i = 0; i < matrix.length; i++) {
+            matrix[i] = (float) random.nextGaussian();
+        }
+        return matrix;
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.feedbackloops.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The heap against sorting every candidate: it keeps the {@code k} smallest scores and drains
+ * them in ascending order with their ids.
+ */
+class TopKHeapTest {
+    private static final int K = 10;
+
+    @Test
+    void keepsTheKSmallestScoresInAscendingOrder() {
+        Random random = new Random(42);
+        float[] candidates = new float[1000];
+        TopKHeap heap = new TopKHeap(K);
+        for (int id = 0; id < candidates.length; id++) {
+            candidates[id] = random.nextFloat();
+            heap.offer(candidates[id], id);
+        }
+
+        float[] scores = new float[K];
+        int[] ids = new int[K];
+        assertEquals(K, heap.drainSorted(scores, ids));
+
+        int[] expectedIds = IntStream.range(0, candidates.length).boxed()
+            .sorted(Comparator.comparingDouble(id -> candidates[id]))
+            .limit(K)
+            .mapToInt(Integer::intValue)
+            .toArray();
+        assertArrayEquals(expectedIds, ids);
+        for (int i = 0; i < K; i++) {
+            assertEquals(candidates[ids[i]], scores[i]);
+        }
+    }
+
+    @Test
+    void drainsEveryCandidateWhenThereAreFewerThanK() {
+        TopKHeap heap = new TopKHeap(K);
+        heap.offer(0.3f, 3);
+        heap.offer(0.1f, 1);
+        heap.offer(0.2f, 2);
+
+        float[] scores = new float[K];
+        int[] ids = new int[K];
+        assertEquals(3, heap.drainSorted(scores, ids));
+
+        assertArrayEquals(new int[] {1, 2, 3}, Arrays.copyOf(ids, 3));
+        assertArrayEquals(new float[] {0.1f, 0.2f, 0.3f}, Arrays.copyOf(scores, 3));
+    }
+
+    @Test
+    void aDrainedHeapIsEmptyAndCanBeRefilled() {
+        TopKHeap heap = new TopKHeap(2);
+        heap.offer(0.5f, 5);
+        heap.offer(0.4f, 4);
+        heap.drainSorted(new float[2], new int[2]);
+        assertEquals(0, heap.size());
+
+        heap.offer(0.9f, 9);
+        heap.offer(0.7f, 7);
+        heap.offer(0.8f, 8);
+
+        int[] ids = new int[2];
+        assertEquals(2, heap.drainSorted(new float[2], ids));
+        assertArrayEquals(new int[] {7, 8}, ids);
+    }
+}
@@ -0,0 +1,202 @@
+package com.example.feedbackloops.services;
+
+import com.example.feedbackloops.models.Embedding;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Coalescing, the debounce and max-delay deadlines, retries of failed batches and shutdown,
+ * against stubs that record each batch instead of calling OpenAI and Postgres.
+ */
+class UserHistoryWriterTest {
+    private static final long LONG_DEBOUNCE_MILLIS = 60_000;
+
+    @Test
+    void aBurstForOneUserIsWrittenOnceWithTheLatestHistory() {
+        StubDatabase database = new StubDatabase(0);
+        UserHistoryWriter writer = writer(database, 50, 1000, 3);
+
+        List<CompletableFuture<Void>> written = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) {
+            written.add(writer.submit(1, "history " + i));
+        }
+        CompletableFuture.allOf(written.toArray(CompletableFuture[]::new)).join();
+
+        assertEquals(List.of(Map.of(1, "history 5")), database.batches);
+        writer.close(1000);
+    }
+
+    @Test
+    void updatesOfDifferentUsersDueTogetherShareABatch() {
+        StubDatabase database = new StubDatabase(0);
+        UserHistoryWriter writer = writer(database, LONG_DEBOUNCE_MILLIS, LONG_DEBOUNCE_MILLIS, 3);
+        for (int userId = 1; userId <= 5; userId++) {
+            writer.submit(userId, "history of " + userId);
+        }
+
+        // Closing makes every pending update due at once
+        writer.close(5000);
+
+        assertEquals(1, database.batches.size());
+        assertEquals(5, database.batches.get(0).size());
+    }
+
+    @Test
+    void aSteadyStreamOfUpdatesIsWrittenByTheMaxDelay() throws Exception {
+        StubDatabase database = new StubDatabase(0);
+        UserHistoryWriter writer = writer(database, 100, 200, 3);
+
+        // A new update every 20 ms would keep pushing a pure debounce out forever
+        long start = System.nanoTime();
+        CompletableFuture<Void> first = writer.submit(1, "history 0");
+        for (int i = 1; i < 30 && !first.isDone(); i++) {
+            Thread.sleep(20);
+            writer.submit(1, "history " + i);
+        }
+
+        first.get(1, TimeUnit.SECONDS);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        assertTrue(elapsedMillis < 400, "first write after " + elapsedMillis + " ms");
+        writer.close(1000);
+    }
+
+    @Test
+    void flushUserWritesThePendingUpdateWithoutWaitingForTheDebounce() throws Exception {
+        StubDatabase database = new StubDatabase(0);
+        UserHistoryWriter writer = writer(database, LONG_DEBOUNCE_MILLIS, LONG_DEBOUNCE_MILLIS, 3);
+        writer.submit(1, "history");
+
+        writer.flushUserAsync(1).get(1, TimeUnit.SECONDS);
+
+        assertEquals(List.of(Map.of(1, "history")), database.batches);
+        writer.close(1000);
+    }
+
+    @Test
+    void aFailedBatchIsRequeuedAndWrittenOnRetry() throws Exception {
+        StubDatabase database = new StubDatabase(1);
+        UserHistoryWriter writer = writer(database, 10, 100, 3);
+
+        writer.submit(1, "history").get(5, TimeUnit.SECONDS);
+
+        assertEquals(2, database.attempts.get());
+        assertEquals(List.of(Map.of(1, "history")), database.batches);
+        writer.close(1000);
+    }
+
+    @Test
+    void anUpdateIsDroppedAfterMaxAttempts() {
+        StubDatabase database = new StubDatabase(Integer.MAX_VALUE);
+        UserHistoryWriter writer = writer(database, 10, 100, 1);
+
+        CompletionException e = assertThrows(CompletionException.class, () -> writer.submit(1, "history").join());
+
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+        assertEquals(1, database.attempts.get());
+        assertEquals(0, writer.getQueueDepth());
+        writer.close(1000);
+    }
+
+    @Test
+    void closeWritesPendingUpdatesAndRejectsNewOnes() {
+        StubDatabase database = new StubDatabase(0);
+        UserHistoryWriter writer = writer(database, LONG_DEBOUNCE_MILLIS, LONG_DEBOUNCE_MILLIS, 3);
+        CompletableFuture<Void> written = writer.submit(1, "history");
+
+        assertEquals(0, writer.close(5000));
+
+        assertTrue(written.isDone() && !written.isCompletedExceptionally());
+        assertEquals(List.of(Map.of(1, "history")), database.batches);
+        assertThrows(IllegalStateException.class, () -> writer.submit(2, "history"));
+        assertEquals(0, writer.close(5000));
+    }
+
+    @Test
+    void closeFailsTheUpdatesItCouldNotWriteInTime() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        StubDatabase database = new StubDatabase(0) {
+            @Override
+            public CompletableFuture<int[]> executeBatchUpdateAsync(String sqlQuery, List<Map<String, Object>> parameterRows) {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    // Interrupted by the shutdown, as a blocked JDBC call would be
+                    Thread.currentThread().interrupt();
+                    return CompletableFuture.failedFuture(e);
+                }
+                return super.executeBatchUpdateAsync(sqlQuery, parameterRows);
+            }
+        };
+        UserHistoryWriter writer = writer(database, LONG_DEBOUNCE_MILLIS, LONG_DEBOUNCE_MILLIS, 3);
+        CompletableFuture<Void> written = writer.submit(1, "history");
+
+        assertEquals(1, writer.close(100));
+
+        CompletionException e = assertThrows(CompletionException.class, written::join);
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+        release.countDown();
+    }
+
+    private static UserHistoryWriter writer(StubDatabase database, long debounceMillis, long maxDelayMillis, int maxAttempts) {
+        return new UserHistoryWriter(new StubEmbeddings(), database, debounceMillis, maxDelayMillis, 100, maxAttempts,
+            userId -> {});
+    }
+
+    private static final class StubEmbeddings extends EmbeddingService {
+        StubEmbeddings() {
+            super(() -> null, "stub", null, 0, 1, 0,
+                new ServiceExecutor(ServiceExecutor.newExecutorService("platform", 2), 2, "history-test"),
+                OpenAIRateLimiter.retryOnly("stub"));
+        }
+
+        @Override
+        public CompletableFuture<List<Embedding>> getEmbeddingsAsync(List<String> inputs) {
+            List<Embedding> embeddings = new ArrayList<>(inputs.size());
+            for (String input : inputs) {
+                embeddings.add(new Embedding(new float[] {input.length()}));
+            }
+            return CompletableFuture.completedFuture(embeddings);
+        }
+    }
+
+    // Records each stored batch as user id -> history, after failing the first writes
+    private static class StubDatabase extends SqlExecutorService {
+        private final int failures;
+        private final AtomicInteger attempts = new AtomicInteger();
+        private final List<Map<Integer, String>> batches = new CopyOnWriteArrayList<>();
+
+        StubDatabase(int failures) {
+            // The pool is opened on first use, which these tests never get to
+            super("jdbc:postgresql://localhost/unused", 1, ServiceExecutor.newExecutorService("platform", 1));
+            this.failures = failures;
+        }
+
+        @Override
+        public CompletableFuture<int[]> executeBatchUpdateAsync(String sqlQuery, List<Map<String, Object>> parameterRows) {
+            if (attempts.incrementAndGet() <= failures) {
+                return CompletableFuture.failedFuture(new IllegalStateException("database unavailable"));
+            }
+            Map<Integer, String> batch = new LinkedHashMap<>();
+            for (Map<String, Object> row : parameterRows) {
+                batch.put((Integer) row.get("3"), (String) row.get("1"));
+            }
+            batches.add(batch);
+            return CompletableFuture.completedFuture(new int[parameterRows.size()]);
+        }
+    }
+}
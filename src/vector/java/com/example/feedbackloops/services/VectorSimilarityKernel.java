@@ -0,0 +1,63 @@
+package com.example.feedbackloops.services;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link SimilarityKernel} on the widest float vectors the CPU supports (e.g. 8 lanes with AVX2,
+ * 16 with AVX-512). Compiled only by the {@code vector} Maven profile, and only loaded by
+ * {@link SimilarityKernel#create()} when the incubator module is present.
+ */
+final class VectorSimilarityKernel implements SimilarityKernel {
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    @Override
+    public void dot4(float[] a, int a0, int a1, int a2, int a3, float[] b, int bOffset, int dimensions, float[] out) {
+        FloatVector sum0 = FloatVector.zero(SPECIES);
+        FloatVector sum1 = FloatVector.zero(SPECIES);
+        FloatVector sum2 = FloatVector.zero(SPECIES);
+        FloatVector sum3 = FloatVector.zero(SPECIES);
+        int bound = SPECIES.loopBound(dimensions);
+        int d = 0;
+        for (; d < bound; d += SPECIES.length()) {
+            FloatVector value = FloatVector.fromArray(SPECIES, b, bOffset + d);
+            sum0 = FloatVector.fromArray(SPECIES, a, a0 + d).fma(value, sum0);
+            sum1 = FloatVector.fromArray(SPECIES, a, a1 + d).fma(value, sum1);
+            sum2 = FloatVector.fromArray(SPECIES, a, a2 + d).fma(value, sum2);
+            sum3 = FloatVector.fromArray(SPECIES, a, a3 + d).fma(value, sum3);
+        }
+        float tail0 = 0f, tail1 = 0f, tail2 = 0f, tail3 = 0f;
+        for (; d < dimensions; d++) {
+            float value = b[bOffset + d];
+            tail0 += a[a0 + d] * value;
+            tail1 += a[a1 + d] * value;
+            tail2 += a[a2 + d] * value;
+            tail3 += a[a3 + d] * value;
+        }
+        out[0] = sum0.reduceLanes(VectorOperators.ADD) + tail0;
+        out[1] = sum1.reduceLanes(VectorOperators.ADD) + tail1;
+        out[2] = sum2.reduceLanes(VectorOperators.ADD) + tail2;
+        out[3] = sum3.reduceLanes(VectorOperators.ADD) + tail3;
+    }
+
+    @Override
+    public float dot(float[] a, int aOffset, float[] b, int bOffset, int dimensions) {
+        FloatVector sum = FloatVector.zero(SPECIES);
+        int bound = SPECIES.loopBound(dimensions);
+        int d = 0;
+        for (; d < bound; d += SPECIES.length()) {
+            sum = FloatVector.fromArray(SPECIES, a, aOffset + d).fma(FloatVector.fromArray(SPECIES, b, bOffset + d), sum);
+        }
+        float tail = 0f;
+        for (; d < dimensions; d++) {
+            tail += a[aOffset + d] * b[bOffset + d];
+        }
+        return sum.reduceLanes(VectorOperators.ADD) + tail;
+    }
+
+    @Override
+    public String name() {
+        return "vector-" + SPECIES.length() + "x32";
+    }
+}